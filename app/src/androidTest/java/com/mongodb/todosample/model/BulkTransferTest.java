@@ -0,0 +1,101 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.gms.tasks.Tasks;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that bulk inserts reach the collection in batches rather than one request per item.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkTransferTest {
+  private static final String OWNER_ID = "owner";
+  private static final int BATCH_SIZE = 500;
+  private static final int MAX_BATCHES_IN_FLIGHT = 4;
+  private static final long TIMEOUT_SECONDS = 30;
+
+  private InMemoryTodoCollection _collection;
+  private ExecutorService _executor;
+  private BulkTransfer _bulkTransfer;
+
+  @Before
+  public void setUp() {
+    _collection = new InMemoryTodoCollection();
+    _collection.setLatency(10, 10);
+    _executor = Executors.newSingleThreadExecutor();
+    _bulkTransfer = new BulkTransfer(_collection, _executor, BATCH_SIZE, MAX_BATCHES_IN_FLIGHT);
+  }
+
+  @After
+  public void tearDown() {
+    _collection.shutdown();
+    _executor.shutdownNow();
+  }
+
+  @Test
+  public void sendsEachBatchAsOneInsertAndOneStamp() throws Exception {
+    final int inserted = Tasks.await(
+            _bulkTransfer.insertAll(_source(5000)), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    assertEquals(5000, inserted);
+    // Ten batches, each an insertMany and the updateMany stamping last_modified.
+    assertEquals(20, _collection.getRequestCount());
+    _assertStored(5000);
+  }
+
+  @Test
+  public void sendsARemainderAsAShorterBatch() throws Exception {
+    final int inserted = Tasks.await(
+            _bulkTransfer.insertAll(_source(1201)), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    assertEquals(1201, inserted);
+    assertEquals(6, _collection.getRequestCount());
+    _assertStored(1201);
+  }
+
+  private void _assertStored(final int count) throws Exception {
+    final long requests = _collection.getRequestCount();
+    final List<TodoItem> stored = Tasks.await(
+            _collection.find(new Document(TodoItem.OWNER_KEY, OWNER_ID), null, null, 0),
+            TIMEOUT_SECONDS,
+            TimeUnit.SECONDS);
+    assertEquals(count, stored.size());
+    for (final TodoItem item : stored) {
+      assertNotNull(item.getLastModified());
+    }
+    assertEquals(requests + 1, _collection.getRequestCount());
+  }
+
+  private static BulkTransfer.Source _source(final int count) {
+    return new BulkTransfer.Source() {
+      private int _next;
+
+      @Nullable
+      @Override
+      public TodoItem next() {
+        if (_next == count) {
+          return null;
+        }
+        final TodoItem item = new TodoItem("Imported task number " + _next++);
+        item.setOwnerId(OWNER_ID);
+        return item;
+      }
+    };
+  }
+}
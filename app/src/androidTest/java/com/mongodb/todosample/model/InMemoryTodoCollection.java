@@ -0,0 +1,485 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.mongodb.stitch.core.StitchRequestErrorCode;
+import com.mongodb.stitch.core.StitchRequestException;
+import com.mongodb.stitch.core.StitchServiceErrorCode;
+import com.mongodb.stitch.core.StitchServiceException;
+import com.mongodb.todosample.model.objects.TodoItem;
+import com.mongodb.todosample.model.objects.TodoItemCodec;
+
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonObjectId;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.BsonValueCodecProvider;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodecProvider;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.IterableCodecProvider;
+import org.bson.codecs.ValueCodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+
+/**
+ * A todo collection held in memory, standing in for the server to measure the model's throughput
+ * and behavior under slow or flaky networks without one.
+ *
+ * Every operation completes after a configurable latency plus a random jitter, so concurrent
+ * requests may complete out of order, as they can over a real network. Operations can be made to
+ * fail at random, either with a transport error, as when the connection drops, or by being
+ * rejected by the server. Half of the requests failing with a transport error are still applied,
+ * as when the connection drops before the response arrives, so replays must be idempotent.
+ *
+ * Queries support the subset of the query language the model uses: equality, $ne, $gt, $gte, $lt,
+ * $lte and $in on top-level fields, inclusion projections, sorts and limits. Updates support $set,
+ * $unset, $currentDate and $setOnInsert.
+ */
+public class InMemoryTodoCollection implements TodoCollection {
+  private static final CodecRegistry FILTER_CODECS = fromProviders(
+          new ValueCodecProvider(),
+          new BsonValueCodecProvider(),
+          new DocumentCodecProvider(),
+          new IterableCodecProvider());
+
+  private final Codec<TodoItem> _codec = new TodoItemCodec();
+  private final ScheduledExecutorService _server = Executors.newSingleThreadScheduledExecutor();
+  private final Random _random = new Random();
+
+  // Documents in natural order. Only touched on the _server thread, except by seed().
+  private final Map<ObjectId, BsonDocument> _documents = new LinkedHashMap<>();
+  private long _clock;
+
+  private volatile long _latencyMillis;
+  private volatile long _jitterMillis;
+  private volatile double _transportFailureRate;
+  private volatile double _rejectionRate;
+  private final AtomicLong _requestCount = new AtomicLong();
+
+  /**
+   * Sets how long every operation takes: the given latency plus a uniformly distributed random
+   * jitter of up to jitterMillis.
+   */
+  public void setLatency(final long latencyMillis, final long jitterMillis) {
+    this._latencyMillis = latencyMillis;
+    this._jitterMillis = jitterMillis;
+  }
+
+  /**
+   * Sets the fractions of operations that fail with a transport error and that are rejected by
+   * the server, each between 0 and 1.
+   */
+  public void setFailureRates(final double transportFailureRate, final double rejectionRate) {
+    this._transportFailureRate = transportFailureRate;
+    this._rejectionRate = rejectionRate;
+  }
+
+  /**
+   * The number of operations requested so far, including failed ones.
+   */
+  public long getRequestCount() {
+    return _requestCount.get();
+  }
+
+  /**
+   * Fills the collection with items owned by the given user, a quarter of them checked, as if
+   * they had been written over the past day. Must be called before the collection is used.
+   */
+  public void seed(final String ownerId, final int count) {
+    final long now = System.currentTimeMillis();
+    for (int i = 0; i < count; i++) {
+      final boolean checked = i % 4 == 0;
+      final Date lastModified = new Date(now - TimeUnit.DAYS.toMillis(1) * (count - i) / count);
+      final TodoItem item = new TodoItem(
+              ObjectId.get(),
+              ownerId,
+              "Seeded task number " + i + " with a typical length of text",
+              checked,
+              checked ? lastModified : null,
+              lastModified,
+              false);
+      _documents.put(item.getId(), _encode(item));
+    }
+  }
+
+  @Override
+  public Task<List<TodoItem>> find(
+          final Document filter,
+          @Nullable final Document projection,
+          @Nullable final Document sort,
+          final int limit) {
+    return _execute(new Callable<List<TodoItem>>() {
+      @Override
+      public List<TodoItem> call() {
+        final List<BsonDocument> matches = _matching(_toBson(filter));
+        if (sort != null) {
+          Collections.sort(matches, _comparator(_toBson(sort)));
+        }
+        final int count = limit > 0 ? Math.min(limit, matches.size()) : matches.size();
+        final BsonDocument fields = projection != null ? _toBson(projection) : null;
+        final List<TodoItem> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          result.add(_decode(fields != null ? _project(matches.get(i), fields) : matches.get(i)));
+        }
+        return result;
+      }
+    });
+  }
+
+  @Override
+  public Task<TodoItem> findFirst(final Document filter) {
+    return _execute(new Callable<TodoItem>() {
+      @Override
+      public TodoItem call() {
+        final List<BsonDocument> matches = _matching(_toBson(filter));
+        return matches.isEmpty() ? null : _decode(matches.get(0));
+      }
+    });
+  }
+
+  @Override
+  public Task<Void> insertMany(final List<TodoItem> items) {
+    final List<BsonDocument> documents = new ArrayList<>(items.size());
+    for (final TodoItem item : items) {
+      documents.add(_encode(item));
+    }
+    return _execute(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        for (final BsonDocument document : documents) {
+          final ObjectId id = document.getObjectId(TodoItem.ID_KEY).getValue();
+          if (_documents.containsKey(id)) {
+            throw new StitchServiceException(
+                    "duplicate key error: " + id, StitchServiceErrorCode.MONGODB_ERROR);
+          }
+          _documents.put(id, document);
+        }
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public Task<Void> updateOne(final Document filter, final Document update, final boolean upsert) {
+    return _execute(new Callable<Void>() {
+      @Override
+      public Void call() {
+        final BsonDocument bsonFilter = _toBson(filter);
+        final BsonDocument bsonUpdate = _toBson(update);
+        final List<BsonDocument> matches = _matching(bsonFilter);
+        if (!matches.isEmpty()) {
+          _applyUpdate(matches.get(0), bsonUpdate, false);
+        } else if (upsert) {
+          _upsert(bsonFilter, bsonUpdate);
+        }
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public Task<Void> updateMany(final Document filter, final Document update) {
+    return _execute(new Callable<Void>() {
+      @Override
+      public Void call() {
+        final BsonDocument bsonUpdate = _toBson(update);
+        for (final BsonDocument document : _matching(_toBson(filter))) {
+          _applyUpdate(document, bsonUpdate, false);
+        }
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public Task<Void> deleteMany(final Document filter) {
+    return _execute(new Callable<Void>() {
+      @Override
+      public Void call() {
+        final BsonDocument bsonFilter = _toBson(filter);
+        final Iterator<BsonDocument> documents = _documents.values().iterator();
+        while (documents.hasNext()) {
+          if (_matches(documents.next(), bsonFilter)) {
+            documents.remove();
+          }
+        }
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public Codec<TodoItem> getCodec() {
+    return _codec;
+  }
+
+  /**
+   * Stops the server thread. Operations requested afterwards never complete.
+   */
+  public void shutdown() {
+    _server.shutdownNow();
+  }
+
+  /**
+   * Runs an operation on the server thread once its latency has elapsed, unless it is chosen to
+   * fail.
+   */
+  private <T> Task<T> _execute(final Callable<T> operation) {
+    _requestCount.incrementAndGet();
+    final TaskCompletionSource<T> completion = new TaskCompletionSource<>();
+    final long jitter = _jitterMillis;
+    final long delay = _latencyMillis + (jitter > 0 ? (long) (_random.nextDouble() * jitter) : 0);
+    _server.schedule(new Runnable() {
+      @Override
+      public void run() {
+        final double roll = _random.nextDouble();
+        try {
+          if (roll < _rejectionRate) {
+            throw new StitchServiceException(
+                    "Injected rejection", StitchServiceErrorCode.MONGODB_ERROR);
+          }
+          if (roll < _rejectionRate + _transportFailureRate) {
+            if (_random.nextBoolean()) {
+              operation.call();
+            }
+            throw new StitchRequestException(
+                    new IOException("Injected transport failure"),
+                    StitchRequestErrorCode.TRANSPORT_ERROR);
+          }
+          completion.setResult(operation.call());
+        } catch (final Exception e) {
+          completion.setException(e);
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+    return completion.getTask();
+  }
+
+  private List<BsonDocument> _matching(final BsonDocument filter) {
+    final List<BsonDocument> matches = new ArrayList<>();
+    for (final BsonDocument document : _documents.values()) {
+      if (_matches(document, filter)) {
+        matches.add(document);
+      }
+    }
+    return matches;
+  }
+
+  private static boolean _matches(final BsonDocument document, final BsonDocument filter) {
+    for (final Map.Entry<String, BsonValue> condition : filter.entrySet()) {
+      final BsonValue value = document.get(condition.getKey());
+      final BsonValue expected = condition.getValue();
+      if (_isOperatorDocument(expected)) {
+        for (final Map.Entry<String, BsonValue> operator : expected.asDocument().entrySet()) {
+          if (!_matchesOperator(value, operator.getKey(), operator.getValue())) {
+            return false;
+          }
+        }
+      } else if (!_equal(value, expected)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean _isOperatorDocument(final BsonValue value) {
+    return value.isDocument()
+            && !value.asDocument().isEmpty()
+            && value.asDocument().getFirstKey().startsWith("$");
+  }
+
+  private static boolean _matchesOperator(
+          @Nullable final BsonValue value,
+          final String operator,
+          final BsonValue operand) {
+    switch (operator) {
+      case "$eq":
+        return _equal(value, operand);
+      case "$ne":
+        return !_equal(value, operand);
+      case "$gt":
+        return value != null && _compare(value, operand) > 0;
+      case "$gte":
+        return value != null && _compare(value, operand) >= 0;
+      case "$lt":
+        return value != null && _compare(value, operand) < 0;
+      case "$lte":
+        return value != null && _compare(value, operand) <= 0;
+      case "$in":
+        for (final BsonValue candidate : operand.asArray()) {
+          if (_equal(value, candidate)) {
+            return true;
+          }
+        }
+        return false;
+      default:
+        throw new UnsupportedOperationException("Unsupported query operator " + operator);
+    }
+  }
+
+  /**
+   * Equality as queries see it: a missing field equals null.
+   */
+  private static boolean _equal(@Nullable final BsonValue value, final BsonValue expected) {
+    if (value == null || value.isNull()) {
+      return expected.isNull();
+    }
+    return !expected.isNull() && _compare(value, expected) == 0;
+  }
+
+  /**
+   * Orders values of the same type by value and values of different types by type, with missing
+   * values first.
+   */
+  private static int _compare(@Nullable final BsonValue a, @Nullable final BsonValue b) {
+    if (a == null || b == null) {
+      return a == null ? (b == null ? 0 : -1) : 1;
+    }
+    if (a.isNumber() && b.isNumber()) {
+      return Double.compare(a.asNumber().doubleValue(), b.asNumber().doubleValue());
+    }
+    if (a.getBsonType() != b.getBsonType()) {
+      return a.getBsonType().compareTo(b.getBsonType());
+    }
+    switch (a.getBsonType()) {
+      case STRING:
+        return a.asString().getValue().compareTo(b.asString().getValue());
+      case OBJECT_ID:
+        return a.asObjectId().getValue().compareTo(b.asObjectId().getValue());
+      case DATE_TIME:
+        return Long.compare(a.asDateTime().getValue(), b.asDateTime().getValue());
+      case BOOLEAN:
+        return Boolean.compare(a.asBoolean().getValue(), b.asBoolean().getValue());
+      default:
+        return a.equals(b) ? 0 : Integer.compare(a.hashCode(), b.hashCode());
+    }
+  }
+
+  private static Comparator<BsonDocument> _comparator(final BsonDocument sort) {
+    return new Comparator<BsonDocument>() {
+      @Override
+      public int compare(final BsonDocument a, final BsonDocument b) {
+        for (final Map.Entry<String, BsonValue> key : sort.entrySet()) {
+          final int order = _compare(a.get(key.getKey()), b.get(key.getKey()));
+          if (order != 0) {
+            return key.getValue().asNumber().intValue() < 0 ? -order : order;
+          }
+        }
+        return 0;
+      }
+    };
+  }
+
+  private static BsonDocument _project(final BsonDocument document, final BsonDocument fields) {
+    final BsonDocument projected = new BsonDocument();
+    projected.put(TodoItem.ID_KEY, document.get(TodoItem.ID_KEY));
+    for (final Map.Entry<String, BsonValue> field : fields.entrySet()) {
+      final BsonValue value = document.get(field.getKey());
+      if (value != null && _isTruthy(field.getValue())) {
+        projected.put(field.getKey(), value);
+      }
+    }
+    return projected;
+  }
+
+  private static boolean _isTruthy(final BsonValue value) {
+    return value.isBoolean() ? value.asBoolean().getValue() : value.asNumber().intValue() != 0;
+  }
+
+  private void _applyUpdate(
+          final BsonDocument document,
+          final BsonDocument update,
+          final boolean inserting) {
+    for (final Map.Entry<String, BsonValue> operator : update.entrySet()) {
+      final BsonDocument fields = operator.getValue().asDocument();
+      switch (operator.getKey()) {
+        case "$set":
+          document.putAll(fields);
+          break;
+        case "$setOnInsert":
+          if (inserting) {
+            document.putAll(fields);
+          }
+          break;
+        case "$unset":
+          for (final String field : fields.keySet()) {
+            document.remove(field);
+          }
+          break;
+        case "$currentDate":
+          final BsonDateTime now = new BsonDateTime(_now());
+          for (final String field : fields.keySet()) {
+            document.put(field, now);
+          }
+          break;
+        default:
+          throw new UnsupportedOperationException("Unsupported update operator " + operator);
+      }
+    }
+  }
+
+  /**
+   * Inserts the document an upsert matching nothing creates: the filter's equality conditions
+   * with the update applied on top.
+   */
+  private void _upsert(final BsonDocument filter, final BsonDocument update) {
+    final BsonDocument document = new BsonDocument();
+    for (final Map.Entry<String, BsonValue> condition : filter.entrySet()) {
+      if (!_isOperatorDocument(condition.getValue())) {
+        document.put(condition.getKey(), condition.getValue());
+      }
+    }
+    if (!document.containsKey(TodoItem.ID_KEY)) {
+      document.put(TodoItem.ID_KEY, new BsonObjectId(ObjectId.get()));
+    }
+    _applyUpdate(document, update, true);
+    _documents.put(document.getObjectId(TodoItem.ID_KEY).getValue(), document);
+  }
+
+  /**
+   * The server's clock, which never goes backwards.
+   */
+  private long _now() {
+    _clock = Math.max(_clock, System.currentTimeMillis());
+    return _clock;
+  }
+
+  private BsonDocument _encode(final TodoItem item) {
+    final BsonDocument document = new BsonDocument();
+    _codec.encode(new BsonDocumentWriter(document), item, EncoderContext.builder().build());
+    return document;
+  }
+
+  private TodoItem _decode(final BsonDocument document) {
+    return _codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+  }
+
+  private static BsonDocument _toBson(final Document document) {
+    return document.toBsonDocument(BsonDocument.class, FILTER_CODECS);
+  }
+}
@@ -0,0 +1,298 @@
+package com.mongodb.todosample.model;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.mongodb.stitch.android.core.StitchAppClient;
+import com.mongodb.todosample.StitchInitializer;
+import com.mongodb.todosample.metrics.Counter;
+import com.mongodb.todosample.metrics.LatencyHistogram;
+import com.mongodb.todosample.metrics.Metrics;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a TodoList backed by an {@link InMemoryTodoCollection} with thousands of mixed
+ * operations, a bounded number of them in flight at once, and reports the model's throughput and
+ * the latency of each kind of operation to logcat, along with everything TodoList itself records.
+ * Logging in still goes through Stitch, so the device must be able to reach it.
+ *
+ * Run on a device with ./gradlew connectedAndroidTest, passing this class as the class
+ * instrumentation runner argument to run it alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoListLoadTest {
+  private static final String TAG = TodoListLoadTest.class.getSimpleName();
+
+  private static final int SEEDED_ITEMS = 2000;
+  private static final int OPERATIONS = 5000;
+  private static final int MAX_IN_FLIGHT = 32;
+  private static final long TIMEOUT_MINUTES = 10;
+
+  private enum Operation {
+    ADD(30),
+    CHECK(30),
+    EDIT(20),
+    REFRESH(14),
+    CLEAR_CHECKED(5),
+    CLEAR_ALL(1);
+
+    final int weight;
+
+    Operation(final int weight) {
+      this.weight = weight;
+    }
+  }
+
+  private final Handler _mainHandler = new Handler(Looper.getMainLooper());
+  private final Random _random = new Random();
+  private Context _context;
+  private String _ownerId;
+  private InMemoryTodoCollection _collection;
+
+  @Before
+  public void logIn() throws Exception {
+    // Keep the snapshot and mutation log of the load test apart from the app's own.
+    final File filesDir = new File(
+            InstrumentationRegistry.getTargetContext().getCacheDir(), "load_test");
+    _deleteRecursively(filesDir);
+    assertTrue(filesDir.mkdirs());
+    _context = new ContextWrapper(InstrumentationRegistry.getTargetContext()) {
+      @Override
+      public Context getApplicationContext() {
+        return this;
+      }
+
+      @Override
+      public File getFilesDir() {
+        return filesDir;
+      }
+    };
+
+    final StitchAppClient client = Tasks.await(StitchInitializer.getClient(_context));
+    if (!client.getAuth().isLoggedIn()) {
+      Tasks.await(new Authenticator(_context).loginAnonymously());
+    }
+    _ownerId = client.getAuth().getUser().getId();
+
+    _collection = new InMemoryTodoCollection();
+    _collection.seed(_ownerId, SEEDED_ITEMS);
+    Metrics.get().setEnabled(true);
+    Metrics.get().reset();
+  }
+
+  @After
+  public void shutDown() {
+    _collection.shutdown();
+  }
+
+  @Test
+  public void fastNetwork() throws Exception {
+    _collection.setLatency(20, 10);
+    _assertListMatchesCollection(_run("fast network"));
+  }
+
+  @Test
+  public void slowNetwork() throws Exception {
+    _collection.setLatency(300, 300);
+    _assertListMatchesCollection(_run("slow network"));
+  }
+
+  @Test
+  public void rejectingServer() throws Exception {
+    _collection.setLatency(50, 50);
+    _collection.setFailureRates(0, 0.02);
+    _run("server rejecting 2% of requests");
+  }
+
+  /**
+   * Writes that fail with a transport error are queued until connectivity changes, and every
+   * write after them joins the queue, so most latencies here only measure the local work.
+   */
+  @Test
+  public void flakyNetwork() throws Exception {
+    _collection.setLatency(100, 200);
+    _collection.setFailureRates(0.02, 0);
+    _run("network dropping 2% of requests");
+  }
+
+  private TodoList _run(final String scenario) throws Exception {
+    final TodoList todoList = new TodoList(_context, _collection);
+    Tasks.await(todoList.whenReady());
+    final CountDownLatch done = new CountDownLatch(1);
+    final Driver driver = new Driver(todoList, done);
+
+    final long start = System.nanoTime();
+    _mainHandler.post(driver);
+    assertTrue("Timed out", done.await(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+    final double seconds = (System.nanoTime() - start) / 1e9;
+
+    final StringBuilder report = new StringBuilder()
+            .append(scenario).append(": ")
+            .append(OPERATIONS).append(" operations in ")
+            .append(String.format(Locale.US, "%.1f", seconds)).append("s, ")
+            .append(String.format(Locale.US, "%.0f", OPERATIONS / seconds)).append(" ops/s, ")
+            .append(_collection.getRequestCount()).append(" requests to the collection\n")
+            .append(Metrics.get().dump());
+    for (final String line : report.toString().split("\n")) {
+      Log.i(TAG, line);
+    }
+    return todoList;
+  }
+
+  /**
+   * Refreshes the list and checks that it shows exactly the collection's live items.
+   */
+  private void _assertListMatchesCollection(final TodoList todoList) throws Exception {
+    final CountDownLatch refreshed = new CountDownLatch(1);
+    _mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        todoList.refresh().addOnCompleteListener(new OnCompleteListener<Void>() {
+          @Override
+          public void onComplete(@NonNull Task<Void> task) {
+            refreshed.countDown();
+          }
+        });
+      }
+    });
+    assertTrue("Timed out", refreshed.await(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+
+    final List<TodoItem> live = Tasks.await(_collection.find(
+            new Document(TodoItem.OWNER_KEY, _ownerId)
+                    .append(TodoItem.DELETED_KEY, new Document("$ne", true)),
+            null,
+            null,
+            0));
+    final Set<ObjectId> expected = new HashSet<>();
+    for (final TodoItem item : live) {
+      expected.add(item.getId());
+    }
+    final Set<ObjectId> actual = new HashSet<>();
+    for (final TodoItem item : todoList.getItems()) {
+      actual.add(item.getId());
+    }
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Issues the operations on the main thread, starting a new one whenever one completes, until
+   * all have completed.
+   */
+  private class Driver implements Runnable {
+    private final TodoList _todoList;
+    private final CountDownLatch _done;
+    private int _started;
+    private int _completed;
+
+    Driver(final TodoList todoList, final CountDownLatch done) {
+      this._todoList = todoList;
+      this._done = done;
+    }
+
+    @Override
+    public void run() {
+      while (_started < OPERATIONS && _started - _completed < MAX_IN_FLIGHT) {
+        _start(_pick());
+      }
+    }
+
+    private void _start(final Operation operation) {
+      _started++;
+      final String name = "load_test." + operation.name().toLowerCase(Locale.US);
+      final LatencyHistogram latency = Metrics.get().histogram(name);
+      final Counter failures = Metrics.get().counter(name + ".failures");
+      final long start = latency.start();
+      _send(operation).addOnCompleteListener(new OnCompleteListener<Void>() {
+        @Override
+        public void onComplete(@NonNull Task<Void> task) {
+          latency.stop(start);
+          if (!task.isSuccessful()) {
+            failures.increment();
+          }
+          _completed++;
+          if (_completed == OPERATIONS) {
+            _done.countDown();
+          } else {
+            run();
+          }
+        }
+      });
+    }
+
+    private Task<Void> _send(final Operation operation) {
+      final List<TodoItem> items = _todoList.getItems();
+      if (items.isEmpty() && (operation == Operation.CHECK || operation == Operation.EDIT)) {
+        return _send(Operation.ADD);
+      }
+      switch (operation) {
+        case ADD:
+          return _todoList.addItem(new TodoItem("Load test task " + _started));
+        case CHECK:
+          final TodoItem toCheck = items.get(_random.nextInt(items.size()));
+          return _todoList.updateItemChecked(toCheck.getId(), !toCheck.getChecked());
+        case EDIT:
+          final TodoItem toEdit = items.get(_random.nextInt(items.size()));
+          return _todoList.updateItemTask(toEdit.getId(), toEdit.getTask() + " (edited)");
+        case REFRESH:
+          return _todoList.refresh();
+        case CLEAR_CHECKED:
+          return _todoList.clearCheckedItems();
+        default:
+          return _todoList.clearAllItems();
+      }
+    }
+
+    private Operation _pick() {
+      int total = 0;
+      for (final Operation operation : Operation.values()) {
+        total += operation.weight;
+      }
+      int roll = _random.nextInt(total);
+      for (final Operation operation : Operation.values()) {
+        roll -= operation.weight;
+        if (roll < 0) {
+          return operation;
+        }
+      }
+      throw new AssertionError();
+    }
+  }
+
+  private static void _deleteRecursively(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (final File child : children) {
+        _deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -6,54 +6,119 @@ import android.support.annotation.NonNull;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
 
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.mongodb.todosample.adapters.TodoListAdapter;
+import com.mongodb.todosample.metrics.FrameTimeMonitor;
+import com.mongodb.todosample.metrics.MetricNames;
+import com.mongodb.todosample.metrics.Metrics;
+import com.mongodb.todosample.model.Authenticator;
+import com.mongodb.todosample.model.TodoItemPager;
 import com.mongodb.todosample.model.TodoList;
 import com.mongodb.todosample.model.objects.TodoItem;
+import com.mongodb.todosample.views.TaskLayoutCache;
 
 public class MainActivity extends AppCompatActivity {
+  private static final String TAG = MainActivity.class.getName();
 
   private TodoList _todoList;
+  private RecyclerView _todoRecyclerView;
+  private TodoListAdapter _todoListAdapter;
+  private TodoItemPager _todoItemPager;
+  private TaskLayoutCache _taskLayoutCache;
+  private FrameTimeMonitor _frameTimeMonitor;
+  private ViewTreeObserver.OnPreDrawListener _loginToFirstItemListener;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
+    final long createdAt = SystemClock.elapsedRealtime();
 
     setContentView(R.layout.activity_main);
 
     // Set up recycler view for to-do items
-    final RecyclerView todoRecyclerView = findViewById(R.id.rv_todo_items);
+    _todoRecyclerView = findViewById(R.id.rv_todo_items);
     final RecyclerView.LayoutManager todoLayoutManager = new LinearLayoutManager(this);
-    todoRecyclerView.setLayoutManager(todoLayoutManager);
+    _todoRecyclerView.setLayoutManager(todoLayoutManager);
 
     // Set up model and its adapter
-    _todoList = new TodoList(this);
-    final TodoListAdapter todoListAdapter = new TodoListAdapter(this, _todoList);
+    _todoList = ((TodoApplication) getApplication()).getTodoList();
+    if (getResources().getBoolean(R.bool.todo_list_paged)) {
+      // Very large lists are loaded a page at a time as the user scrolls.
+      _todoItemPager = _todoList.openPager(
+              getResources().getInteger(R.integer.todo_list_page_size),
+              getResources().getInteger(R.integer.todo_list_max_pages));
+      _todoListAdapter = new TodoListAdapter(this, _todoList, _todoItemPager);
 
-    // Register the adapter to listen for changes to the task list, and set the adapter of the
-    // recycler view.
-    _todoList.registerListener(todoListAdapter);
-    todoRecyclerView.setAdapter(todoListAdapter);
+      // Register the adapter to listen for changes to the pager's window. Positions in the
+      // TodoList's own notifications do not apply to the window.
+      _todoItemPager.registerListener(_todoListAdapter);
+    } else {
+      _todoListAdapter = new TodoListAdapter(this, _todoList);
+
+      // Register the adapter to listen for changes to the task list.
+      _todoList.registerListener(_todoListAdapter);
+    }
+
+    if (getResources().getBoolean(R.bool.todo_list_precompute_text)) {
+      _taskLayoutCache = new TaskLayoutCache();
+      registerComponentCallbacks(_taskLayoutCache);
+      _todoListAdapter.setTaskLayoutCache(_taskLayoutCache);
+    }
 
-    if(!_todoList.isLoggedIn()) {
-      _showAuthActivity();
+    // Set the adapter of the recycler view.
+    _todoRecyclerView.setAdapter(_todoListAdapter);
+    _logTimeToFirstItem(_todoRecyclerView, _todoListAdapter, createdAt);
+    _recordScrollFrameTimes(_todoRecyclerView);
+
+    // Stitch is initialized in the background, so whether a user is logged in is only known once
+    // the list is ready.
+    _todoList.whenReady().addOnCompleteListener(this, new OnCompleteListener<Void>() {
+      @Override
+      public void onComplete(@NonNull Task<Void> task) {
+        if(!_todoList.isLoggedIn()) {
+          _showAuthActivity();
+        } else {
+          Utils.displayToastIfTaskFails(
+                  MainActivity.this,
+                  _todoList.ensureRefreshed(),
+                  "Failed to refresh items. Try again later."
+          );
+        }
+      }
+    });
+  }
+
+  @Override
+  protected void onDestroy() {
+    // The TodoList outlives this activity, so it must not keep the adapter, and through it the
+    // activity, around.
+    if (_todoItemPager != null) {
+      _todoList.closePager(_todoItemPager);
     } else {
-      Utils.displayToastIfTaskFails(
-              this,
-              _todoList.refresh(),
-              "Failed to refresh items. Try again later."
-      );
+      _todoList.unregisterListener(_todoListAdapter);
     }
+    if (_taskLayoutCache != null) {
+      unregisterComponentCallbacks(_taskLayoutCache);
+    }
+    if (_frameTimeMonitor != null) {
+      // It keeps asking for frames until the list stops scrolling, which it may not do now.
+      _frameTimeMonitor.stop();
+    }
+    super.onDestroy();
   }
 
   @Override
@@ -61,6 +126,14 @@ public class MainActivity extends AppCompatActivity {
     final MenuInflater inflater = getMenuInflater();
     inflater.inflate(R.menu.todo_menu, menu);
 
+    final MenuItem searchItem = menu.findItem(R.id.search_action);
+    if (getResources().getBoolean(R.bool.todo_list_paged)) {
+      // Only the cached list can be searched, and paged mode caches none.
+      searchItem.setVisible(false);
+    } else {
+      _setUpSearch(searchItem);
+    }
+
     return super.onCreateOptionsMenu(menu);
   }
 
@@ -104,6 +177,39 @@ public class MainActivity extends AppCompatActivity {
     }
   }
 
+  /**
+   * Filters the list as the user types into the search action, and shows it whole again when the
+   * action is closed.
+   */
+  private void _setUpSearch(final MenuItem searchItem) {
+    final SearchView searchView = (SearchView) searchItem.getActionView();
+    searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+      @Override
+      public boolean onQueryTextSubmit(final String query) {
+        searchView.clearFocus();
+        return true;
+      }
+
+      @Override
+      public boolean onQueryTextChange(final String query) {
+        _todoListAdapter.setQuery(query);
+        return true;
+      }
+    });
+    searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+      @Override
+      public boolean onMenuItemActionExpand(final MenuItem item) {
+        return true;
+      }
+
+      @Override
+      public boolean onMenuItemActionCollapse(final MenuItem item) {
+        _todoListAdapter.setQuery(null);
+        return true;
+      }
+    });
+  }
+
   private void _showAddItemDialog() {
     final AlertDialog.Builder builder = new AlertDialog.Builder(this);
     builder.setTitle("Add Item");
@@ -138,7 +244,80 @@ public class MainActivity extends AppCompatActivity {
     builder.show();
   }
 
+  /**
+   * Logs how long after onCreate the list first draws with at least one item, for comparing
+   * cold start times.
+   */
+  private static void _logTimeToFirstItem(
+          final RecyclerView recyclerView,
+          final RecyclerView.Adapter adapter,
+          final long createdAt) {
+    recyclerView.getViewTreeObserver().addOnPreDrawListener(
+            new ViewTreeObserver.OnPreDrawListener() {
+              @Override
+              public boolean onPreDraw() {
+                if (adapter.getItemCount() > 0) {
+                  recyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                  final long now = SystemClock.elapsedRealtime();
+                  Log.d(TAG, "First todo item drawn " + (now - createdAt) + "ms after onCreate, "
+                          + (now - TodoApplication.getStartedAt()) + "ms after process start");
+                }
+                return true;
+              }
+            });
+  }
+
+  /**
+   * Records frame times while the list scrolls, to compare how smoothly it scrolls, e.g. with
+   * todo_list_precompute_text on and off.
+   */
+  private void _recordScrollFrameTimes(final RecyclerView recyclerView) {
+    if (!Metrics.get().isEnabled()) {
+      return;
+    }
+    _frameTimeMonitor = new FrameTimeMonitor(
+            Metrics.get(), getWindowManager().getDefaultDisplay().getRefreshRate());
+    recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+      @Override
+      public void onScrollStateChanged(final RecyclerView recyclerView, final int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+          _frameTimeMonitor.stop();
+        } else {
+          _frameTimeMonitor.start();
+        }
+      }
+    });
+  }
+
+  /**
+   * Records how long after the next login is started the list first draws with at least one
+   * item. This covers the login itself, the initial fetch it starts and the login screen closing.
+   */
+  private void _recordLoginToFirstItem() {
+    final long armedAt = SystemClock.elapsedRealtime();
+    final ViewTreeObserver observer = _todoRecyclerView.getViewTreeObserver();
+    if (_loginToFirstItemListener != null) {
+      observer.removeOnPreDrawListener(_loginToFirstItemListener);
+    }
+    _loginToFirstItemListener = new ViewTreeObserver.OnPreDrawListener() {
+      @Override
+      public boolean onPreDraw() {
+        final long loginStartedAt = Authenticator.getLastLoginStartedAt();
+        if (loginStartedAt > armedAt && _todoListAdapter.getItemCount() > 0) {
+          _todoRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+          _loginToFirstItemListener = null;
+          final long elapsed = SystemClock.elapsedRealtime() - loginStartedAt;
+          Metrics.get().histogram(MetricNames.LOGIN_TO_FIRST_ITEM).recordMicros(elapsed * 1000);
+          Log.d(TAG, "First todo item drawn " + elapsed + "ms after login started");
+        }
+        return true;
+      }
+    };
+    observer.addOnPreDrawListener(_loginToFirstItemListener);
+  }
+
   private void _showAuthActivity() {
+    _recordLoginToFirstItem();
     Intent intent = new Intent(this, LoginActivity.class);
     startActivity(intent);
   }
@@ -0,0 +1,88 @@
+package com.mongodb.todosample;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.mongodb.stitch.android.core.StitchAppClient;
+import com.mongodb.stitch.android.services.mongodb.remote.RemoteMongoClient;
+import com.mongodb.todosample.model.TodoList;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+/**
+ * Initializes the Stitch app client on a background thread, so that neither Stitch's own setup
+ * nor building and warming up the codec registry delay the first frame. Initialization is
+ * started once per process, normally from {@link TodoApplication#onCreate()}, and everything
+ * that needs the client waits on the same Task.
+ */
+public final class StitchInitializer {
+  private static final String TAG = StitchInitializer.class.getName();
+
+  private static Task<StitchAppClient> _client;
+
+  private StitchInitializer() {
+  }
+
+  /**
+   * Starts initializing the client if that has not been started yet.
+   * @return a Task that completes with the initialized client.
+   */
+  public static synchronized Task<StitchAppClient> getClient(final Context context) {
+    if (_client != null) {
+      return _client;
+    }
+
+    final Context appContext = context.getApplicationContext();
+    final long startedAt = SystemClock.elapsedRealtime();
+    _client = Tasks.call(Executors.newSingleThreadExecutor(), new Callable<StitchAppClient>() {
+      @Override
+      public StitchAppClient call() {
+        final StitchAppClient client = Utils.getStitchAppClient(appContext);
+        _warmUpCodec(client);
+        Log.d(TAG, "Stitch client initialized in "
+                + (SystemClock.elapsedRealtime() - startedAt) + "ms, "
+                + (SystemClock.elapsedRealtime() - TodoApplication.getStartedAt())
+                + "ms after process start");
+        return client;
+      }
+    });
+    return _client;
+  }
+
+  /**
+   * Looks up the TodoItem codec and runs one item through it, so the registry lookup and the
+   * class loading of the codec and the BSON reader and writer happen here rather than during
+   * the first refresh.
+   */
+  private static void _warmUpCodec(final StitchAppClient client) {
+    final Codec<TodoItem> codec = client
+            .getServiceClient(RemoteMongoClient.factory, "mongodb-atlas")
+            .getDatabase(TodoList.TODO_LIST_DATABASE)
+            .getCollection(TodoList.TODO_LIST_COLLECTION, TodoItem.class)
+            .getCodecRegistry()
+            .get(TodoItem.class);
+
+    final BasicOutputBuffer buffer = new BasicOutputBuffer();
+    final BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+    // A checked item, so that its done date is encoded and decoded as well.
+    codec.encode(writer, new TodoItem("").withChecked(true), EncoderContext.builder().build());
+    writer.close();
+
+    final BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray()));
+    codec.decode(reader, DecoderContext.builder().build());
+    reader.close();
+  }
+}
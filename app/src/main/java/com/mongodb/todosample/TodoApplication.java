@@ -0,0 +1,54 @@
+package com.mongodb.todosample;
+
+import android.app.Application;
+import android.os.SystemClock;
+
+import com.mongodb.todosample.metrics.Metrics;
+import com.mongodb.todosample.metrics.MetricsDumper;
+import com.mongodb.todosample.model.TodoList;
+
+import java.io.File;
+
+/**
+ * Starts initializing Stitch as soon as the process starts, in parallel with the first activity
+ * being created, and owns the process's TodoList. Debug builds also record metrics and
+ * periodically dump them to logcat and to metrics.log in the app's files directory.
+ */
+public class TodoApplication extends Application {
+  private static final long METRICS_DUMP_INTERVAL_MS = 60 * 1000;
+  private static final String METRICS_FILE = "metrics.log";
+
+  private static long _startedAt = SystemClock.elapsedRealtime();
+
+  private TodoList _todoList;
+
+  /**
+   * The time the application was created, in SystemClock.elapsedRealtime() milliseconds. Used as
+   * the baseline for cold start timings.
+   */
+  public static long getStartedAt() {
+    return _startedAt;
+  }
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    _startedAt = SystemClock.elapsedRealtime();
+    if (BuildConfig.DEBUG) {
+      Metrics.get().setEnabled(true);
+      new MetricsDumper(Metrics.get(), new File(getFilesDir(), METRICS_FILE))
+              .start(METRICS_DUMP_INTERVAL_MS);
+    }
+    StitchInitializer.getClient(this);
+    _todoList = new TodoList(this);
+  }
+
+  /**
+   * The todo list shared by every activity. It lives as long as the process, so that its caches,
+   * background threads and callbacks are not created again, and leaked, whenever an activity is
+   * recreated. Activities must unregister their listeners from it when they are destroyed.
+   */
+  public TodoList getTodoList() {
+    return _todoList;
+  }
+}
@@ -12,11 +12,14 @@ import com.google.android.gms.tasks.Tasks;
 import com.mongodb.stitch.android.core.Stitch;
 import com.mongodb.stitch.android.core.StitchAppClient;
 import com.mongodb.stitch.core.StitchAppClientConfiguration;
+import com.mongodb.todosample.model.objects.TodoItemCodec;
 
 import org.bson.codecs.configuration.CodecProvider;
 import org.bson.codecs.pojo.PojoCodecProvider;
 
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
 public class Utils {
   public static <T> Task<T> displayToastIfTaskFails(
@@ -49,6 +52,8 @@ public class Utils {
     if (!Stitch.hasAppClient(stitchClientAppId)) {
 
       // Set up codecs that will allow us to create a MongoDB collection of TodoItem objects.
+      // TodoItems use a hand-written codec, which takes precedence over the reflective POJO
+      // codecs that remain for any other classes in the package.
       CodecProvider todoListCodecProvider = PojoCodecProvider
               .builder()
               .register("com.mongodb.todosample.model.objects")
@@ -58,7 +63,9 @@ public class Utils {
       Stitch.initializeAppClient(
               stitchClientAppId,
               new StitchAppClientConfiguration.Builder()
-                      .withCodecRegistry(fromProviders(todoListCodecProvider))
+                      .withCodecRegistry(fromRegistries(
+                              fromCodecs(new TodoItemCodec()),
+                              fromProviders(todoListCodecProvider)))
                       .build()
       );
     }
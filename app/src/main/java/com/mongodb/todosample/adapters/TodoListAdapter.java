@@ -3,23 +3,31 @@ package com.mongodb.todosample.adapters;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v7.app.AlertDialog;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.format.DateFormat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.ListView;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.mongodb.todosample.R;
 import com.mongodb.todosample.Utils;
+import com.mongodb.todosample.model.ChangeSet;
+import com.mongodb.todosample.model.ListDiffer;
+import com.mongodb.todosample.model.TodoItemPager;
 import com.mongodb.todosample.model.TodoList;
 import com.mongodb.todosample.model.objects.TodoItem;
+import com.mongodb.todosample.views.TaskLayoutCache;
+import com.mongodb.todosample.views.TaskTextView;
 
 import org.bson.types.ObjectId;
 
@@ -30,13 +38,162 @@ import java.util.List;
  * view that lists the tasks.
  */
 public class TodoListAdapter extends RecyclerView.Adapter<TodoListAdapter.TodoItemViewHolder> implements TodoList.Listener {
+  // How many rows past the edge the list scrolls towards have their tasks laid out ahead.
+  private static final int PREFETCH_ROWS = 8;
 
   private Context _context;
   private TodoList _todoList;
 
+  // When set, rows come from this pager's window instead of the TodoList's cached list.
+  @Nullable
+  private TodoItemPager _pager;
+
+  // The version of the list the last notification carried. Notifications are queued, so
+  // TodoList#getItems() may already be ahead of it.
+  private List<TodoItem> _listItems;
+
+  // While filtering, the query the rows are the search results of.
+  @Nullable
+  private String _query;
+
+  // The rows the RecyclerView was last told about: _listItems, or the search results over it.
+  private List<TodoItem> _items;
+
+  // When set, rows take the layouts of their tasks from it, and the tasks of rows about to scroll
+  // into view are laid out ahead on a background thread.
+  @Nullable
+  private TaskLayoutCache _layoutCache;
+
+  private final RecyclerView.OnScrollListener _layoutPrefetcher =
+          new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(final RecyclerView recyclerView, final int dx, final int dy) {
+              if (dy != 0
+                      && recyclerView.getLayoutManager() instanceof LinearLayoutManager) {
+                _prefetchLayouts((LinearLayoutManager) recyclerView.getLayoutManager(), dy > 0);
+              }
+            }
+          };
+
   public TodoListAdapter(final Context context, final TodoList todoList) {
+    this(context, todoList, null);
+  }
+
+  public TodoListAdapter(
+          final Context context,
+          final TodoList todoList,
+          @Nullable final TodoItemPager pager) {
     this._context = context;
     this._todoList = todoList;
+    this._pager = pager;
+    this._listItems = todoList.getItems();
+    this._items = _listItems;
+    // Lets RecyclerView keep each row's view across notifyDataSetChanged, e.g. when a refresh
+    // replaces the list, instead of treating every row as new.
+    setHasStableIds(true);
+  }
+
+  /**
+   * Sets the cache that rows take the layouts of their tasks from. Must be called before the
+   * adapter is set on its RecyclerView.
+   */
+  public void setTaskLayoutCache(@Nullable final TaskLayoutCache layoutCache) {
+    this._layoutCache = layoutCache;
+  }
+
+  @Override
+  public void onAttachedToRecyclerView(@NonNull final RecyclerView recyclerView) {
+    recyclerView.addOnScrollListener(_layoutPrefetcher);
+  }
+
+  @Override
+  public void onDetachedFromRecyclerView(@NonNull final RecyclerView recyclerView) {
+    recyclerView.removeOnScrollListener(_layoutPrefetcher);
+  }
+
+  /**
+   * Lays out the tasks of the rows just past the edge of the list it scrolls towards, in the
+   * background: the row RecyclerView's own prefetch binds next, and the ones after it. Binding
+   * and measuring those rows then finds their layouts in the cache.
+   */
+  private void _prefetchLayouts(final LinearLayoutManager layoutManager, final boolean forward) {
+    if (_layoutCache == null) {
+      return;
+    }
+    final int edge = forward
+            ? layoutManager.findLastVisibleItemPosition()
+            : layoutManager.findFirstVisibleItemPosition();
+    if (edge == RecyclerView.NO_POSITION) {
+      return;
+    }
+    final int from = forward ? edge + 1 : Math.max(0, edge - PREFETCH_ROWS);
+    final int to = forward ? Math.min(getItemCount(), edge + 1 + PREFETCH_ROWS) : edge;
+    for (int position = from; position < to; position++) {
+      final TodoItem item = _peekItem(position);
+      _layoutCache.prefetch(item.getId(), item.getTask());
+    }
+  }
+
+  /**
+   * Shows only the items matching a query, as found by {@link TodoList#search(String)}, or every
+   * item if the query has no words. Meant to be called as the user types: the results come from
+   * the TodoList's search index rather than a scan of the list, and only the rows that differ
+   * from the previous results are updated. Filtering is not available in paged mode.
+   */
+  public void setQuery(@Nullable final String query) {
+    if (_pager != null) {
+      throw new IllegalStateException("Cannot filter a paged list.");
+    }
+    final String newQuery = query == null || query.trim().isEmpty() ? null : query;
+    if (newQuery == null ? _query == null : newQuery.equals(_query)) {
+      return;
+    }
+    final boolean wasFiltering = _query != null;
+    _query = newQuery;
+
+    if (newQuery == null) {
+      _items = _listItems;
+      notifyDataSetChanged();
+    } else if (!wasFiltering) {
+      // The whole list is too long to diff against on every keystroke.
+      _items = _todoList.search(newQuery);
+      notifyDataSetChanged();
+    } else {
+      _showResults();
+    }
+  }
+
+  /**
+   * Searches the list again and updates the rows that changed.
+   */
+  private void _showResults() {
+    final List<TodoItem> results = _todoList.search(_query);
+    final ChangeSet changes = ListDiffer.diff(_items, results);
+    _items = results;
+    _dispatch(changes);
+  }
+
+  /**
+   * Returns the item at an adapter position. In paged mode this also makes the pager fetch the
+   * next page when the position nears the end of what is loaded.
+   */
+  private TodoItem _getItem(final int position) {
+    if (_pager != null) {
+      return _pager.get(position);
+    }
+    return _items.get(position);
+  }
+
+  /**
+   * Returns the item at an adapter position without making the pager fetch anything. For reads
+   * that do not mean the row is being shown, such as RecyclerView asking for stable ids during
+   * layout and animations, or clicks on rows already bound.
+   */
+  private TodoItem _peekItem(final int position) {
+    if (_pager != null) {
+      return _pager.peek(position);
+    }
+    return _items.get(position);
   }
 
   /**
@@ -90,10 +247,44 @@ public class TodoListAdapter extends RecyclerView.Adapter<TodoListAdapter.TodoIt
    */
   @Override
   public void onBindViewHolder(@NonNull TodoItemViewHolder holder, int position) {
-    final TodoItem item = _todoList.getItems().get(position);
+    holder.bind(_getItem(position));
+  }
 
-    holder.taskTextView.setText(item.getTask());
-    holder.taskCheckbox.setChecked(item.getChecked());
+  /**
+   * Rebinds only the views of a row that changed. Changes dispatched from a ChangeSet carry its
+   * PAYLOAD_* flags, which RecyclerView collects here for each row; a bind without payloads, such
+   * as after notifyDataSetChanged, still only updates the views whose content differs from what
+   * the row shows.
+   */
+  @Override
+  public void onBindViewHolder(
+          @NonNull TodoItemViewHolder holder,
+          int position,
+          @NonNull List<Object> payloads) {
+    int fields = 0;
+    for (final Object payload : payloads) {
+      if (!(payload instanceof Integer)) {
+        fields = 0;
+        break;
+      }
+      fields |= (Integer) payload;
+    }
+    if (fields == 0) {
+      onBindViewHolder(holder, position);
+      return;
+    }
+    holder.bindFields(_getItem(position), fields);
+  }
+
+  /**
+   * Identifies rows by the _id of their item, so that a row keeps its identity across moves and
+   * refreshes. The upper half is the _id's timestamp and the lower half its hash, which covers
+   * the rest of it, so ids of distinct items practically never collide.
+   */
+  @Override
+  public long getItemId(final int position) {
+    final ObjectId id = _peekItem(position).getId();
+    return ((long) id.getTimestamp() << 32) | (id.hashCode() & 0xFFFFFFFFL);
   }
 
   /**
@@ -103,27 +294,85 @@ public class TodoListAdapter extends RecyclerView.Adapter<TodoListAdapter.TodoIt
    */
   @Override
   public int getItemCount() {
-    return _todoList.getItems().size();
+    if (_pager != null) {
+      return _pager.size();
+    }
+    return _items.size();
   }
 
   /**
-   * The method to call when the list has been successfully modified. This is not guaranteed
-   * to be called on the main thread.
+   * The method to call when the list has been successfully modified.
    */
   @Override
-  public void onListModified() {
+  public void onListModified(final List<TodoItem> items) {
+    this._listItems = items;
+    if (_query != null) {
+      _showResults();
+      return;
+    }
+    this._items = items;
     this.notifyDataSetChanged();
   }
 
+  /**
+   * Dispatches the fine-grained changes of the list so that RecyclerView only rebinds the rows
+   * that changed and can animate insertions, removals and moves. Changed rows carry the
+   * ChangeSet.PAYLOAD_* flags as their payload. While filtering, the changes are to positions in
+   * the whole list, so the search results are refreshed instead.
+   */
+  @Override
+  public void onListChanged(final List<TodoItem> items, final ChangeSet changes) {
+    this._listItems = items;
+    if (_query != null) {
+      _showResults();
+      return;
+    }
+    this._items = items;
+    _dispatch(changes);
+  }
+
+  private void _dispatch(final ChangeSet changes) {
+    for (final ChangeSet.Change change : changes.getChanges()) {
+      switch (change.getType()) {
+        case INSERTED:
+          this.notifyItemRangeInserted(change.getPosition(), change.getCount());
+          break;
+        case REMOVED:
+          this.notifyItemRangeRemoved(change.getPosition(), change.getCount());
+          break;
+        case MOVED:
+          this.notifyItemMoved(change.getPosition(), change.getToPosition());
+          break;
+        case CHANGED:
+          this.notifyItemRangeChanged(
+                  change.getPosition(), change.getCount(), change.getPayload());
+          break;
+      }
+    }
+  }
+
+  /**
+   * The rolled back rows have already been reverted through onListChanged, and the caller of the
+   * failed operation shows its own error, so there is nothing more to do here.
+   */
+  @Override
+  public void onMutationRolledBack(final Exception cause) {
+  }
+
   class TodoItemViewHolder extends RecyclerView.ViewHolder
           implements View.OnClickListener,
           View.OnLongClickListener {
-    final TextView taskTextView;
+    final TaskTextView taskTextView;
     final CheckBox taskCheckbox;
 
+    // The item the views currently show.
+    @Nullable
+    private TodoItem _boundItem;
+
     TodoItemViewHolder(final View view) {
       super(view);
       taskTextView = view.findViewById(R.id.tv_task);
+      taskTextView.setLayoutCache(_layoutCache);
       taskCheckbox = view.findViewById(R.id.cb_todo_checkbox);
       taskCheckbox.setFocusable(false);
       taskCheckbox.setClickable(false);
@@ -133,9 +382,41 @@ public class TodoListAdapter extends RecyclerView.Adapter<TodoListAdapter.TodoIt
       view.setOnLongClickListener(this);
     }
 
+    /**
+     * Shows an item, updating only the views whose content differs from the item shown so far.
+     */
+    void bind(final TodoItem item) {
+      if (_boundItem != null && _boundItem.getId().equals(item.getId())) {
+        bindFields(item, ListDiffer.payloadOf(_boundItem, item));
+      } else {
+        bindFields(item, ChangeSet.PAYLOAD_TASK | ChangeSet.PAYLOAD_CHECKED);
+      }
+    }
+
+    /**
+     * Shows an item, updating only the views of the given ChangeSet.PAYLOAD_* fields.
+     */
+    void bindFields(final TodoItem item, final int fields) {
+      _boundItem = item;
+      if ((fields & ChangeSet.PAYLOAD_TASK) != 0) {
+        taskTextView.setTask(item.getId(), item.getTask());
+      }
+      if ((fields & ChangeSet.PAYLOAD_CHECKED) != 0) {
+        taskCheckbox.setChecked(item.getChecked());
+      }
+    }
+
+    /**
+     * Toggles the item. The change is applied to the list optimistically, and the row is rebound
+     * from the resulting notification, so the checkbox is not touched here.
+     */
     @Override
     public void onClick(final View view) {
-      final TodoItem item = _todoList.getItems().get(getAdapterPosition());
+      final int position = getAdapterPosition();
+      if (position == RecyclerView.NO_POSITION) {
+        return;
+      }
+      final TodoItem item = _peekItem(position);
 
       _todoList.updateItemChecked(item.getId(), !item.getChecked()).addOnCompleteListener(new OnCompleteListener<Void>() {
         @Override
@@ -145,8 +426,6 @@ public class TodoListAdapter extends RecyclerView.Adapter<TodoListAdapter.TodoIt
                     TodoListAdapter.this._context,
                     "Could not update checked status.", Toast.LENGTH_SHORT
             ).show();
-          } else {
-            taskCheckbox.setChecked(!item.getChecked());
           }
         }
       });
@@ -154,7 +433,11 @@ public class TodoListAdapter extends RecyclerView.Adapter<TodoListAdapter.TodoIt
 
     @Override
     public boolean onLongClick(final View view) {
-      final TodoItem item = _todoList.getItems().get(getAdapterPosition());
+      final int position = getAdapterPosition();
+      if (position == RecyclerView.NO_POSITION) {
+        return false;
+      }
+      final TodoItem item = _peekItem(position);
       _showEditItemDialog(item.getId(), item.getTask());
       return true;
     }
@@ -201,6 +484,17 @@ public class TodoListAdapter extends RecyclerView.Adapter<TodoListAdapter.TodoIt
               }
             });
 
-    builder.show();
+    final AlertDialog dialog = builder.show();
+
+    // The list only holds what rows render. Fetch the rest of the item to show when it was done.
+    _todoList.getItemDetails(itemId).addOnSuccessListener(new OnSuccessListener<TodoItem>() {
+      @Override
+      public void onSuccess(final TodoItem details) {
+        if (dialog.isShowing() && details.getChecked() && details.getDoneDate() != null) {
+          dialog.setTitle("Edit Item (done "
+                  + DateFormat.getDateFormat(_context).format(details.getDoneDate()) + ")");
+        }
+      }
+    });
   }
 }
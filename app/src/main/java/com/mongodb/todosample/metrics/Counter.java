@@ -0,0 +1,33 @@
+package com.mongodb.todosample.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count of events, or a running total such as a number of documents.
+ */
+public final class Counter {
+  private final Metrics _metrics;
+  private final AtomicLong _value = new AtomicLong();
+
+  Counter(final Metrics metrics) {
+    this._metrics = metrics;
+  }
+
+  public void increment() {
+    add(1);
+  }
+
+  public void add(final long amount) {
+    if (_metrics.isEnabled()) {
+      _value.addAndGet(amount);
+    }
+  }
+
+  public long get() {
+    return _value.get();
+  }
+
+  void reset() {
+    _value.set(0);
+  }
+}
@@ -0,0 +1,69 @@
+package com.mongodb.todosample.metrics;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the time between consecutive frames into {@link MetricNames#FRAME_TIME}, and counts
+ * frames that took long enough for the display to show the previous one again as
+ * {@link MetricNames#JANKY_FRAMES}. Meant to run only while something animates, such as while a
+ * list scrolls, since frames are only produced then.
+ *
+ * Must be used on the main thread.
+ */
+public final class FrameTimeMonitor implements Choreographer.FrameCallback {
+  private final long _jankThresholdNanos;
+  private final LatencyHistogram _frameTime;
+  private final Counter _frames;
+  private final Counter _jankyFrames;
+
+  private boolean _running;
+  // The vsync time of the previous frame, or 0 if none has been seen since starting.
+  private long _lastFrameNanos;
+
+  /**
+   * @param refreshRate the refresh rate of the display, in frames per second.
+   */
+  public FrameTimeMonitor(final Metrics metrics, final float refreshRate) {
+    // Half a frame of slack, so that vsync jitter is not counted.
+    this._jankThresholdNanos = (long) (TimeUnit.SECONDS.toNanos(1) * 1.5 / refreshRate);
+    this._frameTime = metrics.histogram(MetricNames.FRAME_TIME);
+    this._frames = metrics.counter(MetricNames.FRAMES);
+    this._jankyFrames = metrics.counter(MetricNames.JANKY_FRAMES);
+  }
+
+  public void start() {
+    if (_running) {
+      return;
+    }
+    _running = true;
+    _lastFrameNanos = 0;
+    Choreographer.getInstance().postFrameCallback(this);
+  }
+
+  public void stop() {
+    if (!_running) {
+      return;
+    }
+    _running = false;
+    Choreographer.getInstance().removeFrameCallback(this);
+  }
+
+  @Override
+  public void doFrame(final long frameTimeNanos) {
+    if (!_running) {
+      return;
+    }
+    if (_lastFrameNanos != 0) {
+      final long elapsed = frameTimeNanos - _lastFrameNanos;
+      _frameTime.recordMicros(TimeUnit.NANOSECONDS.toMicros(elapsed));
+      _frames.increment();
+      if (elapsed > _jankThresholdNanos) {
+        _jankyFrames.increment();
+      }
+    }
+    _lastFrameNanos = frameTimeNanos;
+    Choreographer.getInstance().postFrameCallback(this);
+  }
+}
@@ -0,0 +1,56 @@
+package com.mongodb.todosample.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The hits and misses of a cache.
+ */
+public final class HitRatio {
+  private final Metrics _metrics;
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+
+  HitRatio(final Metrics metrics) {
+    this._metrics = metrics;
+  }
+
+  public void hit() {
+    if (_metrics.isEnabled()) {
+      _hits.incrementAndGet();
+    }
+  }
+
+  public void miss() {
+    if (_metrics.isEnabled()) {
+      _misses.incrementAndGet();
+    }
+  }
+
+  public long getHits() {
+    return _hits.get();
+  }
+
+  public long getLookups() {
+    return _hits.get() + _misses.get();
+  }
+
+  /**
+   * The fraction of lookups that were hits, or 0 if there were none.
+   */
+  public double getRatio() {
+    final long hits = _hits.get();
+    final long lookups = hits + _misses.get();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  void reset() {
+    _hits.set(0);
+    _misses.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "%.1f%% of %d", getRatio() * 100, getLookups());
+  }
+}
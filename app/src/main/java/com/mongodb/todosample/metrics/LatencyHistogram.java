@@ -0,0 +1,189 @@
+package com.mongodb.todosample.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies, in microseconds, from which percentiles are estimated.
+ *
+ * Buckets are log-linear: every power of two is split into SUB_BUCKETS equal buckets, so a
+ * percentile is reported within 1/SUB_BUCKETS of the recorded value while a fixed, small array
+ * covers everything from a microsecond to days. Recording is a few atomic increments.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Latencies are capped at 2^MAX_EXPONENT microseconds, about 25 days.
+  private static final int MAX_EXPONENT = 41;
+  private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final Metrics _metrics;
+  private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong _totalMicros = new AtomicLong();
+  private final AtomicLong _maxMicros = new AtomicLong();
+
+  LatencyHistogram(final Metrics metrics) {
+    this._metrics = metrics;
+  }
+
+  /**
+   * Starts timing an operation.
+   * @return the value to pass to {@link #stop(long)}, or 0 if recording is disabled.
+   */
+  public long start() {
+    return _metrics.isEnabled() ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records the time elapsed since {@link #start()}.
+   */
+  public void stop(final long startNanos) {
+    if (startNanos != 0) {
+      recordMicros(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+  }
+
+  public void recordMicros(final long micros) {
+    if (!_metrics.isEnabled()) {
+      return;
+    }
+    final long value = Math.min(Math.max(micros, 0), (1L << MAX_EXPONENT) - 1);
+    _buckets.incrementAndGet(bucketOf(value));
+    _totalMicros.addAndGet(value);
+    long max = _maxMicros.get();
+    while (value > max && !_maxMicros.compareAndSet(max, value)) {
+      max = _maxMicros.get();
+    }
+  }
+
+  public Snapshot snapshot() {
+    final long[] buckets = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = _buckets.get(i);
+      count += buckets[i];
+    }
+    final long max = _maxMicros.get();
+    return new Snapshot(
+            count,
+            count == 0 ? 0 : _totalMicros.get() / count,
+            _percentile(buckets, count, 0.50, max),
+            _percentile(buckets, count, 0.95, max),
+            _percentile(buckets, count, 0.99, max),
+            max);
+  }
+
+  void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      _buckets.set(i, 0);
+    }
+    _totalMicros.set(0);
+    _maxMicros.set(0);
+  }
+
+  static int bucketOf(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  /**
+   * The largest value that falls into a bucket.
+   */
+  static long upperBoundOf(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final long lowerBound = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+
+  private static long _percentile(
+          final long[] buckets,
+          final long count,
+          final double percentile,
+          final long max) {
+    if (count == 0) {
+      return 0;
+    }
+    final long rank = (long) Math.ceil(percentile * count);
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * The values recorded up to some point in time.
+   */
+  public static final class Snapshot {
+    private final long _count;
+    private final long _meanMicros;
+    private final long _p50Micros;
+    private final long _p95Micros;
+    private final long _p99Micros;
+    private final long _maxMicros;
+
+    Snapshot(
+            final long count,
+            final long meanMicros,
+            final long p50Micros,
+            final long p95Micros,
+            final long p99Micros,
+            final long maxMicros) {
+      this._count = count;
+      this._meanMicros = meanMicros;
+      this._p50Micros = p50Micros;
+      this._p95Micros = p95Micros;
+      this._p99Micros = p99Micros;
+      this._maxMicros = maxMicros;
+    }
+
+    public long getCount() {
+      return _count;
+    }
+
+    public long getMeanMicros() {
+      return _meanMicros;
+    }
+
+    public long getP50Micros() {
+      return _p50Micros;
+    }
+
+    public long getP95Micros() {
+      return _p95Micros;
+    }
+
+    public long getP99Micros() {
+      return _p99Micros;
+    }
+
+    public long getMaxMicros() {
+      return _maxMicros;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+              Locale.US,
+              "n=%d mean=%.1fms p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+              _count,
+              _meanMicros / 1000.0,
+              _p50Micros / 1000.0,
+              _p95Micros / 1000.0,
+              _p99Micros / 1000.0,
+              _maxMicros / 1000.0);
+    }
+  }
+}
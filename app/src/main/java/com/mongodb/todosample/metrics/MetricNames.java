@@ -0,0 +1,49 @@
+package com.mongodb.todosample.metrics;
+
+/**
+ * The names of the metrics the app records.
+ */
+public final class MetricNames {
+  // Latency histograms, from the call until the server has answered.
+  public static final String REFRESH = "todo_list.refresh";
+  public static final String ADD_ITEM = "todo_list.add_item";
+  public static final String UPDATE_ITEM_CHECKED = "todo_list.update_item_checked";
+  public static final String UPDATE_ITEM_TASK = "todo_list.update_item_task";
+  public static final String CLEAR_CHECKED_ITEMS = "todo_list.clear_checked_items";
+  public static final String CLEAR_ALL_ITEMS = "todo_list.clear_all_items";
+  public static final String LOGIN = "authenticator.login";
+  // From the start of a login until the list first draws an item.
+  public static final String LOGIN_TO_FIRST_ITEM = "authenticator.login_to_first_item";
+  // Searches of the cached list, which never reach the server.
+  public static final String SEARCH = "todo_list.search";
+  // Time between consecutive frames while the list scrolls.
+  public static final String FRAME_TIME = "ui.frame_time";
+
+  // Counters.
+  public static final String REFRESH_FAILURES = "todo_list.refresh.failures";
+  public static final String WRITE_FAILURES = "todo_list.write.failures";
+  public static final String WRITES_QUEUED_OFFLINE = "todo_list.write.queued_offline";
+  public static final String WRITE_RETRIES = "todo_list.write.retries";
+  public static final String LOGIN_FAILURES = "authenticator.login.failures";
+  public static final String DOCUMENTS_FETCHED = "todo_list.documents_fetched";
+  public static final String DOCUMENTS_DECODED = "codec.documents_decoded";
+  public static final String BYTES_DECODED = "codec.bytes_decoded";
+  public static final String COLLECTION_RETRIES = "todo_collection.retries";
+  public static final String HEDGED_READS = "todo_collection.hedged_reads";
+  public static final String HEDGED_READ_WINS = "todo_collection.hedged_read_wins";
+  public static final String CIRCUIT_OPENINGS = "todo_collection.circuit_openings";
+  public static final String REFUSED_BY_CIRCUIT = "todo_collection.refused_by_circuit";
+  // Frames drawn while the list scrolls, and those of them that missed a display refresh.
+  public static final String FRAMES = "ui.frames";
+  public static final String JANKY_FRAMES = "ui.janky_frames";
+
+  // Hit ratios.
+  public static final String DETAIL_CACHE = "todo_list.detail_cache";
+  // Refreshes of query views answered by what they cached, with at most a delta fetch.
+  public static final String VIEW_CACHE = "todo_list.view_cache";
+  // Rows whose task was already laid out when they were bound or measured.
+  public static final String TASK_LAYOUT_CACHE = "ui.task_layout_cache";
+
+  private MetricNames() {
+  }
+}
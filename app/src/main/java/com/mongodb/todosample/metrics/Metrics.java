@@ -0,0 +1,111 @@
+package com.mongodb.todosample.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The process-wide registry of latency histograms, counters and cache hit ratios recorded by the
+ * model. Metrics are looked up by name once, typically into a field, and then recorded into
+ * without locking. The names used by the app are listed in {@link MetricNames}.
+ *
+ * Recording is off by default. While it is off, recording a value costs a single volatile read,
+ * so instrumented code paths need no checks of their own.
+ */
+public final class Metrics {
+  private static final Metrics INSTANCE = new Metrics();
+
+  private volatile boolean _enabled;
+
+  private final ConcurrentMap<String, LatencyHistogram> _histograms = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Counter> _counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, HitRatio> _hitRatios = new ConcurrentHashMap<>();
+
+  Metrics() {
+  }
+
+  public static Metrics get() {
+    return INSTANCE;
+  }
+
+  public boolean isEnabled() {
+    return _enabled;
+  }
+
+  /**
+   * Turns recording on or off. Values recorded so far are kept either way.
+   */
+  public void setEnabled(final boolean enabled) {
+    _enabled = enabled;
+  }
+
+  public LatencyHistogram histogram(final String name) {
+    final LatencyHistogram histogram = _histograms.get(name);
+    if (histogram != null) {
+      return histogram;
+    }
+    final LatencyHistogram created = new LatencyHistogram(this);
+    final LatencyHistogram existing = _histograms.putIfAbsent(name, created);
+    return existing != null ? existing : created;
+  }
+
+  public Counter counter(final String name) {
+    final Counter counter = _counters.get(name);
+    if (counter != null) {
+      return counter;
+    }
+    final Counter created = new Counter(this);
+    final Counter existing = _counters.putIfAbsent(name, created);
+    return existing != null ? existing : created;
+  }
+
+  public HitRatio hitRatio(final String name) {
+    final HitRatio hitRatio = _hitRatios.get(name);
+    if (hitRatio != null) {
+      return hitRatio;
+    }
+    final HitRatio created = new HitRatio(this);
+    final HitRatio existing = _hitRatios.putIfAbsent(name, created);
+    return existing != null ? existing : created;
+  }
+
+  /**
+   * Clears every recorded value, e.g. to measure a single scenario.
+   */
+  public void reset() {
+    for (final LatencyHistogram histogram : _histograms.values()) {
+      histogram.reset();
+    }
+    for (final Counter counter : _counters.values()) {
+      counter.reset();
+    }
+    for (final HitRatio hitRatio : _hitRatios.values()) {
+      hitRatio.reset();
+    }
+  }
+
+  /**
+   * Formats every metric that has recorded anything, one per line, sorted by name.
+   */
+  public String dump() {
+    final StringBuilder builder = new StringBuilder();
+    for (final Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(_histograms).entrySet()) {
+      final LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+      if (snapshot.getCount() > 0) {
+        builder.append(entry.getKey()).append(": ").append(snapshot).append('\n');
+      }
+    }
+    for (final Map.Entry<String, Counter> entry : new TreeMap<>(_counters).entrySet()) {
+      if (entry.getValue().get() > 0) {
+        builder.append(entry.getKey()).append(": ").append(entry.getValue().get()).append('\n');
+      }
+    }
+    for (final Map.Entry<String, HitRatio> entry : new TreeMap<>(_hitRatios).entrySet()) {
+      if (entry.getValue().getLookups() > 0) {
+        builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+      }
+    }
+    return builder.toString();
+  }
+}
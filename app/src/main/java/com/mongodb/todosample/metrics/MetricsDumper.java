@@ -0,0 +1,71 @@
+package com.mongodb.todosample.metrics;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes {@link Metrics#dump()} to logcat and, optionally, appends it to a file, on a
+ * background thread.
+ */
+public final class MetricsDumper {
+  private static final String TAG = MetricsDumper.class.getName();
+
+  private final Metrics _metrics;
+  private final File _file;
+  private final ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor();
+  private ScheduledFuture<?> _scheduled;
+
+  /**
+   * @param file if not null, each dump is also appended to this file.
+   */
+  public MetricsDumper(final Metrics metrics, @Nullable final File file) {
+    this._metrics = metrics;
+    this._file = file;
+  }
+
+  public synchronized void start(final long intervalMillis) {
+    stop();
+    _scheduled = _executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        dumpNow();
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if (_scheduled != null) {
+      _scheduled.cancel(false);
+      _scheduled = null;
+    }
+  }
+
+  public void dumpNow() {
+    final String dump = _metrics.dump();
+    if (dump.isEmpty()) {
+      return;
+    }
+    for (final String line : dump.split("\n")) {
+      Log.i(TAG, line);
+    }
+    if (_file == null) {
+      return;
+    }
+    try (Writer writer = new FileWriter(_file, true)) {
+      writer.write("--- " + new Date() + "\n");
+      writer.write(dump);
+    } catch (final IOException e) {
+      Log.w(TAG, "Failed to write metrics to " + _file, e);
+    }
+  }
+}
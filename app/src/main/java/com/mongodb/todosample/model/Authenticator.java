@@ -1,16 +1,24 @@
 package com.mongodb.todosample.model;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
 import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.mongodb.stitch.android.core.StitchAppClient;
 import com.mongodb.stitch.android.core.auth.StitchUser;
+import com.mongodb.stitch.core.auth.StitchCredential;
 import com.mongodb.stitch.core.auth.providers.anonymous.AnonymousCredential;
 import com.mongodb.stitch.core.auth.providers.userpassword.UserPasswordCredential;
-import com.mongodb.todosample.Utils;
+import com.mongodb.todosample.StitchInitializer;
+import com.mongodb.todosample.metrics.Counter;
+import com.mongodb.todosample.metrics.LatencyHistogram;
+import com.mongodb.todosample.metrics.MetricNames;
+import com.mongodb.todosample.metrics.Metrics;
 
 /**
  * This is a model for the Login activity. The _stitchClient that exists here is shared with all
@@ -20,11 +28,19 @@ import com.mongodb.todosample.Utils;
  */
 public class Authenticator {
 
-  // Stitch specific fields
-  private StitchAppClient _stitchClient;
+  // Stitch specific fields. The client is initialized in the background; logins wait for it.
+  private final Task<StitchAppClient> _stitchClient;
+
+  // Metrics. Login latency includes waiting for Stitch to finish initializing.
+  private final LatencyHistogram _loginLatency = Metrics.get().histogram(MetricNames.LOGIN);
+  private final Counter _loginFailures = Metrics.get().counter(MetricNames.LOGIN_FAILURES);
+
+  // When the most recent successful login was started, in SystemClock.elapsedRealtime()
+  // milliseconds, or 0 if there was none.
+  private static volatile long _lastLoginStartedAt;
 
   public Authenticator(final Context context) {
-    this._stitchClient = Utils.getStitchAppClient(context);
+    this._stitchClient = StitchInitializer.getClient(context);
   }
 
   /**
@@ -32,11 +48,7 @@ public class Authenticator {
    * @return
    */
   public Task<Void> loginAnonymously() {
-    if(_stitchClient.getAuth().isLoggedIn()) {
-      return Tasks.forException(new IllegalStateException("Must be logged out first."));
-    }
-
-    return _stitchClient.getAuth().loginWithCredential(
+    return _loginWithCredential(
             new AnonymousCredential()
     ).continueWith(new Continuation<StitchUser, Void>() {
       @Override
@@ -51,11 +63,7 @@ public class Authenticator {
    * @return
    */
   public Task<Void> login(String email, String password) {
-    if(_stitchClient.getAuth().isLoggedIn()) {
-      return Tasks.forException(new IllegalStateException("Must be logged out first."));
-    }
-
-    return _stitchClient.getAuth().loginWithCredential(
+    return _loginWithCredential(
             new UserPasswordCredential(email, password)
     ).continueWith(new Continuation<StitchUser, Void>() {
       @Override
@@ -69,4 +77,54 @@ public class Authenticator {
       }
     });
   }
+
+  /**
+   * Returns when the most recent successful login was started, in SystemClock.elapsedRealtime()
+   * milliseconds, or 0 if no login has succeeded in this process. Used to measure how long it
+   * takes for the list to show after logging in.
+   */
+  public static long getLastLoginStartedAt() {
+    return _lastLoginStartedAt;
+  }
+
+  /**
+   * Logs in and, as soon as the login resolves, starts fetching the user's list, so that the
+   * {@link TodoList} can show it without waiting for a query of its own.
+   */
+  private Task<StitchUser> _loginWithCredential(final StitchCredential credential) {
+    final long start = _loginLatency.start();
+    final long startedAt = SystemClock.elapsedRealtime();
+    return _stitchClient.continueWithTask(new Continuation<StitchAppClient, Task<StitchUser>>() {
+      @Override
+      public Task<StitchUser> then(@NonNull Task<StitchAppClient> task) throws Exception {
+        if (!task.isSuccessful()) {
+          if (task.getException() != null) {
+            throw task.getException();
+          }
+          throw new IllegalStateException("Initializing Stitch failed for unknown reason.");
+        }
+
+        final StitchAppClient client = task.getResult();
+        if(client.getAuth().isLoggedIn()) {
+          return Tasks.forException(new IllegalStateException("Must be logged out first."));
+        }
+        return client.getAuth().loginWithCredential(credential).addOnSuccessListener(
+                new OnSuccessListener<StitchUser>() {
+                  @Override
+                  public void onSuccess(final StitchUser user) {
+                    _lastLoginStartedAt = startedAt;
+                    InitialFetch.start(StitchTodoCollection.forClient(client), user.getId());
+                  }
+                });
+      }
+    }).addOnCompleteListener(new OnCompleteListener<StitchUser>() {
+      @Override
+      public void onComplete(@NonNull Task<StitchUser> task) {
+        Authenticator.this._loginLatency.stop(start);
+        if (!task.isSuccessful()) {
+          Authenticator.this._loginFailures.increment();
+        }
+      }
+    });
+  }
 }
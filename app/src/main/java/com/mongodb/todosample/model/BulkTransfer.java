@@ -0,0 +1,179 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Moves large numbers of items into and out of the todo collection without holding them all in
+ * memory: inserts are sent as batches of insertMany calls, a few of them in flight at once, and
+ * exports page through the collection by _id. All the work happens on the given serial executor.
+ */
+class BulkTransfer {
+  /**
+   * Yields the items to insert, one at a time.
+   */
+  interface Source {
+    /**
+     * @return the next item, or null if there are no more.
+     */
+    @Nullable
+    TodoItem next() throws IOException;
+  }
+
+  private final TodoCollection _collection;
+  private final Executor _executor;
+  private final int _batchSize;
+  private final int _maxBatchesInFlight;
+
+  /**
+   * @param batchSize the number of items inserted or read per call.
+   * @param maxBatchesInFlight the number of insertMany calls that may be in flight at once. At
+   *                           most batchSize * maxBatchesInFlight items are held in memory.
+   */
+  BulkTransfer(
+          final TodoCollection collection,
+          final Executor executor,
+          final int batchSize,
+          final int maxBatchesInFlight) {
+    this._collection = collection;
+    this._executor = executor;
+    this._batchSize = batchSize;
+    this._maxBatchesInFlight = maxBatchesInFlight;
+  }
+
+  /**
+   * Inserts every item the source yields. Once a batch fails, no more are sent; batches that
+   * succeeded, or were already in flight, stay inserted.
+   * @return a Task with the number of items inserted, failing with the first error.
+   */
+  Task<Integer> insertAll(final Source source) {
+    final Insertion insertion = new Insertion(source);
+    _executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        insertion.pump();
+      }
+    });
+    return insertion.completion.getTask();
+  }
+
+  /**
+   * Writes every live item of a user, in _id order.
+   * @return a Task with the number of items written.
+   */
+  Task<Integer> exportAll(final String ownerId, final TodoItemJsonLines.Writer writer) {
+    return _exportPage(ownerId, null, writer, 0);
+  }
+
+  private Task<Integer> _exportPage(
+          final String ownerId,
+          @Nullable final ObjectId after,
+          final TodoItemJsonLines.Writer writer,
+          final int written) {
+    final Document filter = new Document(TodoItem.OWNER_KEY, ownerId)
+            .append(TodoItem.DELETED_KEY, new Document("$ne", true));
+    if (after != null) {
+      filter.append(TodoItem.ID_KEY, new Document("$gt", after));
+    }
+    return _collection.find(filter, null, new Document(TodoItem.ID_KEY, 1), _batchSize)
+            .continueWithTask(_executor, new Continuation<List<TodoItem>, Task<Integer>>() {
+              @Override
+              public Task<Integer> then(@NonNull Task<List<TodoItem>> task) throws Exception {
+                if (!task.isSuccessful()) {
+                  throw task.getException() != null
+                          ? task.getException() : new IllegalStateException();
+                }
+                final List<TodoItem> page = task.getResult();
+                for (final TodoItem item : page) {
+                  writer.write(item);
+                }
+                if (page.size() < _batchSize) {
+                  return Tasks.forResult(written + page.size());
+                }
+                return _exportPage(
+                        ownerId, page.get(page.size() - 1).getId(), writer, written + page.size());
+              }
+            });
+  }
+
+  /**
+   * The state of one insertAll call. Only touched on the executor.
+   */
+  private class Insertion {
+    final TaskCompletionSource<Integer> completion = new TaskCompletionSource<>();
+    private final Source _source;
+    private int _inFlight;
+    private int _inserted;
+    private boolean _exhausted;
+    private Exception _failure;
+
+    Insertion(final Source source) {
+      this._source = source;
+    }
+
+    /**
+     * Sends batches until the maximum is in flight or the source runs out, and completes once
+     * nothing is left in flight.
+     */
+    void pump() {
+      while (_failure == null && !_exhausted && _inFlight < _maxBatchesInFlight) {
+        final List<TodoItem> batch = new ArrayList<>(_batchSize);
+        try {
+          TodoItem item;
+          while (batch.size() < _batchSize && (item = _source.next()) != null) {
+            batch.add(item);
+          }
+        } catch (final IOException | RuntimeException e) {
+          _failure = e;
+          break;
+        }
+        _exhausted = batch.size() < _batchSize;
+        if (!batch.isEmpty()) {
+          _send(batch);
+        }
+      }
+
+      if (_inFlight == 0 && (_exhausted || _failure != null)) {
+        if (_failure != null) {
+          completion.setException(_failure);
+        } else {
+          completion.setResult(_inserted);
+        }
+      }
+    }
+
+    private void _send(final List<TodoItem> batch) {
+      _inFlight++;
+      WriteQueue.insertStamped(_collection, batch).addOnCompleteListener(
+              _executor,
+              new OnCompleteListener<Void>() {
+                @Override
+                public void onComplete(@NonNull Task<Void> task) {
+                  _inFlight--;
+                  if (task.isSuccessful()) {
+                    _inserted += batch.size();
+                  } else if (_failure == null) {
+                    _failure = task.getException() != null
+                            ? task.getException() : new IllegalStateException();
+                  }
+                  pump();
+                }
+              });
+    }
+  }
+}
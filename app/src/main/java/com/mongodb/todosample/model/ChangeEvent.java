@@ -0,0 +1,62 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.types.ObjectId;
+
+/**
+ * A change made to a single todo item on the server, as delivered by a
+ * {@link ChangeEventSource}.
+ */
+public final class ChangeEvent {
+  public enum OperationType {
+    INSERT,
+    UPDATE,
+    REPLACE,
+    DELETE
+  }
+
+  private final OperationType _operationType;
+  private final ObjectId _documentKey;
+  private final TodoItem _fullDocument;
+
+  /**
+   * @param operationType the kind of write that made the change.
+   * @param documentKey the _id of the changed item.
+   * @param fullDocument the item as it is after the change, or null if it was deleted.
+   */
+  public ChangeEvent(
+          @NonNull final OperationType operationType,
+          @NonNull final ObjectId documentKey,
+          @Nullable final TodoItem fullDocument) {
+    this._operationType = operationType;
+    this._documentKey = documentKey;
+    this._fullDocument = fullDocument;
+  }
+
+  public OperationType getOperationType() {
+    return _operationType;
+  }
+
+  public ObjectId getDocumentKey() {
+    return _documentKey;
+  }
+
+  @Nullable
+  public TodoItem getFullDocument() {
+    return _fullDocument;
+  }
+
+  /**
+   * Whether the item is gone from the list after this change: deleted outright, or marked
+   * deleted as a tombstone.
+   */
+  public boolean removesItem() {
+    return _operationType == OperationType.DELETE
+            || _fullDocument == null
+            || _fullDocument.getDeleted();
+  }
+}
@@ -0,0 +1,37 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A stream of the changes made to one user's todo items on the server, which a subscribed
+ * {@link TodoList} applies to its list as they arrive instead of re-querying the server.
+ */
+public interface ChangeEventSource {
+  /**
+   * Receives the changes of a subscription. Batches are delivered one at a time, in the order the
+   * changes were made on the server, but may be delivered on any thread.
+   */
+  interface Listener {
+    void onChangeEvents(List<ChangeEvent> events);
+  }
+
+  interface Subscription {
+    /**
+     * Stops delivering changes. A batch that is already being delivered may still arrive.
+     */
+    void cancel();
+  }
+
+  /**
+   * Starts delivering the changes made to the given user's items.
+   * @param ownerId the id of the user whose items to watch.
+   * @param since if not null, only changes made at or after this time are delivered. Otherwise
+   *              the source starts with the current version of every item.
+   * @param listener receives the changes.
+   * @return the subscription, to cancel it.
+   */
+  Subscription subscribe(String ownerId, @Nullable Date since, Listener listener);
+}
@@ -0,0 +1,122 @@
+package com.mongodb.todosample.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An ordered description of how the TodoList's cached list changed. Changes must be applied in
+ * order; each change's positions are relative to the list as it is after the previous changes
+ * were applied. This matches the semantics of RecyclerView.Adapter's notifyItem* methods, so a
+ * ChangeSet can be dispatched to an adapter one change at a time.
+ */
+public class ChangeSet {
+  /**
+   * Payload flag set when the task text of an item changed.
+   */
+  public static final int PAYLOAD_TASK = 1;
+
+  /**
+   * Payload flag set when the checked state of an item changed.
+   */
+  public static final int PAYLOAD_CHECKED = 1 << 1;
+
+  public enum Type {
+    INSERTED,
+    REMOVED,
+    MOVED,
+    CHANGED
+  }
+
+  /**
+   * A single change to a contiguous range of the list.
+   */
+  public static class Change {
+    private final Type type;
+    private final int position;
+    private final int count;
+    private final int toPosition;
+    private final int payload;
+
+    Change(
+            final Type type,
+            final int position,
+            final int count,
+            final int toPosition,
+            final int payload) {
+      this.type = type;
+      this.position = position;
+      this.count = count;
+      this.toPosition = toPosition;
+      this.payload = payload;
+    }
+
+    public Type getType() {
+      return type;
+    }
+
+    public int getPosition() {
+      return position;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * The destination position of a MOVED change. A move always has a count of 1.
+     */
+    public int getToPosition() {
+      return toPosition;
+    }
+
+    /**
+     * The PAYLOAD_* flags of a CHANGED change, describing which fields of the items changed.
+     */
+    public int getPayload() {
+      return payload;
+    }
+  }
+
+  private final List<Change> _changes;
+
+  private ChangeSet(final List<Change> changes) {
+    this._changes = Collections.unmodifiableList(changes);
+  }
+
+  public List<Change> getChanges() {
+    return _changes;
+  }
+
+  public boolean isEmpty() {
+    return _changes.isEmpty();
+  }
+
+  static class Builder {
+    private final List<Change> _changes = new ArrayList<>();
+
+    Builder inserted(final int position, final int count) {
+      _changes.add(new Change(Type.INSERTED, position, count, -1, 0));
+      return this;
+    }
+
+    Builder removed(final int position, final int count) {
+      _changes.add(new Change(Type.REMOVED, position, count, -1, 0));
+      return this;
+    }
+
+    Builder moved(final int fromPosition, final int toPosition) {
+      _changes.add(new Change(Type.MOVED, fromPosition, 1, toPosition, 0));
+      return this;
+    }
+
+    Builder changed(final int position, final int count, final int payload) {
+      _changes.add(new Change(Type.CHANGED, position, count, -1, payload));
+      return this;
+    }
+
+    ChangeSet build() {
+      return new ChangeSet(_changes);
+    }
+  }
+}
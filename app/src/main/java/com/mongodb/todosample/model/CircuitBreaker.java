@@ -0,0 +1,94 @@
+package com.mongodb.todosample.model;
+
+/**
+ * Counts consecutive requests that failed to reach the server and, past a threshold, opens:
+ * requests are refused for a while instead of piling onto a server that is down or a network that
+ * is gone. Once that time has passed, the breaker is half open and lets a single probe through;
+ * the probe's outcome closes it or opens it again.
+ *
+ * Times are passed in by the caller, in milliseconds of any monotonic clock. Thread safe.
+ */
+class CircuitBreaker {
+  private int _failureThreshold;
+  private long _openMillis;
+
+  private int _consecutiveFailures;
+  // When the breaker last opened, or -1 while it is closed.
+  private long _openedAt = -1;
+  private boolean _probeInFlight;
+
+  /**
+   * @param failureThreshold the number of consecutive failures that open the breaker, or 0 to
+   *                         never open it.
+   */
+  CircuitBreaker(final int failureThreshold, final long openMillis) {
+    this._failureThreshold = failureThreshold;
+    this._openMillis = openMillis;
+  }
+
+  synchronized void configure(final int failureThreshold, final long openMillis) {
+    this._failureThreshold = failureThreshold;
+    this._openMillis = openMillis;
+    if (failureThreshold == 0) {
+      _close();
+    }
+  }
+
+  /**
+   * Asks to send a request. Every request allowed must be followed by a call to
+   * {@link #onSuccess()} or {@link #onFailure(long)}.
+   * @return whether the request may be sent.
+   */
+  synchronized boolean allowRequest(final long now) {
+    if (_openedAt < 0) {
+      return true;
+    }
+    if (now - _openedAt < _openMillis || _probeInFlight) {
+      return false;
+    }
+    _probeInFlight = true;
+    return true;
+  }
+
+  /**
+   * The request reached the server, whether or not the server accepted it.
+   */
+  synchronized void onSuccess() {
+    _close();
+  }
+
+  /**
+   * The request failed to reach the server.
+   * @return whether this failure opened the breaker.
+   */
+  synchronized boolean onFailure(final long now) {
+    if (_openedAt >= 0) {
+      // The probe failed, or a request sent before the breaker opened did.
+      _openedAt = now;
+      _probeInFlight = false;
+      return false;
+    }
+    _consecutiveFailures++;
+    if (_failureThreshold > 0 && _consecutiveFailures >= _failureThreshold) {
+      _openedAt = now;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * How long until a request will be allowed again, or 0 if one is allowed now.
+   */
+  synchronized long millisUntilRetry(final long now) {
+    if (_openedAt < 0) {
+      return 0;
+    }
+    return Math.max(_openedAt + _openMillis - now, 0);
+  }
+
+  private void _close() {
+    _consecutiveFailures = 0;
+    _openedAt = -1;
+    _probeInFlight = false;
+  }
+}
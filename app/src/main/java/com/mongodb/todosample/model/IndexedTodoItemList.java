@@ -0,0 +1,531 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.types.ObjectId;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A list of TodoItems indexed for the operations the model performs on every change:
+ * - finding an item by _id is O(1),
+ * - reading, replacing, appending or removing an item is O(log n), plus copying one chunk of
+ *   the order that snapshots share (see {@link TodoItemChunks}),
+ * - counting checked items is O(1), and removing k items by _id is O(k log n), plus either a
+ *   chunk per item or, for large k, rebuilding the shared order in O(n).
+ *
+ * Items live in append-only slots. Removing an item leaves a hole in its slot rather than
+ * shifting the items after it, and a Fenwick tree over the live slots translates between list
+ * positions and slots. Holes are compacted away once they outnumber live items. Inserting
+ * anywhere but the end is supported but costs O(n).
+ *
+ * The model keeps two of these lists for the whole todo list, and copies one on every rebuild, so
+ * the _id index is a table of primitive slot numbers rather than a map of boxed ones: it takes a
+ * few bytes per item instead of a map entry and an Integer, and a copy clones arrays instead of
+ * hashing every _id again.
+ *
+ * Alongside the slots, the items are kept in list order in immutable chunks, so that
+ * {@link #snapshotOrder()} can hand snapshots the order without copying every item.
+ */
+class IndexedTodoItemList extends AbstractList<TodoItem> implements RandomAccess {
+  private static final int MIN_CAPACITY = 16;
+
+  private TodoItem[] _slots;
+  private int[] _tree; // Fenwick tree of live slot counts, 1-based.
+  private int _slotCount;
+  private int _size;
+
+  // Open addressing table from _id to slot, with linear probing. Buckets hold slot + 1, so that 0
+  // marks an empty bucket. At least twice as long as _slots, so it is at most half full.
+  private int[] _idTable;
+  private final BitSet _checkedSlots;
+  private int _checkedCount;
+  private TodoItemChunks _order;
+
+  IndexedTodoItemList() {
+    this._slots = new TodoItem[MIN_CAPACITY];
+    this._tree = new int[MIN_CAPACITY + 1];
+    this._idTable = new int[_idTableLength(MIN_CAPACITY)];
+    this._checkedSlots = new BitSet();
+    this._order = new TodoItemChunks();
+  }
+
+  IndexedTodoItemList(final Collection<TodoItem> items) {
+    if (items instanceof IndexedTodoItemList) {
+      // Copies keep the slots, holes included, so the index and tree can be cloned as they are.
+      final IndexedTodoItemList other = (IndexedTodoItemList) items;
+      this._slots = other._slots.clone();
+      this._tree = other._tree.clone();
+      this._slotCount = other._slotCount;
+      this._size = other._size;
+      this._idTable = other._idTable.clone();
+      this._checkedSlots = (BitSet) other._checkedSlots.clone();
+      this._checkedCount = other._checkedCount;
+      this._order = new TodoItemChunks(other._order);
+      return;
+    }
+    this._slots = new TodoItem[Math.max(MIN_CAPACITY, items.size())];
+    this._tree = new int[_slots.length + 1];
+    this._idTable = new int[_idTableLength(_slots.length)];
+    this._checkedSlots = new BitSet(items.size());
+    for (final TodoItem item : items) {
+      _slots[_slotCount] = item;
+      _index(_slotCount++, item);
+    }
+    _size = _slotCount;
+    _rebuildTree();
+    _order = new TodoItemChunks();
+    _order.reset(Arrays.copyOf(_slots, _size));
+  }
+
+  @Override
+  public int size() {
+    return _size;
+  }
+
+  @Override
+  public TodoItem get(final int position) {
+    _checkPosition(position, _size);
+    return _order.get(position);
+  }
+
+  @Override
+  public TodoItem set(final int position, final TodoItem item) {
+    _checkPosition(position, _size);
+    final int slot = _slotOf(position);
+    final TodoItem previous = _slots[slot];
+    _unindex(slot, previous);
+    _slots[slot] = item;
+    _index(slot, item);
+    _order.set(position, item);
+    return previous;
+  }
+
+  @Override
+  public boolean add(final TodoItem item) {
+    if (_slotCount == _slots.length) {
+      _grow();
+    }
+    final int slot = _slotCount++;
+    _slots[slot] = item;
+    _index(slot, item);
+    _addToTree(slot, 1);
+    _order.add(_size, item);
+    _size++;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public void add(final int position, final TodoItem item) {
+    _checkPosition(position, _size + 1);
+    if (position == _size) {
+      add(item);
+      return;
+    }
+
+    // Slots are append-only, so inserting in the middle means rebuilding them.
+    final TodoItem[] items = new TodoItem[_size + 1];
+    int next = 0;
+    for (int i = 0; i < _slotCount; i++) {
+      if (next == position) {
+        items[next++] = item;
+      }
+      if (_slots[i] != null) {
+        items[next++] = _slots[i];
+      }
+    }
+    _reset(items);
+  }
+
+  @Override
+  public boolean addAll(final int position, final Collection<? extends TodoItem> items) {
+    _checkPosition(position, _size + 1);
+    if (position == _size) {
+      return addAll(items);
+    }
+    if (items.isEmpty()) {
+      return false;
+    }
+
+    final TodoItem[] merged = new TodoItem[_size + items.size()];
+    int next = 0;
+    for (int i = 0; i < _slotCount; i++) {
+      if (next == position) {
+        for (final TodoItem item : items) {
+          merged[next++] = item;
+        }
+      }
+      if (_slots[i] != null) {
+        merged[next++] = _slots[i];
+      }
+    }
+    _reset(merged);
+    return true;
+  }
+
+  @Override
+  public TodoItem remove(final int position) {
+    _checkPosition(position, _size);
+    final int slot = _slotOf(position);
+    final TodoItem removed = _slots[slot];
+    _removeSlot(slot);
+    _order.remove(position);
+    _compactIfSparse();
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    _slots = new TodoItem[MIN_CAPACITY];
+    _tree = new int[MIN_CAPACITY + 1];
+    _slotCount = 0;
+    _size = 0;
+    _idTable = new int[_idTableLength(MIN_CAPACITY)];
+    _checkedSlots.clear();
+    _checkedCount = 0;
+    _order = new TodoItemChunks();
+    modCount++;
+  }
+
+  @Override
+  public int indexOf(final Object o) {
+    if (!(o instanceof TodoItem)) {
+      return -1;
+    }
+    final int slot = _slotOfId(((TodoItem) o).getId());
+    return slot != -1 && _slots[slot].equals(o) ? _positionOfSlot(slot) : -1;
+  }
+
+  @Override
+  public int lastIndexOf(final Object o) {
+    return indexOf(o);
+  }
+
+  @Override
+  public boolean contains(final Object o) {
+    return indexOf(o) != -1;
+  }
+
+  /**
+   * Copies the items into a new array by scanning the slots, which is O(slots) rather than the
+   * O(n log n) of reading each position.
+   */
+  @Override
+  public TodoItem[] toArray() {
+    final TodoItem[] items = new TodoItem[_size];
+    if (_slotCount == _size) {
+      System.arraycopy(_slots, 0, items, 0, _size);
+      return items;
+    }
+    int next = 0;
+    for (int i = 0; i < _slotCount; i++) {
+      if (_slots[i] != null) {
+        items[next++] = _slots[i];
+      }
+    }
+    return items;
+  }
+
+  /**
+   * Returns the position of the item with the given _id, or -1 if there is none.
+   */
+  int positionOf(final ObjectId id) {
+    final int slot = _slotOfId(id);
+    return slot == -1 ? -1 : _positionOfSlot(slot);
+  }
+
+  /**
+   * Returns the item with the given _id, or null if there is none.
+   */
+  @Nullable
+  TodoItem getById(final ObjectId id) {
+    final int slot = _slotOfId(id);
+    return slot == -1 ? null : _slots[slot];
+  }
+
+  int checkedCount() {
+    return _checkedCount;
+  }
+
+  /**
+   * A copy of the items' order that later changes to the list do not affect. The copy shares the
+   * items' chunks with the list, so it costs O(n / chunk size) rather than O(n).
+   */
+  TodoItemChunks snapshotOrder() {
+    return new TodoItemChunks(_order);
+  }
+
+  /**
+   * Merges changed documents into the list by _id. Tombstoned documents are removed, known
+   * documents are replaced in place, and new documents are appended.
+   */
+  void merge(final Iterable<TodoItem> changes) {
+    for (final TodoItem change : changes) {
+      final int position = positionOf(change.getId());
+      if (change.getDeleted()) {
+        if (position != -1) {
+          remove(position);
+        }
+      } else if (position != -1) {
+        set(position, change);
+      } else {
+        add(change);
+      }
+    }
+  }
+
+  /**
+   * Removes the items with the given _ids, or only the checked ones among them. _ids not in the
+   * list are ignored.
+   * @param changes if not null, receives the removed ranges, from the back of the list forward.
+   */
+  void removeByIds(
+          final Collection<ObjectId> ids,
+          final boolean checkedOnly,
+          @Nullable final ChangeSet.Builder changes) {
+    final int[] slots = new int[ids.size()];
+    int count = 0;
+    for (final ObjectId id : ids) {
+      final int slot = _slotOfId(id);
+      if (slot != -1 && (!checkedOnly || _checkedSlots.get(slot))) {
+        slots[count++] = slot;
+      }
+    }
+    Arrays.sort(slots, 0, count);
+    _removeSlots(slots, count, changes);
+  }
+
+  /**
+   * Removes the items in the first count of the given slots, which must be in ascending order.
+   * Slots are in list order, so removals are reported as runs of adjacent positions.
+   */
+  private void _removeSlots(
+          final int[] slots,
+          final int count,
+          @Nullable final ChangeSet.Builder changes) {
+    // Past this many removals, rebuilding the shared order once is cheaper than a chunk each.
+    final boolean rebuildOrder = count > _size / TodoItemChunks.MAX_CHUNK;
+    int runStart = -1;
+    int runEnd = -1;
+    for (int i = count - 1; i >= 0; i--) {
+      final int slot = slots[i];
+      if (i < count - 1 && slot == slots[i + 1]) {
+        // The same _id given twice.
+        continue;
+      }
+      final int position = _positionOfSlot(slot);
+      if (position == runStart - 1) {
+        runStart = position;
+      } else {
+        if (runStart != -1 && changes != null) {
+          changes.removed(runStart, runEnd - runStart + 1);
+        }
+        runStart = position;
+        runEnd = position;
+      }
+      _removeSlot(slot);
+      if (!rebuildOrder) {
+        _order.remove(position);
+      }
+    }
+    if (runStart != -1 && changes != null) {
+      changes.removed(runStart, runEnd - runStart + 1);
+    }
+    if (rebuildOrder) {
+      _order.reset(toArray());
+    }
+    _compactIfSparse();
+  }
+
+  private void _removeSlot(final int slot) {
+    _unindex(slot, _slots[slot]);
+    _slots[slot] = null;
+    _addToTree(slot, -1);
+    _size--;
+    modCount++;
+  }
+
+  /**
+   * Indexes the item in a slot. The item must already be in the slot.
+   */
+  private void _index(final int slot, final TodoItem item) {
+    _putId(item.getId(), slot);
+    if (item.getChecked()) {
+      _checkedSlots.set(slot);
+      _checkedCount++;
+    }
+  }
+
+  /**
+   * Removes the item in a slot from the index. The item must still be in the slot.
+   */
+  private void _unindex(final int slot, final TodoItem item) {
+    _removeId(item.getId(), slot);
+    if (_checkedSlots.get(slot)) {
+      _checkedSlots.clear(slot);
+      _checkedCount--;
+    }
+  }
+
+  private void _grow() {
+    final TodoItem[] slots = new TodoItem[_slots.length * 2];
+    System.arraycopy(_slots, 0, slots, 0, _slotCount);
+    _slots = slots;
+    _tree = new int[slots.length + 1];
+    _rebuildTree();
+    _idTable = new int[_idTableLength(slots.length)];
+    for (int i = 0; i < _slotCount; i++) {
+      if (_slots[i] != null) {
+        _putId(_slots[i].getId(), i);
+      }
+    }
+  }
+
+  private void _compactIfSparse() {
+    final int holes = _slotCount - _size;
+    if (holes > MIN_CAPACITY && holes > _size) {
+      final TodoItem[] items = new TodoItem[_size];
+      int next = 0;
+      for (int i = 0; i < _slotCount; i++) {
+        if (_slots[i] != null) {
+          items[next++] = _slots[i];
+        }
+      }
+      _reset(items);
+    }
+  }
+
+  private void _reset(final TodoItem[] items) {
+    _slots = new TodoItem[Math.max(MIN_CAPACITY, items.length * 2)];
+    System.arraycopy(items, 0, _slots, 0, items.length);
+    _slotCount = items.length;
+    _size = items.length;
+    _idTable = new int[_idTableLength(_slots.length)];
+    _checkedSlots.clear();
+    _checkedCount = 0;
+    for (int i = 0; i < _slotCount; i++) {
+      _index(i, _slots[i]);
+    }
+    _tree = new int[_slots.length + 1];
+    _rebuildTree();
+    _order.reset(items);
+    modCount++;
+  }
+
+  // _id table helpers.
+
+  /**
+   * The smallest power of two at least twice the number of slots.
+   */
+  private static int _idTableLength(final int slotCapacity) {
+    return Integer.highestOneBit(slotCapacity * 2 - 1) << 1;
+  }
+
+  private int _bucketOf(final ObjectId id) {
+    int hash = id.hashCode();
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    hash ^= hash >>> 13;
+    return hash & (_idTable.length - 1);
+  }
+
+  /**
+   * Returns the slot of the item with the given _id, or -1 if there is none.
+   */
+  private int _slotOfId(final ObjectId id) {
+    final int mask = _idTable.length - 1;
+    for (int bucket = _bucketOf(id); _idTable[bucket] != 0; bucket = (bucket + 1) & mask) {
+      final int slot = _idTable[bucket] - 1;
+      if (_slots[slot].getId().equals(id)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  private void _putId(final ObjectId id, final int slot) {
+    final int mask = _idTable.length - 1;
+    int bucket = _bucketOf(id);
+    while (_idTable[bucket] != 0 && !_slots[_idTable[bucket] - 1].getId().equals(id)) {
+      bucket = (bucket + 1) & mask;
+    }
+    _idTable[bucket] = slot + 1;
+  }
+
+  /**
+   * Removes the _id if it maps to the given slot. The buckets after it are shifted back, rather
+   * than leaving a marker, so that lookups never probe past deleted entries.
+   */
+  private void _removeId(final ObjectId id, final int slot) {
+    final int mask = _idTable.length - 1;
+    int hole = _bucketOf(id);
+    while (_idTable[hole] != slot + 1) {
+      if (_idTable[hole] == 0) {
+        // Its _id was taken over by an item in another slot.
+        return;
+      }
+      hole = (hole + 1) & mask;
+    }
+    for (int bucket = (hole + 1) & mask; _idTable[bucket] != 0; bucket = (bucket + 1) & mask) {
+      final int home = _bucketOf(_slots[_idTable[bucket] - 1].getId());
+      // An entry may fill the hole only if the hole lies between its home bucket and its bucket.
+      if (((bucket - home) & mask) >= ((bucket - hole) & mask)) {
+        _idTable[hole] = _idTable[bucket];
+        hole = bucket;
+      }
+    }
+    _idTable[hole] = 0;
+  }
+
+  // Fenwick tree helpers. Tree index i covers slot i - 1.
+
+  private void _rebuildTree() {
+    for (int i = 1; i < _tree.length; i++) {
+      _tree[i] += i - 1 < _slotCount && _slots[i - 1] != null ? 1 : 0;
+      final int parent = i + (i & -i);
+      if (parent < _tree.length) {
+        _tree[parent] += _tree[i];
+      }
+    }
+  }
+
+  private void _addToTree(final int slot, final int delta) {
+    for (int i = slot + 1; i < _tree.length; i += i & -i) {
+      _tree[i] += delta;
+    }
+  }
+
+  private int _positionOfSlot(final int slot) {
+    int count = 0;
+    for (int i = slot + 1; i > 0; i -= i & -i) {
+      count += _tree[i];
+    }
+    return count - 1;
+  }
+
+  private int _slotOf(final int position) {
+    int index = 0;
+    int remaining = position + 1;
+    for (int step = Integer.highestOneBit(_tree.length - 1); step > 0; step >>= 1) {
+      final int next = index + step;
+      if (next < _tree.length && _tree[next] < remaining) {
+        index = next;
+        remaining -= _tree[next];
+      }
+    }
+    return index;
+  }
+
+  private static void _checkPosition(final int position, final int bound) {
+    if (position < 0 || position >= bound) {
+      throw new IndexOutOfBoundsException("Position " + position + ", size " + bound);
+    }
+  }
+}
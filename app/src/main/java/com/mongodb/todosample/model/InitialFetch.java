@@ -0,0 +1,64 @@
+package com.mongodb.todosample.model;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+
+import java.util.List;
+
+/**
+ * Hands the first fetch of a user's list from the login that started it to the TodoList that
+ * needs it. {@link Authenticator} starts the fetch as soon as the login resolves, in parallel with
+ * the login screen closing and Stitch dispatching the login to auth listeners, and the TodoList's
+ * first full reload for that user takes it over instead of sending the same query again.
+ *
+ * Only the latest fetch is kept, and only for {@link #MAX_AGE_MS}; an older one is not worth
+ * showing.
+ */
+final class InitialFetch {
+  static final long MAX_AGE_MS = 30 * 1000;
+
+  private static String _ownerId;
+  private static Task<List<TodoItem>> _fetch;
+  private static long _startedAt;
+
+  private InitialFetch() {
+  }
+
+  /**
+   * The query a full reload sends: every live item of the user.
+   */
+  static Document filter(final String ownerId) {
+    return new Document(TodoItem.OWNER_KEY, ownerId)
+            .append(TodoItem.DELETED_KEY, new Document("$ne", true));
+  }
+
+  static synchronized void start(final TodoCollection collection, final String ownerId) {
+    _ownerId = ownerId;
+    _fetch = collection.find(filter(ownerId), TodoList.listProjection(), null, 0);
+    _startedAt = SystemClock.elapsedRealtime();
+  }
+
+  /**
+   * Takes over the fetch started for the given user, if there is a recent one.
+   * @return the fetch, which may still be in flight, or null if there is none.
+   */
+  @Nullable
+  static synchronized Task<List<TodoItem>> take(final String ownerId) {
+    final Task<List<TodoItem>> fetch = _fetch;
+    final boolean usable = fetch != null
+            && ownerId.equals(_ownerId)
+            && SystemClock.elapsedRealtime() - _startedAt < MAX_AGE_MS;
+    clear();
+    return usable ? fetch : null;
+  }
+
+  static synchronized void clear() {
+    _ownerId = null;
+    _fetch = null;
+  }
+}
@@ -0,0 +1,244 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes a ChangeSet between two versions of the todo list, keyed by item _id. Removals are
+ * emitted first, then the minimum number of moves (everything outside the longest run of items
+ * that kept their relative order), then insertions, and finally content changes. Also used to
+ * animate views derived from the list, such as search results, from one version to the next.
+ */
+public final class ListDiffer {
+
+  private ListDiffer() {}
+
+  public static ChangeSet diff(final List<TodoItem> oldList, final List<TodoItem> newList) {
+    final ChangeSet.Builder changes = new ChangeSet.Builder();
+    final Map<ObjectId, Integer> oldPositions = _positions(oldList);
+    final Map<ObjectId, Integer> newPositions = _positions(newList);
+
+    // Removals, from the back so that earlier positions stay valid.
+    int runStart = -1;
+    int runEnd = -1;
+    for (int i = oldList.size() - 1; i >= 0; i--) {
+      if (newPositions.containsKey(oldList.get(i).getId())) {
+        continue;
+      }
+      if (runStart == i + 1) {
+        runStart = i;
+      } else {
+        if (runStart != -1) {
+          changes.removed(runStart, runEnd - runStart + 1);
+        }
+        runStart = i;
+        runEnd = i;
+      }
+    }
+    if (runStart != -1) {
+      changes.removed(runStart, runEnd - runStart + 1);
+    }
+
+    // The items that survive, in the order they should end up in, and the rank of each among the
+    // survivors in old order.
+    final int[] ranksByOldPosition = new int[oldList.size()];
+    int survivors = 0;
+    for (int i = 0; i < oldList.size(); i++) {
+      if (newPositions.containsKey(oldList.get(i).getId())) {
+        ranksByOldPosition[i] = survivors++;
+      }
+    }
+    final List<ObjectId> target = new ArrayList<>(survivors);
+    for (final TodoItem item : newList) {
+      if (oldPositions.containsKey(item.getId())) {
+        target.add(item.getId());
+      }
+    }
+    final int[] oldRanks = new int[survivors];
+    for (int k = 0; k < survivors; k++) {
+      oldRanks[k] = ranksByOldPosition[oldPositions.get(target.get(k))];
+    }
+
+    // Moves. Items on the longest increasing subsequence of old positions stay put; every other
+    // item is moved, in target order, to just after its predecessor in the target order.
+    //
+    // Positions are counted rather than searched for: every item gets a slot in a fixed order, and
+    // a Fenwick tree over the occupied slots counts the items before one, so each move is
+    // O(log n). A staying item keeps the slot of its old position. A moved item lands just after
+    // its predecessor, the last item placed, so it takes the next slot in the chain that follows
+    // the predecessor's staying item (or the front of the list); nothing else is ever put there.
+    final boolean[] stays = _longestIncreasingRun(target, oldPositions);
+    // Chain 0 follows the front of the list, chain r + 1 the survivor of old rank r.
+    final int[] chains = new int[survivors];
+    final int[] chainOffsets = new int[survivors];
+    final int[] chainLengths = new int[survivors + 1];
+    for (int k = 0; k < survivors; k++) {
+      if (stays[k]) {
+        chains[k] = oldRanks[k] + 1;
+        chainOffsets[k] = 0;
+      } else if (k == 0) {
+        chains[k] = 0;
+        chainOffsets[k] = 1;
+      } else {
+        chains[k] = chains[k - 1];
+        chainOffsets[k] = chainOffsets[k - 1] + 1;
+      }
+      chainLengths[chains[k]] = Math.max(chainLengths[chains[k]], chainOffsets[k]);
+    }
+    // Slot of a chain's head; the chain's moved items take the slots after it.
+    final int[] chainSlots = new int[survivors + 1];
+    int slotCount = 0;
+    for (int chain = 0; chain <= survivors; chain++) {
+      chainSlots[chain] = slotCount;
+      slotCount += chainLengths[chain] + 1;
+    }
+    final int[] tree = new int[slotCount + 1];
+    for (int rank = 0; rank < survivors; rank++) {
+      _addToTree(tree, chainSlots[rank + 1], 1);
+    }
+    for (int k = 0; k < survivors; k++) {
+      if (stays[k]) {
+        continue;
+      }
+      final int oldSlot = chainSlots[oldRanks[k] + 1];
+      final int newSlot = chainSlots[chains[k]] + chainOffsets[k];
+      final int from = _countBefore(tree, oldSlot);
+      _addToTree(tree, oldSlot, -1);
+      final int to = _countBefore(tree, newSlot);
+      _addToTree(tree, newSlot, 1);
+      if (from != to) {
+        changes.moved(from, to);
+      }
+    }
+
+    // Insertions, from the front so that everything before an insertion is already in place.
+    runStart = -1;
+    int runCount = 0;
+    for (int i = 0; i < newList.size(); i++) {
+      if (oldPositions.containsKey(newList.get(i).getId())) {
+        continue;
+      }
+      if (runStart != -1 && runStart + runCount == i) {
+        runCount++;
+      } else {
+        if (runStart != -1) {
+          changes.inserted(runStart, runCount);
+        }
+        runStart = i;
+        runCount = 1;
+      }
+    }
+    if (runStart != -1) {
+      changes.inserted(runStart, runCount);
+    }
+
+    // Content changes, in final positions.
+    runStart = -1;
+    runCount = 0;
+    int runPayload = 0;
+    for (int i = 0; i < newList.size(); i++) {
+      final TodoItem newItem = newList.get(i);
+      final Integer oldPosition = oldPositions.get(newItem.getId());
+      final int payload =
+              oldPosition == null ? 0 : payloadOf(oldList.get(oldPosition), newItem);
+      if (payload == 0) {
+        continue;
+      }
+      if (runStart != -1 && runStart + runCount == i && runPayload == payload) {
+        runCount++;
+      } else {
+        if (runStart != -1) {
+          changes.changed(runStart, runCount, runPayload);
+        }
+        runStart = i;
+        runCount = 1;
+        runPayload = payload;
+      }
+    }
+    if (runStart != -1) {
+      changes.changed(runStart, runCount, runPayload);
+    }
+
+    return changes.build();
+  }
+
+  /**
+   * Returns the ChangeSet.PAYLOAD_* flags describing which rendered fields differ between two
+   * versions of the same item, or 0 if they render identically.
+   */
+  public static int payloadOf(final TodoItem oldItem, final TodoItem newItem) {
+    int payload = 0;
+    if (!oldItem.getTask().equals(newItem.getTask())) {
+      payload |= ChangeSet.PAYLOAD_TASK;
+    }
+    if (!oldItem.getChecked().equals(newItem.getChecked())) {
+      payload |= ChangeSet.PAYLOAD_CHECKED;
+    }
+    return payload;
+  }
+
+  private static Map<ObjectId, Integer> _positions(final List<TodoItem> list) {
+    final Map<ObjectId, Integer> positions = new HashMap<>(list.size() * 2);
+    for (int i = 0; i < list.size(); i++) {
+      positions.put(list.get(i).getId(), i);
+    }
+    return positions;
+  }
+
+  // Fenwick tree helpers. Tree index i covers slot i - 1.
+
+  private static void _addToTree(final int[] tree, final int slot, final int delta) {
+    for (int i = slot + 1; i < tree.length; i += i & -i) {
+      tree[i] += delta;
+    }
+  }
+
+  private static int _countBefore(final int[] tree, final int slot) {
+    int count = 0;
+    for (int i = slot; i > 0; i -= i & -i) {
+      count += tree[i];
+    }
+    return count;
+  }
+
+  /**
+   * Marks the members of a longest increasing subsequence of the old positions of target, using
+   * patience sorting in O(n log n).
+   */
+  private static boolean[] _longestIncreasingRun(
+          final List<ObjectId> target,
+          final Map<ObjectId, Integer> oldPositions) {
+    final int n = target.size();
+    final int[] tails = new int[n];
+    final int[] tailValues = new int[n];
+    final int[] previous = new int[n];
+    int length = 0;
+
+    for (int k = 0; k < n; k++) {
+      final int value = oldPositions.get(target.get(k));
+      int slot = Arrays.binarySearch(tailValues, 0, length, value);
+      if (slot < 0) {
+        slot = -slot - 1;
+      }
+      tails[slot] = k;
+      tailValues[slot] = value;
+      previous[k] = slot > 0 ? tails[slot - 1] : -1;
+      if (slot == length) {
+        length++;
+      }
+    }
+
+    final boolean[] stays = new boolean[n];
+    for (int k = length > 0 ? tails[length - 1] : -1; k != -1; k = previous[k]) {
+      stays[k] = true;
+    }
+    return stays;
+  }
+}
@@ -0,0 +1,122 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps a {@link TodoSearchIndex} in step with the notifications of a TodoList. Indexing a long
+ * list takes a while, so the index is first built on a background executor; notifications that
+ * arrive meanwhile are held and replayed over it once it is ready, and until then searches scan
+ * the list instead.
+ *
+ * Registered with the TodoList before any other listener, so that it has seen every notification
+ * another listener has by the time that listener searches. Must be used on the main thread.
+ */
+class LiveSearchIndex implements TodoList.Listener {
+  private final Executor _buildExecutor;
+
+  // The list as of the last notification.
+  private List<TodoItem> _items = TodoListSnapshot.EMPTY;
+  @Nullable
+  private TodoSearchIndex _index;
+  private boolean _building;
+  // The notifications received while the index is being built: the list each led to, and its
+  // changes, or null if it may have changed in any way.
+  private final List<List<TodoItem>> _heldItems = new ArrayList<>();
+  private final List<ChangeSet> _heldChanges = new ArrayList<>();
+
+  LiveSearchIndex(final Executor buildExecutor) {
+    this._buildExecutor = buildExecutor;
+  }
+
+  /**
+   * Searches the list as of the last notification.
+   * @see TodoSearchIndex#search(String)
+   */
+  List<TodoItem> search(final String query) {
+    if (_index == null) {
+      return TodoSearchIndex.scan(_items, query);
+    }
+    return _index.search(query);
+  }
+
+  @Override
+  public void onListModified(final List<TodoItem> items) {
+    _items = items;
+    if (_index != null) {
+      _index.reset(items);
+    } else if (_building) {
+      _heldItems.add(items);
+      _heldChanges.add(null);
+    } else {
+      _build();
+    }
+  }
+
+  @Override
+  public void onListChanged(final List<TodoItem> items, final ChangeSet changes) {
+    _items = items;
+    if (_index != null) {
+      _index.apply(items, changes);
+    } else if (_building) {
+      _heldItems.add(items);
+      _heldChanges.add(changes);
+    } else {
+      _build();
+    }
+  }
+
+  @Override
+  public void onMutationRolledBack(final Exception cause) {
+  }
+
+  /**
+   * Builds the index of the current list in the background. Lists passed to listeners are
+   * immutable snapshots, so the list can be read there while later ones arrive.
+   */
+  private void _build() {
+    _building = true;
+    final List<TodoItem> items = _items;
+    Tasks.call(_buildExecutor, new Callable<TodoSearchIndex>() {
+      @Override
+      public TodoSearchIndex call() {
+        final TodoSearchIndex index = new TodoSearchIndex();
+        index.reset(items);
+        return index;
+      }
+    }).addOnCompleteListener(new OnCompleteListener<TodoSearchIndex>() {
+      @Override
+      public void onComplete(@NonNull Task<TodoSearchIndex> task) {
+        _building = false;
+        if (!task.isSuccessful()) {
+          // Keep scanning, and try again on the next notification.
+          _heldItems.clear();
+          _heldChanges.clear();
+          return;
+        }
+        final TodoSearchIndex index = task.getResult();
+        for (int i = 0; i < _heldItems.size(); i++) {
+          final ChangeSet changes = _heldChanges.get(i);
+          if (changes == null) {
+            index.reset(_heldItems.get(i));
+          } else {
+            index.apply(_heldItems.get(i), changes);
+          }
+        }
+        _heldItems.clear();
+        _heldChanges.clear();
+        _index = index;
+      }
+    });
+  }
+}
@@ -0,0 +1,179 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.types.ObjectId;
+
+import java.util.List;
+
+/**
+ * A local change to the todo list that has been applied optimistically but may not yet be
+ * reflected in the server's version of the list. Mutations are replayed in order over every new
+ * server version until a refresh that started after the mutation was acknowledged has completed,
+ * or, when the list is patched by change events, until the server's version shows its effect.
+ */
+abstract class Mutation {
+  private static final int NOT_ACKNOWLEDGED = -1;
+
+  private int _acknowledgedAtRefresh = NOT_ACKNOWLEDGED;
+
+  /**
+   * Applies this mutation to a list in place.
+   * @param list the list to mutate.
+   * @param changes if not null, receives the changes made to the list.
+   */
+  abstract void apply(IndexedTodoItemList list, @Nullable ChangeSet.Builder changes);
+
+  /**
+   * Records that the server accepted this mutation. refreshCount is the number of refreshes
+   * started so far; any refresh started after this point will observe the mutation.
+   */
+  void acknowledge(final int refreshCount) {
+    _acknowledgedAtRefresh = refreshCount;
+  }
+
+  /**
+   * Whether the result of the given refresh already reflects this mutation.
+   */
+  boolean isReflectedIn(final int refreshNumber) {
+    return _acknowledgedAtRefresh != NOT_ACKNOWLEDGED && _acknowledgedAtRefresh < refreshNumber;
+  }
+
+  boolean isAcknowledged() {
+    return _acknowledgedAtRefresh != NOT_ACKNOWLEDGED;
+  }
+
+  /**
+   * Whether the given server version of the list already shows the effect of this mutation, so
+   * that replaying it over that version would change nothing this mutation is responsible for.
+   */
+  abstract boolean isReflectedIn(IndexedTodoItemList serverList);
+
+  static class AddItem extends Mutation {
+    private final TodoItem _item;
+
+    AddItem(final TodoItem item) {
+      this._item = item;
+    }
+
+    @Override
+    void apply(final IndexedTodoItemList list, @Nullable final ChangeSet.Builder changes) {
+      if (list.getById(_item.getId()) != null) {
+        return;
+      }
+      list.add(_item);
+      if (changes != null) {
+        changes.inserted(list.size() - 1, 1);
+      }
+    }
+
+    @Override
+    boolean isReflectedIn(final IndexedTodoItemList serverList) {
+      return serverList.getById(_item.getId()) != null;
+    }
+  }
+
+  static class SetChecked extends Mutation {
+    private final ObjectId _itemId;
+    private final boolean _checked;
+
+    SetChecked(final ObjectId itemId, final boolean checked) {
+      this._itemId = itemId;
+      this._checked = checked;
+    }
+
+    @Override
+    void apply(final IndexedTodoItemList list, @Nullable final ChangeSet.Builder changes) {
+      final int position = list.positionOf(_itemId);
+      if (position == -1 || list.get(position).getChecked() == _checked) {
+        return;
+      }
+      list.set(position, list.get(position).withChecked(_checked));
+      if (changes != null) {
+        changes.changed(position, 1, ChangeSet.PAYLOAD_CHECKED);
+      }
+    }
+
+    @Override
+    boolean isReflectedIn(final IndexedTodoItemList serverList) {
+      final TodoItem item = serverList.getById(_itemId);
+      return item == null || item.getChecked() == _checked;
+    }
+  }
+
+  static class SetTask extends Mutation {
+    private final ObjectId _itemId;
+    private final String _task;
+
+    SetTask(final ObjectId itemId, final String task) {
+      this._itemId = itemId;
+      this._task = task;
+    }
+
+    @Override
+    void apply(final IndexedTodoItemList list, @Nullable final ChangeSet.Builder changes) {
+      final int position = list.positionOf(_itemId);
+      if (position == -1 || list.get(position).getTask().equals(_task)) {
+        return;
+      }
+      list.set(position, list.get(position).withTask(_task));
+      if (changes != null) {
+        changes.changed(position, 1, ChangeSet.PAYLOAD_TASK);
+      }
+    }
+
+    @Override
+    boolean isReflectedIn(final IndexedTodoItemList serverList) {
+      final TodoItem item = serverList.getById(_itemId);
+      return item == null || item.getTask().equals(_task);
+    }
+  }
+
+  /**
+   * A mutation that removes the items that were shown when it was made, given by _id, so that
+   * items other clients add or check afterwards are left alone, as they are on the server. It is
+   * reflected once those items are gone.
+   */
+  private abstract static class Clear extends Mutation {
+    private final List<ObjectId> _clearedIds;
+    private final boolean _checkedOnly;
+
+    Clear(final List<ObjectId> clearedIds, final boolean checkedOnly) {
+      this._clearedIds = clearedIds;
+      this._checkedOnly = checkedOnly;
+    }
+
+    @Override
+    final void apply(final IndexedTodoItemList list, @Nullable final ChangeSet.Builder changes) {
+      list.removeByIds(_clearedIds, _checkedOnly, changes);
+    }
+
+    @Override
+    boolean isReflectedIn(final IndexedTodoItemList serverList) {
+      for (final ObjectId id : _clearedIds) {
+        final TodoItem item = serverList.getById(id);
+        if (item != null && (!_checkedOnly || item.getChecked())) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Removes the given items if they are still checked.
+   */
+  static class ClearChecked extends Clear {
+    ClearChecked(final List<ObjectId> clearedIds) {
+      super(clearedIds, true);
+    }
+  }
+
+  static class ClearAll extends Clear {
+    ClearAll(final List<ObjectId> clearedIds) {
+      super(clearedIds, false);
+    }
+  }
+}
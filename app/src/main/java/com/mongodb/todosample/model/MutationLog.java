@@ -0,0 +1,471 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonType;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only, on-device log of the writes made to todo lists, so that writes made while the
+ * server cannot be reached survive until they can be sent, even across restarts.
+ *
+ * Every write is appended as an entry before it is sent and acknowledged once the server has
+ * applied it. Both are BSON records appended to a single file. Appends are written and fsynced
+ * in batches on a background thread: everything appended while a sync is in progress is
+ * written with the next one. Once acknowledged entries outnumber pending ones, the file is
+ * compacted by writing the pending entries to a new file and renaming it over the log.
+ *
+ * A crash can leave a partially written record at the end of the file; it is ignored on load.
+ * Entries carry increasing sequence numbers, so a record written twice is only loaded once.
+ */
+class MutationLog {
+  // Acknowledged entries tolerated in the file before it is compacted.
+  private static final int MIN_COMPACTION_RECORDS = 64;
+
+  private static final String SEQUENCE_KEY = "s";
+  private static final String ACKNOWLEDGED_KEY = "a";
+  private static final String TYPE_KEY = "t";
+  private static final String OWNER_KEY = "o";
+  private static final String ITEM_ID_KEY = "i";
+  private static final String ITEM_KEY = "item";
+  private static final String CHECKED_KEY = "c";
+  private static final String TASK_KEY = "k";
+  private static final String ITEM_IDS_KEY = "ids";
+
+  enum Type {
+    ADD_ITEM,
+    SET_CHECKED,
+    SET_TASK,
+    CLEAR_CHECKED,
+    CLEAR_ALL
+  }
+
+  /**
+   * A logged write. Only the fields relevant to its type are set.
+   */
+  static class Entry {
+    final Type type;
+    final String ownerId;
+    @Nullable final ObjectId itemId;
+    @Nullable final TodoItem item;
+    final boolean checked;
+    @Nullable final String task;
+    // The items a clear removes, as shown when it was made.
+    @Nullable final List<ObjectId> itemIds;
+    long sequence;
+
+    private Entry(
+            final Type type,
+            final String ownerId,
+            @Nullable final ObjectId itemId,
+            @Nullable final TodoItem item,
+            final boolean checked,
+            @Nullable final String task,
+            @Nullable final List<ObjectId> itemIds) {
+      this.type = type;
+      this.ownerId = ownerId;
+      this.itemId = itemId;
+      this.item = item;
+      this.checked = checked;
+      this.task = task;
+      this.itemIds = itemIds;
+    }
+
+    static Entry addItem(final String ownerId, final TodoItem item) {
+      return new Entry(Type.ADD_ITEM, ownerId, item.getId(), item, false, null, null);
+    }
+
+    static Entry setChecked(final String ownerId, final ObjectId itemId, final boolean checked) {
+      return new Entry(Type.SET_CHECKED, ownerId, itemId, null, checked, null, null);
+    }
+
+    static Entry setTask(final String ownerId, final ObjectId itemId, final String task) {
+      return new Entry(Type.SET_TASK, ownerId, itemId, null, false, task, null);
+    }
+
+    /**
+     * @param itemIds the checked items shown when the user cleared them.
+     */
+    static Entry clearChecked(final String ownerId, final List<ObjectId> itemIds) {
+      return new Entry(Type.CLEAR_CHECKED, ownerId, null, null, false, null, itemIds);
+    }
+
+    /**
+     * @param itemIds the items shown when the user cleared them.
+     */
+    static Entry clearAll(final String ownerId, final List<ObjectId> itemIds) {
+      return new Entry(Type.CLEAR_ALL, ownerId, null, null, false, null, itemIds);
+    }
+
+    /**
+     * Returns the optimistic mutation that makes the same change to the local list.
+     */
+    Mutation toMutation() {
+      switch (type) {
+        case ADD_ITEM:
+          return new Mutation.AddItem(item);
+        case SET_CHECKED:
+          return new Mutation.SetChecked(itemId, checked);
+        case SET_TASK:
+          return new Mutation.SetTask(itemId, task);
+        case CLEAR_CHECKED:
+          return new Mutation.ClearChecked(itemIds);
+        default:
+          return new Mutation.ClearAll(itemIds);
+      }
+    }
+  }
+
+  private final File _file;
+  private final File _compactionFile;
+  private final Codec<TodoItem> _codec;
+  private final ExecutorService _ioExecutor = Executors.newSingleThreadExecutor();
+
+  // Guarded by this. _live holds the entries not yet acknowledged, in order. _unsynced holds the
+  // records appended but not yet written. _deadRecords counts the records in the file that
+  // compaction would drop. Each compaction starts a new generation, so that writes scheduled
+  // before it do not append to the file it is about to replace.
+  private final Map<Long, Entry> _live = new LinkedHashMap<>();
+  private final List<byte[]> _unsynced = new ArrayList<>();
+  private boolean _syncScheduled;
+  private int _generation;
+  private int _deadRecords;
+  private long _nextSequence = 1;
+
+  MutationLog(final File file, final Codec<TodoItem> codec) {
+    this._file = file;
+    this._compactionFile = new File(file.getPath() + ".compact");
+    this._codec = codec;
+  }
+
+  /**
+   * Reads the log from disk, on the calling thread. Must be called once, before anything is
+   * appended.
+   * @return the entries that were never acknowledged, in the order they were appended.
+   */
+  synchronized List<Entry> load() throws IOException {
+    // A leftover compaction file is from a compaction that never finished; the log itself is
+    // still complete.
+    _compactionFile.delete();
+    if (!_file.exists()) {
+      return new ArrayList<>();
+    }
+
+    final ByteBuffer buffer = ByteBuffer.wrap(_readFully(_file)).order(ByteOrder.LITTLE_ENDIAN);
+    int records = 0;
+    while (buffer.remaining() >= 4) {
+      final int length = buffer.getInt(buffer.position());
+      if (length < 5 || length > buffer.remaining()) {
+        // A record cut off by a crash. Everything before it is intact.
+        break;
+      }
+      final ByteBuffer record = buffer.slice();
+      record.limit(length);
+      try {
+        _readRecord(record);
+      } catch (final RuntimeException e) {
+        break;
+      }
+      buffer.position(buffer.position() + length);
+      records++;
+    }
+
+    if (buffer.hasRemaining()) {
+      // Cut off the unreadable tail, so that records appended from now on can be read back.
+      try (RandomAccessFile file = new RandomAccessFile(_file, "rw")) {
+        file.setLength(buffer.position());
+      }
+    }
+    _deadRecords = records - _live.size();
+    return new ArrayList<>(_live.values());
+  }
+
+  /**
+   * Returns the entries that have not been acknowledged yet, in the order they were appended.
+   */
+  synchronized List<Entry> pending() {
+    return new ArrayList<>(_live.values());
+  }
+
+  /**
+   * Appends an entry, assigning it the next sequence number. It is written to disk shortly after,
+   * together with any other entries appended in the meantime.
+   */
+  synchronized Entry append(final Entry entry) {
+    entry.sequence = _nextSequence++;
+    _live.put(entry.sequence, entry);
+    _enqueue(_encodeEntry(entry));
+    return entry;
+  }
+
+  /**
+   * Marks an entry as applied by the server, so it is not replayed again.
+   */
+  synchronized void acknowledge(final Entry entry) {
+    if (_live.remove(entry.sequence) == null) {
+      return;
+    }
+    _deadRecords += 2;
+    if (_deadRecords >= MIN_COMPACTION_RECORDS && _deadRecords > _live.size()) {
+      _compact();
+    } else {
+      _enqueue(_encodeAcknowledgement(entry.sequence));
+    }
+  }
+
+  /**
+   * Writes every record appended so far and stops the background thread. The log must not be
+   * used afterwards.
+   */
+  void close() throws InterruptedException {
+    _ioExecutor.shutdown();
+    _ioExecutor.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  private void _enqueue(final byte[] record) {
+    _unsynced.add(record);
+    _scheduleSync();
+  }
+
+  private void _scheduleSync() {
+    if (_syncScheduled) {
+      return;
+    }
+    _syncScheduled = true;
+    final int generation = _generation;
+    _ioExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        _writeUnsynced(generation);
+      }
+    });
+  }
+
+  private void _writeUnsynced(final int generation) {
+    final List<byte[]> records;
+    synchronized (this) {
+      if (generation != _generation) {
+        return;
+      }
+      records = new ArrayList<>(_unsynced);
+      _unsynced.clear();
+      _syncScheduled = false;
+    }
+    if (records.isEmpty()) {
+      return;
+    }
+
+    // Part of the records may reach the file before a write fails. load() would take those bytes
+    // for a record cut off by a crash and drop every record after them, so they are cut off
+    // before the records are written again.
+    final long length = _file.length();
+    try (FileOutputStream out = new FileOutputStream(_file, true)) {
+      for (final byte[] record : records) {
+        out.write(record);
+      }
+      out.getFD().sync();
+    } catch (final IOException e) {
+      final boolean truncated = _truncate(length);
+      synchronized (this) {
+        // Write the records again with the next sync. If the file could not be cut back, replace
+        // it at once with one holding only the live entries instead.
+        _unsynced.addAll(0, records);
+        if (!truncated) {
+          _compact();
+        }
+      }
+    }
+  }
+
+  private boolean _truncate(final long length) {
+    try (RandomAccessFile file = new RandomAccessFile(_file, "rw")) {
+      file.setLength(length);
+      file.getFD().sync();
+      return true;
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Replaces the file with one holding only the live entries. Records waiting to be written are
+   * not needed in the new file, since the live entries among them are part of it, but they are
+   * kept until it has replaced the old one: if it cannot, they are appended to the old file
+   * after all, so that it still records every acknowledgement.
+   */
+  private void _compact() {
+    final List<byte[]> records = new ArrayList<>(_live.size());
+    for (final Entry entry : _live.values()) {
+      records.add(_encodeEntry(entry));
+    }
+    final List<byte[]> superseded = new ArrayList<>(_unsynced);
+    _unsynced.clear();
+    _syncScheduled = false;
+    _generation++;
+    _deadRecords = 0;
+
+    _ioExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          try (FileOutputStream out = new FileOutputStream(_compactionFile)) {
+            for (final byte[] record : records) {
+              out.write(record);
+            }
+            out.getFD().sync();
+          }
+          if (!_compactionFile.renameTo(_file)) {
+            throw new IOException("Could not replace " + _file);
+          }
+        } catch (final IOException e) {
+          // The old file is still intact. Append what it is missing, ahead of anything appended
+          // since, and compact again later.
+          _compactionFile.delete();
+          synchronized (MutationLog.this) {
+            _deadRecords = Math.max(_deadRecords, MIN_COMPACTION_RECORDS);
+            _unsynced.addAll(0, superseded);
+            _scheduleSync();
+          }
+        }
+      }
+    });
+  }
+
+  private void _readRecord(final ByteBuffer record) {
+    final BsonBinaryReader reader = new BsonBinaryReader(record);
+    try {
+      reader.readStartDocument();
+      final String firstKey = reader.readName();
+      if (ACKNOWLEDGED_KEY.equals(firstKey)) {
+        _live.remove(reader.readInt64());
+        return;
+      }
+
+      final long sequence = reader.readInt64();
+      final Type type = Type.values()[reader.readInt32(TYPE_KEY)];
+      final String ownerId = reader.readString(OWNER_KEY);
+      ObjectId itemId = null;
+      TodoItem item = null;
+      boolean checked = false;
+      String task = null;
+      List<ObjectId> itemIds = null;
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        switch (reader.readName()) {
+          case ITEM_ID_KEY:
+            itemId = reader.readObjectId();
+            break;
+          case ITEM_KEY:
+            item = _codec.decode(reader, DecoderContext.builder().build());
+            break;
+          case CHECKED_KEY:
+            checked = reader.readBoolean();
+            break;
+          case TASK_KEY:
+            task = reader.readString();
+            break;
+          case ITEM_IDS_KEY:
+            itemIds = new ArrayList<>();
+            reader.readStartArray();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+              itemIds.add(reader.readObjectId());
+            }
+            reader.readEndArray();
+            break;
+          default:
+            reader.skipValue();
+            break;
+        }
+      }
+      reader.readEndDocument();
+      if (itemIds == null && (type == Type.CLEAR_CHECKED || type == Type.CLEAR_ALL)) {
+        // Logged before clears recorded their items. Clearing by filter now could remove items
+        // added since, so it clears nothing.
+        itemIds = new ArrayList<>();
+      }
+
+      final Entry entry = new Entry(type, ownerId, itemId, item, checked, task, itemIds);
+      entry.sequence = sequence;
+      _live.put(sequence, entry);
+      _nextSequence = Math.max(_nextSequence, sequence + 1);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private byte[] _encodeEntry(final Entry entry) {
+    final BasicOutputBuffer buffer = new BasicOutputBuffer();
+    final BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+    writer.writeStartDocument();
+    writer.writeInt64(SEQUENCE_KEY, entry.sequence);
+    writer.writeInt32(TYPE_KEY, entry.type.ordinal());
+    writer.writeString(OWNER_KEY, entry.ownerId);
+    if (entry.itemId != null) {
+      writer.writeObjectId(ITEM_ID_KEY, entry.itemId);
+    }
+    if (entry.item != null) {
+      writer.writeName(ITEM_KEY);
+      _codec.encode(writer, entry.item, EncoderContext.builder().build());
+    }
+    writer.writeBoolean(CHECKED_KEY, entry.checked);
+    if (entry.task != null) {
+      writer.writeString(TASK_KEY, entry.task);
+    }
+    if (entry.itemIds != null) {
+      writer.writeStartArray(ITEM_IDS_KEY);
+      for (final ObjectId id : entry.itemIds) {
+        writer.writeObjectId(id);
+      }
+      writer.writeEndArray();
+    }
+    writer.writeEndDocument();
+    writer.close();
+    return buffer.toByteArray();
+  }
+
+  private static byte[] _encodeAcknowledgement(final long sequence) {
+    final BasicOutputBuffer buffer = new BasicOutputBuffer();
+    final BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+    writer.writeStartDocument();
+    writer.writeInt64(ACKNOWLEDGED_KEY, sequence);
+    writer.writeEndDocument();
+    writer.close();
+    return buffer.toByteArray();
+  }
+
+  private static byte[] _readFully(final File file) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+      final byte[] chunk = new byte[8192];
+      int read;
+      while ((read = in.read(chunk)) != -1) {
+        out.write(chunk, 0, read);
+      }
+      return out.toByteArray();
+    }
+  }
+}
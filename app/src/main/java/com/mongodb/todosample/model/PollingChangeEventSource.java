@@ -0,0 +1,113 @@
+package com.mongodb.todosample.model;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A ChangeEventSource backed by the todo collection itself. The Stitch SDK this app uses has no
+ * change streams, so the collection is queried for documents modified since the last query at a
+ * fixed interval, and each query's results are delivered as one batch of events. Tombstones
+ * arrive as updates of deleted documents.
+ *
+ * Like delta refreshes, queries use $gte on last_modified, so a document modified in the same
+ * millisecond as the previous query's newest one is delivered again; applying it twice is
+ * harmless.
+ */
+class PollingChangeEventSource implements ChangeEventSource {
+  private final TodoCollection _collection;
+  private final long _intervalMillis;
+  private final Handler _handler = new Handler(Looper.getMainLooper());
+
+  PollingChangeEventSource(
+          final TodoCollection collection,
+          final long intervalMillis) {
+    this._collection = collection;
+    this._intervalMillis = intervalMillis;
+  }
+
+  @Override
+  public Subscription subscribe(
+          final String ownerId,
+          @Nullable final Date since,
+          final Listener listener) {
+    final PollingSubscription subscription = new PollingSubscription(ownerId, since, listener);
+    _handler.post(subscription);
+    return subscription;
+  }
+
+  /**
+   * Polls on the main thread. Only one query is in flight at a time; the next one is scheduled
+   * when it completes, whether or not it succeeded.
+   */
+  private class PollingSubscription implements Subscription, Runnable {
+    private final String _ownerId;
+    private final Listener _listener;
+    private Date _since;
+    private boolean _cancelled;
+
+    PollingSubscription(final String ownerId, final Date since, final Listener listener) {
+      this._ownerId = ownerId;
+      this._since = since;
+      this._listener = listener;
+    }
+
+    @Override
+    public void cancel() {
+      _cancelled = true;
+      _handler.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+      if (_cancelled) {
+        return;
+      }
+
+      final Document filter = new Document(TodoItem.OWNER_KEY, _ownerId);
+      if (_since != null) {
+        filter.append(TodoItem.LAST_MODIFIED_KEY, new Document("$gte", _since));
+      }
+      _collection.find(
+              filter,
+              TodoList.listProjection(),
+              new Document(TodoItem.LAST_MODIFIED_KEY, 1),
+              0
+      ).addOnCompleteListener(new OnCompleteListener<List<TodoItem>>() {
+        @Override
+        public void onComplete(@NonNull Task<List<TodoItem>> task) {
+          if (_cancelled) {
+            return;
+          }
+          if (task.isSuccessful() && !task.getResult().isEmpty()) {
+            _deliver(task.getResult());
+          }
+          _handler.postDelayed(PollingSubscription.this, _intervalMillis);
+        }
+      });
+    }
+
+    private void _deliver(final List<TodoItem> changed) {
+      final List<ChangeEvent> events = new ArrayList<>(changed.size());
+      for (final TodoItem item : changed) {
+        events.add(new ChangeEvent(ChangeEvent.OperationType.REPLACE, item.getId(), item));
+        final Date lastModified = item.getLastModified();
+        if (lastModified != null && (_since == null || lastModified.after(_since))) {
+          _since = lastModified;
+        }
+      }
+      _listener.onChangeEvents(events);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package com.mongodb.todosample.model;
+
+import java.util.Random;
+
+/**
+ * How {@link TodoList} copes with a server that is slow or cannot be reached: how often and how
+ * quickly operations that failed to reach it are retried, when to stop sending requests to it for
+ * a while, and when to send a second copy of a slow read.
+ *
+ * Policies are immutable; the with methods return a modified copy.
+ */
+public final class ResiliencePolicy {
+  /**
+   * Three attempts with backoff starting at 200ms, and a circuit that opens for 30s after 5
+   * consecutive failures. Reads are not hedged.
+   */
+  public static final ResiliencePolicy DEFAULT =
+          new ResiliencePolicy(3, 200, 5000, 5, 30 * 1000, 0);
+
+  /**
+   * Every operation is attempted once and its failure reported as is.
+   */
+  public static final ResiliencePolicy NONE = new ResiliencePolicy(1, 0, 0, 0, 0, 0);
+
+  private final int _maxAttempts;
+  private final long _baseDelayMillis;
+  private final long _maxDelayMillis;
+  private final int _failureThreshold;
+  private final long _openMillis;
+  private final double _hedgePercentile;
+
+  private ResiliencePolicy(
+          final int maxAttempts,
+          final long baseDelayMillis,
+          final long maxDelayMillis,
+          final int failureThreshold,
+          final long openMillis,
+          final double hedgePercentile) {
+    this._maxAttempts = maxAttempts;
+    this._baseDelayMillis = baseDelayMillis;
+    this._maxDelayMillis = maxDelayMillis;
+    this._failureThreshold = failureThreshold;
+    this._openMillis = openMillis;
+    this._hedgePercentile = hedgePercentile;
+  }
+
+  /**
+   * Retries operations that failed to reach the server, as long as they can safely be applied
+   * twice. The n-th retry waits a random time between 0 and baseDelayMillis * 2^(n-1), capped at
+   * maxDelayMillis, so that clients that failed together do not retry together.
+   * @param maxAttempts the number of attempts including the first, or 1 to never retry.
+   */
+  public ResiliencePolicy withRetries(
+          final int maxAttempts,
+          final long baseDelayMillis,
+          final long maxDelayMillis) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be at least 1");
+    }
+    return new ResiliencePolicy(
+            maxAttempts,
+            baseDelayMillis,
+            maxDelayMillis,
+            _failureThreshold,
+            _openMillis,
+            _hedgePercentile);
+  }
+
+  /**
+   * Stops sending requests for openMillis once failureThreshold operations in a row have failed to
+   * reach the server. Requests made meanwhile fail right away, like ones that could not reach it.
+   * After that, a single request is let through to probe the server, and closes the circuit if it
+   * succeeds.
+   * @param failureThreshold the number of consecutive failures, or 0 to never open the circuit.
+   */
+  public ResiliencePolicy withCircuitBreaker(final int failureThreshold, final long openMillis) {
+    return new ResiliencePolicy(
+            _maxAttempts,
+            _baseDelayMillis,
+            _maxDelayMillis,
+            failureThreshold,
+            openMillis,
+            _hedgePercentile);
+  }
+
+  /**
+   * Sends a second copy of a read that takes longer than the given percentile of recent reads, and
+   * uses whichever answer arrives first. This trades a few extra reads for fewer slow refreshes.
+   * @param percentile between 0 and 1, e.g. 0.95, or 0 to never hedge.
+   */
+  public ResiliencePolicy withHedgedReads(final double percentile) {
+    if (percentile < 0 || percentile >= 1) {
+      throw new IllegalArgumentException("percentile must be at least 0 and less than 1");
+    }
+    return new ResiliencePolicy(
+            _maxAttempts,
+            _baseDelayMillis,
+            _maxDelayMillis,
+            _failureThreshold,
+            _openMillis,
+            percentile);
+  }
+
+  public int getMaxAttempts() {
+    return _maxAttempts;
+  }
+
+  public int getFailureThreshold() {
+    return _failureThreshold;
+  }
+
+  public long getOpenMillis() {
+    return _openMillis;
+  }
+
+  public double getHedgePercentile() {
+    return _hedgePercentile;
+  }
+
+  /**
+   * How long to wait before the given retry, counting from 1, with full jitter.
+   */
+  long backoffMillis(final int retry, final Random random) {
+    final int doublings = Math.min(Math.max(retry - 1, 0), 30);
+    final long ceiling = Math.min(_maxDelayMillis, _baseDelayMillis << doublings);
+    return ceiling <= 0 ? 0 : (long) (random.nextDouble() * ceiling);
+  }
+}
@@ -0,0 +1,353 @@
+package com.mongodb.todosample.model;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.mongodb.stitch.core.StitchRequestErrorCode;
+import com.mongodb.stitch.core.StitchRequestException;
+import com.mongodb.todosample.metrics.Counter;
+import com.mongodb.todosample.metrics.MetricNames;
+import com.mongodb.todosample.metrics.Metrics;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+import org.bson.codecs.Codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Wraps the todo collection with the {@link ResiliencePolicy} of the {@link TodoList}:
+ * - operations that fail to reach the server are retried with exponential backoff and jitter,
+ *   if applying them twice is harmless. Reads, deletes and updates that only set fields are;
+ *   inserts are not, since a retry of one that did arrive fails on its duplicate _id. TodoList
+ *   replays those as upserts instead.
+ * - a {@link CircuitBreaker} stops requests for a while once several in a row failed to reach the
+ *   server, failing them with a {@link CircuitOpenException} instead.
+ * - reads slower than a percentile of recent ones are hedged with a second copy.
+ * Failures that remain are reported as the last attempt failed, so TodoList still tells writes
+ * that could not reach the server from ones it rejected.
+ */
+class ResilientTodoCollection implements TodoCollection {
+  // The number of recent read latencies that hedging percentiles are taken from, and the number
+  // needed before reads are hedged at all.
+  private static final int READ_LATENCY_SAMPLES = 64;
+  private static final int MIN_READ_LATENCY_SAMPLES = 16;
+
+  private static final List<String> IDEMPOTENT_UPDATE_OPERATORS =
+          Arrays.asList("$set", "$unset", "$currentDate", "$setOnInsert");
+
+  /**
+   * A request refused because the circuit is open. It counts as a transport error, since like one
+   * it never reached the server.
+   */
+  static class CircuitOpenException extends StitchRequestException {
+    CircuitOpenException(final long millisUntilRetry) {
+      super(
+              new IOException("The server could not be reached recently; trying again in "
+                      + (millisUntilRetry + 999) / 1000 + "s"),
+              StitchRequestErrorCode.TRANSPORT_ERROR);
+    }
+  }
+
+  /**
+   * Sends one request to the delegate.
+   */
+  private interface Call<T> {
+    Task<T> send();
+  }
+
+  private final TodoCollection _delegate;
+  private final CircuitBreaker _breaker;
+  private volatile ResiliencePolicy _policy;
+  private final Handler _handler = new Handler(Looper.getMainLooper());
+  private final Random _random = new Random();
+
+  // Ring buffer of the latencies of recent successful reads, in milliseconds. Guarded by itself.
+  private final long[] _readLatencies = new long[READ_LATENCY_SAMPLES];
+  private int _readLatencyCount;
+
+  private final Counter _retries;
+  private final Counter _hedgedReads;
+  private final Counter _hedgedReadWins;
+  private final Counter _circuitOpenings;
+  private final Counter _refusedByCircuit;
+
+  ResilientTodoCollection(final TodoCollection delegate, final ResiliencePolicy policy) {
+    this._delegate = delegate;
+    this._policy = policy;
+    this._breaker = new CircuitBreaker(policy.getFailureThreshold(), policy.getOpenMillis());
+
+    final Metrics metrics = Metrics.get();
+    this._retries = metrics.counter(MetricNames.COLLECTION_RETRIES);
+    this._hedgedReads = metrics.counter(MetricNames.HEDGED_READS);
+    this._hedgedReadWins = metrics.counter(MetricNames.HEDGED_READ_WINS);
+    this._circuitOpenings = metrics.counter(MetricNames.CIRCUIT_OPENINGS);
+    this._refusedByCircuit = metrics.counter(MetricNames.REFUSED_BY_CIRCUIT);
+  }
+
+  TodoCollection delegate() {
+    return _delegate;
+  }
+
+  void setPolicy(final ResiliencePolicy policy) {
+    this._policy = policy;
+    _breaker.configure(policy.getFailureThreshold(), policy.getOpenMillis());
+  }
+
+  /**
+   * How long to wait before trying again, for the given time in a row, an operation that failed to
+   * reach the server: the policy's backoff, or longer if the circuit is open.
+   * @return the delay in milliseconds, or -1 if the policy does not retry.
+   */
+  long retryDelayMillis(final int retry) {
+    final ResiliencePolicy policy = _policy;
+    if (policy.getMaxAttempts() <= 1) {
+      return -1;
+    }
+    return Math.max(
+            policy.backoffMillis(retry, _random),
+            _breaker.millisUntilRetry(SystemClock.elapsedRealtime()));
+  }
+
+  @Override
+  public Task<List<TodoItem>> find(
+          final Document filter,
+          @Nullable final Document projection,
+          @Nullable final Document sort,
+          final int limit) {
+    return _withRetries(true, new Call<List<TodoItem>>() {
+      @Override
+      public Task<List<TodoItem>> send() {
+        return _hedged(new Call<List<TodoItem>>() {
+          @Override
+          public Task<List<TodoItem>> send() {
+            return _delegate.find(filter, projection, sort, limit);
+          }
+        });
+      }
+    });
+  }
+
+  @Override
+  public Task<TodoItem> findFirst(final Document filter) {
+    return _withRetries(true, new Call<TodoItem>() {
+      @Override
+      public Task<TodoItem> send() {
+        return _delegate.findFirst(filter);
+      }
+    });
+  }
+
+  @Override
+  public Task<Void> insertMany(final List<TodoItem> items) {
+    return _withRetries(false, new Call<Void>() {
+      @Override
+      public Task<Void> send() {
+        return _delegate.insertMany(items);
+      }
+    });
+  }
+
+  @Override
+  public Task<Void> updateOne(final Document filter, final Document update, final boolean upsert) {
+    return _withRetries(_isIdempotent(update), new Call<Void>() {
+      @Override
+      public Task<Void> send() {
+        return _delegate.updateOne(filter, update, upsert);
+      }
+    });
+  }
+
+  @Override
+  public Task<Void> updateMany(final Document filter, final Document update) {
+    return _withRetries(_isIdempotent(update), new Call<Void>() {
+      @Override
+      public Task<Void> send() {
+        return _delegate.updateMany(filter, update);
+      }
+    });
+  }
+
+  @Override
+  public Task<Void> deleteMany(final Document filter) {
+    return _withRetries(true, new Call<Void>() {
+      @Override
+      public Task<Void> send() {
+        return _delegate.deleteMany(filter);
+      }
+    });
+  }
+
+  @Override
+  public Codec<TodoItem> getCodec() {
+    return _delegate.getCodec();
+  }
+
+  private static boolean _isIdempotent(final Document update) {
+    return IDEMPOTENT_UPDATE_OPERATORS.containsAll(update.keySet());
+  }
+
+  private <T> Task<T> _withRetries(final boolean idempotent, final Call<T> call) {
+    final TaskCompletionSource<T> completion = new TaskCompletionSource<>();
+    _attempt(call, idempotent ? _policy.getMaxAttempts() : 1, 1, completion);
+    return completion.getTask();
+  }
+
+  private <T> void _attempt(
+          final Call<T> call,
+          final int maxAttempts,
+          final int attempt,
+          final TaskCompletionSource<T> completion) {
+    _send(call).addOnCompleteListener(new OnCompleteListener<T>() {
+      @Override
+      public void onComplete(@NonNull Task<T> task) {
+        if (task.isSuccessful()) {
+          completion.setResult(task.getResult());
+          return;
+        }
+        final Exception cause = _exceptionOf(task);
+        if (attempt >= maxAttempts
+                || !TodoList.isTransportError(cause)
+                || cause instanceof CircuitOpenException) {
+          completion.setException(cause);
+          return;
+        }
+        _retries.increment();
+        _handler.postDelayed(new Runnable() {
+          @Override
+          public void run() {
+            _attempt(call, maxAttempts, attempt + 1, completion);
+          }
+        }, _policy.backoffMillis(attempt, _random));
+      }
+    });
+  }
+
+  /**
+   * Sends a request unless the circuit is open, and tells the breaker whether it reached the
+   * server.
+   */
+  private <T> Task<T> _send(final Call<T> call) {
+    if (!_breaker.allowRequest(SystemClock.elapsedRealtime())) {
+      _refusedByCircuit.increment();
+      return Tasks.forException(
+              new CircuitOpenException(_breaker.millisUntilRetry(SystemClock.elapsedRealtime())));
+    }
+    final Task<T> request = call.send();
+    request.addOnCompleteListener(new OnCompleteListener<T>() {
+      @Override
+      public void onComplete(@NonNull Task<T> task) {
+        if (task.isSuccessful() || !TodoList.isTransportError(_exceptionOf(task))) {
+          _breaker.onSuccess();
+        } else if (_breaker.onFailure(SystemClock.elapsedRealtime())) {
+          _circuitOpenings.increment();
+        }
+      }
+    });
+    return request;
+  }
+
+  /**
+   * Sends a read and, if it has not been answered once the hedging percentile of recent reads has
+   * elapsed, a second copy of it. The first successful answer wins; the read only fails once every
+   * copy sent has.
+   */
+  private <T> Task<T> _hedged(final Call<T> call) {
+    final long hedgeAfter = _hedgeDelayMillis();
+    final Hedge<T> hedge = new Hedge<>(call);
+    hedge.sendCopy();
+    if (hedgeAfter >= 0) {
+      _handler.postDelayed(hedge, hedgeAfter);
+    }
+    return hedge.completion.getTask();
+  }
+
+  /**
+   * @return the delay after which reads are hedged, or -1 if they are not.
+   */
+  private long _hedgeDelayMillis() {
+    final double percentile = _policy.getHedgePercentile();
+    if (percentile <= 0) {
+      return -1;
+    }
+    final long[] latencies;
+    synchronized (_readLatencies) {
+      if (_readLatencyCount < MIN_READ_LATENCY_SAMPLES) {
+        return -1;
+      }
+      latencies = Arrays.copyOf(_readLatencies, Math.min(_readLatencyCount, READ_LATENCY_SAMPLES));
+    }
+    Arrays.sort(latencies);
+    final int rank = (int) Math.ceil(percentile * latencies.length);
+    return latencies[Math.max(rank - 1, 0)];
+  }
+
+  private void _recordReadLatency(final long millis) {
+    synchronized (_readLatencies) {
+      _readLatencies[_readLatencyCount % READ_LATENCY_SAMPLES] = millis;
+      _readLatencyCount++;
+    }
+  }
+
+  private static Exception _exceptionOf(final Task<?> task) {
+    return task.getException() != null ? task.getException() : new IllegalStateException();
+  }
+
+  /**
+   * The copies of one hedged read. Run to send the second copy. Only touched on the main thread
+   * after the first copy has been sent.
+   */
+  private class Hedge<T> implements Runnable {
+    final TaskCompletionSource<T> completion = new TaskCompletionSource<>();
+    private final Call<T> _call;
+    private int _sent;
+    private int _failed;
+
+    Hedge(final Call<T> call) {
+      this._call = call;
+    }
+
+    @Override
+    public void run() {
+      if (!completion.getTask().isComplete()) {
+        _hedgedReads.increment();
+        sendCopy();
+      }
+    }
+
+    void sendCopy() {
+      final int copy = ++_sent;
+      final long sentAt = SystemClock.elapsedRealtime();
+      _send(_call).addOnCompleteListener(new OnCompleteListener<T>() {
+        @Override
+        public void onComplete(@NonNull Task<T> task) {
+          if (task.isSuccessful()) {
+            _recordReadLatency(SystemClock.elapsedRealtime() - sentAt);
+            if (completion.trySetResult(task.getResult())) {
+              _handler.removeCallbacks(Hedge.this);
+              if (copy > 1) {
+                _hedgedReadWins.increment();
+              }
+            }
+            return;
+          }
+          _failed++;
+          if (_failed == _sent) {
+            _handler.removeCallbacks(Hedge.this);
+            completion.trySetException(_exceptionOf(task));
+          }
+        }
+      });
+    }
+  }
+}
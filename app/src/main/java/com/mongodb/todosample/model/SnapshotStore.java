@@ -0,0 +1,216 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonType;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Persists the server's version of a user's todo list, along with its delta-sync watermark, as a
+ * single BSON document per user so the list can be shown immediately on the next cold start.
+ * Files are replaced atomically, so a crash mid-write leaves the previous snapshot intact.
+ */
+class SnapshotStore {
+  private static final String TAG = SnapshotStore.class.getSimpleName();
+
+  private static final int FORMAT_VERSION = 1;
+  private static final String VERSION_KEY = "v";
+  private static final String OWNER_KEY = "owner_id";
+  private static final String WATERMARK_KEY = "watermark";
+  private static final String ITEMS_KEY = "items";
+  private static final String FILE_PREFIX = "todo_snapshot_";
+
+  static class Snapshot {
+    final String ownerId;
+    @Nullable final Date watermark;
+    final List<TodoItem> items;
+
+    Snapshot(final String ownerId, @Nullable final Date watermark, final List<TodoItem> items) {
+      this.ownerId = ownerId;
+      this.watermark = watermark;
+      this.items = items;
+    }
+  }
+
+  private final File _directory;
+  private final Codec<TodoItem> _codec;
+  private final Executor _ioExecutor = Executors.newSingleThreadExecutor();
+
+  // Only the newest snapshot waiting to be written matters; older ones are skipped.
+  private final AtomicReference<Snapshot> _pendingSave = new AtomicReference<>();
+
+  SnapshotStore(final File directory, final Codec<TodoItem> codec) {
+    this._directory = directory;
+    this._codec = codec;
+  }
+
+  /**
+   * Reads the most recently written snapshot, whoever it belongs to, on the calling thread. Logging
+   * out deletes the user's snapshot, so this is normally the logged in user's, and can be read
+   * before it is known who that is.
+   * @return the snapshot, or null if there is none or it could not be read.
+   */
+  @Nullable
+  Snapshot loadLatest() {
+    final File[] files = _directory.listFiles();
+    if (files == null) {
+      return null;
+    }
+    File latest = null;
+    for (final File file : files) {
+      // Includes the backup AtomicFile leaves behind when a write was interrupted.
+      if (file.getName().startsWith(FILE_PREFIX)
+              && (latest == null || file.lastModified() > latest.lastModified())) {
+        latest = file;
+      }
+    }
+    if (latest == null) {
+      return null;
+    }
+
+    final String name = latest.getName();
+    final int suffix = name.indexOf('.');
+    final AtomicFile file =
+            new AtomicFile(new File(_directory, suffix < 0 ? name : name.substring(0, suffix)));
+    try {
+      return _decode(file.readFully());
+    } catch (final IOException | RuntimeException e) {
+      Log.w(TAG, "Discarding unreadable todo list snapshot", e);
+      file.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Writes a snapshot in the background. The items must not be modified afterwards.
+   */
+  void saveAsync(final String ownerId, @Nullable final Date watermark, final List<TodoItem> items) {
+    if (_pendingSave.getAndSet(new Snapshot(ownerId, watermark, items)) != null) {
+      // A write is already queued and will pick up this newer snapshot.
+      return;
+    }
+
+    _ioExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final Snapshot snapshot = _pendingSave.getAndSet(null);
+        if (snapshot != null) {
+          _save(snapshot);
+        }
+      }
+    });
+  }
+
+  /**
+   * Deletes the given user's snapshot in the background, after any queued writes.
+   */
+  void deleteAsync(final String ownerId) {
+    _pendingSave.set(null);
+    _ioExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        _fileFor(ownerId).delete();
+      }
+    });
+  }
+
+  private void _save(final Snapshot snapshot) {
+    final AtomicFile file = _fileFor(snapshot.ownerId);
+    FileOutputStream out = null;
+    try {
+      out = file.startWrite();
+      _encode(snapshot).pipe(out);
+      file.finishWrite(out);
+    } catch (final IOException | RuntimeException e) {
+      Log.w(TAG, "Failed to write todo list snapshot", e);
+      if (out != null) {
+        file.failWrite(out);
+      }
+    }
+  }
+
+  private BasicOutputBuffer _encode(final Snapshot snapshot) {
+    final BasicOutputBuffer buffer = new BasicOutputBuffer();
+    final BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+    final EncoderContext encoderContext = EncoderContext.builder().build();
+
+    writer.writeStartDocument();
+    writer.writeInt32(VERSION_KEY, FORMAT_VERSION);
+    writer.writeString(OWNER_KEY, snapshot.ownerId);
+    if (snapshot.watermark != null) {
+      writer.writeDateTime(WATERMARK_KEY, snapshot.watermark.getTime());
+    } else {
+      writer.writeNull(WATERMARK_KEY);
+    }
+    writer.writeStartArray(ITEMS_KEY);
+    for (final TodoItem item : snapshot.items) {
+      _codec.encode(writer, item, encoderContext);
+    }
+    writer.writeEndArray();
+    writer.writeEndDocument();
+    writer.close();
+
+    return buffer;
+  }
+
+  @Nullable
+  private Snapshot _decode(final byte[] bytes) {
+    final BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes));
+    final DecoderContext decoderContext = DecoderContext.builder().build();
+
+    try {
+      reader.readStartDocument();
+      if (reader.readInt32(VERSION_KEY) != FORMAT_VERSION) {
+        return null;
+      }
+      final String ownerId = reader.readString(OWNER_KEY);
+
+      final Date watermark;
+      reader.readName(WATERMARK_KEY);
+      if (reader.getCurrentBsonType() == BsonType.NULL) {
+        reader.readNull();
+        watermark = null;
+      } else {
+        watermark = new Date(reader.readDateTime());
+      }
+
+      final List<TodoItem> items = new ArrayList<>();
+      reader.readName(ITEMS_KEY);
+      reader.readStartArray();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        items.add(_codec.decode(reader, decoderContext));
+      }
+      reader.readEndArray();
+      reader.readEndDocument();
+
+      return new Snapshot(ownerId, watermark, items);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private AtomicFile _fileFor(final String ownerId) {
+    return new AtomicFile(
+            new File(_directory, FILE_PREFIX + ownerId.replaceAll("[^A-Za-z0-9]", "_")));
+  }
+}
@@ -0,0 +1,102 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.mongodb.stitch.android.core.StitchAppClient;
+import com.mongodb.stitch.android.services.mongodb.remote.RemoteFindIterable;
+import com.mongodb.stitch.android.services.mongodb.remote.RemoteMongoClient;
+import com.mongodb.stitch.android.services.mongodb.remote.RemoteMongoCollection;
+import com.mongodb.stitch.core.services.mongodb.remote.RemoteUpdateOptions;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+import org.bson.codecs.Codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The todo collection on the server, accessed through Stitch.
+ */
+class StitchTodoCollection implements TodoCollection {
+  private final RemoteMongoCollection<TodoItem> _collection;
+
+  StitchTodoCollection(final RemoteMongoCollection<TodoItem> collection) {
+    this._collection = collection;
+  }
+
+  /**
+   * The todo collection of the given client's app.
+   */
+  static StitchTodoCollection forClient(final StitchAppClient client) {
+    return new StitchTodoCollection(client
+            .getServiceClient(RemoteMongoClient.factory, "mongodb-atlas")
+            .getDatabase(TodoList.TODO_LIST_DATABASE)
+            .getCollection(TodoList.TODO_LIST_COLLECTION, TodoItem.class));
+  }
+
+  @Override
+  public Task<List<TodoItem>> find(
+          final Document filter,
+          @Nullable final Document projection,
+          @Nullable final Document sort,
+          final int limit) {
+    RemoteFindIterable<TodoItem> iterable = _collection.find(filter);
+    if (projection != null) {
+      iterable = iterable.projection(projection);
+    }
+    if (sort != null) {
+      iterable = iterable.sort(sort);
+    }
+    if (limit > 0) {
+      iterable = iterable.limit(limit);
+    }
+    return iterable.into(new ArrayList<TodoItem>());
+  }
+
+  @Override
+  public Task<TodoItem> findFirst(final Document filter) {
+    return _collection.find(filter).first();
+  }
+
+  @Override
+  public Task<Void> insertMany(final List<TodoItem> items) {
+    return _ignoreResult(_collection.insertMany(items));
+  }
+
+  @Override
+  public Task<Void> updateOne(final Document filter, final Document update, final boolean upsert) {
+    return _ignoreResult(
+            _collection.updateOne(filter, update, new RemoteUpdateOptions().upsert(upsert)));
+  }
+
+  @Override
+  public Task<Void> updateMany(final Document filter, final Document update) {
+    return _ignoreResult(_collection.updateMany(filter, update));
+  }
+
+  @Override
+  public Task<Void> deleteMany(final Document filter) {
+    return _ignoreResult(_collection.deleteMany(filter));
+  }
+
+  @Override
+  public Codec<TodoItem> getCodec() {
+    return _collection.getCodecRegistry().get(TodoItem.class);
+  }
+
+  private static <T> Task<Void> _ignoreResult(final Task<T> task) {
+    return task.continueWith(new Continuation<T, Void>() {
+      @Override
+      public Void then(@NonNull Task<T> task) throws Exception {
+        if (!task.isSuccessful()) {
+          throw task.getException() != null ? task.getException() : new IllegalStateException();
+        }
+        return null;
+      }
+    });
+  }
+}
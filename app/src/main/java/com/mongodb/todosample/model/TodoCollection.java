@@ -0,0 +1,52 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+import org.bson.codecs.Codec;
+
+import java.util.List;
+
+/**
+ * The operations the model performs on the todo collection. {@link TodoList} normally reaches the
+ * Stitch collection through {@link StitchTodoCollection}; the instrumentation tests' in-memory
+ * collection stands in for it to measure the model under controlled latency and failures.
+ *
+ * Tasks may be completed on any thread.
+ */
+public interface TodoCollection {
+  /**
+   * Finds the documents matching a filter.
+   * @param filter the query filter.
+   * @param projection if not null, the fields to include.
+   * @param sort if not null, the order to return documents in. Otherwise they are returned in
+   *             natural order.
+   * @param limit the maximum number of documents to return, or 0 for no limit.
+   */
+  Task<List<TodoItem>> find(
+          Document filter,
+          @Nullable Document projection,
+          @Nullable Document sort,
+          int limit);
+
+  /**
+   * Finds the first document matching a filter, or null if there is none.
+   */
+  Task<TodoItem> findFirst(Document filter);
+
+  Task<Void> insertMany(List<TodoItem> items);
+
+  Task<Void> updateOne(Document filter, Document update, boolean upsert);
+
+  Task<Void> updateMany(Document filter, Document update);
+
+  Task<Void> deleteMany(Document filter);
+
+  /**
+   * The codec documents are read and written with, also used to store them on the device.
+   */
+  Codec<TodoItem> getCodec();
+}
@@ -0,0 +1,182 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import java.util.Arrays;
+
+/**
+ * The items of an {@link IndexedTodoItemList} in list order, split into chunks that snapshots of
+ * the list share with it. A chunk is never changed once built; changing an item replaces its
+ * chunk with a changed copy. Copying the order for a snapshot therefore only copies the table of
+ * chunks, and a change only copies one chunk and the tail of the table: with chunks of at most
+ * MAX_CHUNK items, both are O(MAX_CHUNK + n / MAX_CHUNK), a few hundred references at 100k items,
+ * rather than a copy of the whole list.
+ *
+ * Not thread safe, but a copy that is no longer changed may be read from any thread.
+ */
+final class TodoItemChunks {
+  static final int MAX_CHUNK = 256;
+  // Chunks shrinking below this are merged with a neighbor, so that removals cannot leave the
+  // table with many tiny chunks.
+  private static final int MIN_CHUNK = MAX_CHUNK / 4;
+  private static final int MIN_CAPACITY = 4;
+
+  private TodoItem[][] _chunks;
+  // _ends[i] is the position just after the last item of chunk i.
+  private int[] _ends;
+  private int _chunkCount;
+
+  TodoItemChunks() {
+    this._chunks = new TodoItem[MIN_CAPACITY][];
+    this._ends = new int[MIN_CAPACITY];
+  }
+
+  TodoItemChunks(final TodoItemChunks other) {
+    final int capacity = Math.max(MIN_CAPACITY, other._chunkCount);
+    this._chunks = Arrays.copyOf(other._chunks, capacity);
+    this._ends = Arrays.copyOf(other._ends, capacity);
+    this._chunkCount = other._chunkCount;
+  }
+
+  int size() {
+    return _chunkCount == 0 ? 0 : _ends[_chunkCount - 1];
+  }
+
+  TodoItem get(final int position) {
+    final int chunk = _chunkOf(position);
+    return _chunks[chunk][position - _startOf(chunk)];
+  }
+
+  void set(final int position, final TodoItem item) {
+    final int chunk = _chunkOf(position);
+    final TodoItem[] copy = _chunks[chunk].clone();
+    copy[position - _startOf(chunk)] = item;
+    _chunks[chunk] = copy;
+  }
+
+  void add(final int position, final TodoItem item) {
+    if (_chunkCount == 0) {
+      _insertChunk(0, new TodoItem[] {item});
+      _updateEnds(0);
+      return;
+    }
+    final int chunk = position == size() ? _chunkCount - 1 : _chunkOf(position);
+    final TodoItem[] old = _chunks[chunk];
+    final int offset = position - _startOf(chunk);
+    final TodoItem[] grown = new TodoItem[old.length + 1];
+    System.arraycopy(old, 0, grown, 0, offset);
+    grown[offset] = item;
+    System.arraycopy(old, offset, grown, offset + 1, old.length - offset);
+    _chunks[chunk] = grown;
+    if (grown.length > MAX_CHUNK) {
+      _split(chunk);
+    }
+    _updateEnds(chunk);
+  }
+
+  void remove(final int position) {
+    int chunk = _chunkOf(position);
+    final TodoItem[] old = _chunks[chunk];
+    final int offset = position - _startOf(chunk);
+    final TodoItem[] shrunk = new TodoItem[old.length - 1];
+    System.arraycopy(old, 0, shrunk, 0, offset);
+    System.arraycopy(old, offset + 1, shrunk, offset, shrunk.length - offset);
+    _chunks[chunk] = shrunk;
+    if (shrunk.length == 0) {
+      _removeChunk(chunk);
+    } else if (shrunk.length < MIN_CHUNK && _chunkCount > 1) {
+      if (chunk == _chunkCount - 1) {
+        chunk--;
+      }
+      _merge(chunk);
+    }
+    _updateEnds(Math.max(0, Math.min(chunk, _chunkCount - 1)));
+  }
+
+  /**
+   * Replaces every item, e.g. after the list was rebuilt. Chunks start half full, so that
+   * inserting into them does not split them right away.
+   */
+  void reset(final TodoItem[] items) {
+    final int chunkSize = MAX_CHUNK / 2;
+    final int chunkCount = (items.length + chunkSize - 1) / chunkSize;
+    _chunks = new TodoItem[Math.max(MIN_CAPACITY, chunkCount)][];
+    _ends = new int[_chunks.length];
+    _chunkCount = chunkCount;
+    for (int i = 0; i < chunkCount; i++) {
+      final int start = i * chunkSize;
+      _chunks[i] = Arrays.copyOfRange(items, start, Math.min(items.length, start + chunkSize));
+      _ends[i] = start + _chunks[i].length;
+    }
+  }
+
+  /**
+   * The chunk holding a position, found by binary search over the chunk ends.
+   */
+  private int _chunkOf(final int position) {
+    if (position < 0 || position >= size()) {
+      throw new IndexOutOfBoundsException("Position " + position + ", size " + size());
+    }
+    int low = 0;
+    int high = _chunkCount - 1;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (_ends[middle] <= position) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int _startOf(final int chunk) {
+    return chunk == 0 ? 0 : _ends[chunk - 1];
+  }
+
+  private void _split(final int chunk) {
+    final TodoItem[] items = _chunks[chunk];
+    final int half = items.length / 2;
+    _chunks[chunk] = Arrays.copyOfRange(items, 0, half);
+    _insertChunk(chunk + 1, Arrays.copyOfRange(items, half, items.length));
+  }
+
+  /**
+   * Merges a chunk with the one after it, splitting the result again if it is too long.
+   */
+  private void _merge(final int chunk) {
+    final TodoItem[] first = _chunks[chunk];
+    final TodoItem[] second = _chunks[chunk + 1];
+    final TodoItem[] merged = Arrays.copyOf(first, first.length + second.length);
+    System.arraycopy(second, 0, merged, first.length, second.length);
+    _chunks[chunk] = merged;
+    _removeChunk(chunk + 1);
+    if (merged.length > MAX_CHUNK) {
+      _split(chunk);
+    }
+  }
+
+  private void _insertChunk(final int chunk, final TodoItem[] items) {
+    if (_chunkCount == _chunks.length) {
+      _chunks = Arrays.copyOf(_chunks, _chunks.length * 2);
+      _ends = Arrays.copyOf(_ends, _ends.length * 2);
+    }
+    System.arraycopy(_chunks, chunk, _chunks, chunk + 1, _chunkCount - chunk);
+    _chunks[chunk] = items;
+    _chunkCount++;
+  }
+
+  private void _removeChunk(final int chunk) {
+    System.arraycopy(_chunks, chunk + 1, _chunks, chunk, _chunkCount - chunk - 1);
+    _chunks[--_chunkCount] = null;
+  }
+
+  /**
+   * Recomputes the ends of the chunks from the given one on.
+   */
+  private void _updateEnds(final int fromChunk) {
+    for (int i = fromChunk; i < _chunkCount; i++) {
+      _ends[i] = _startOf(i) + _chunks[i].length;
+    }
+  }
+}
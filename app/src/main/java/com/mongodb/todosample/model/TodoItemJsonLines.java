@@ -0,0 +1,92 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonReader;
+import org.bson.json.JsonWriter;
+import org.bson.json.JsonWriterSettings;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Reads and writes todo items as JSON lines: one item per line, as the relaxed extended JSON of
+ * its document. Files are read and written an item at a time, so they are never held in memory
+ * whole, and other tools can produce or consume them line by line.
+ */
+final class TodoItemJsonLines {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final JsonWriterSettings SETTINGS =
+          JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+  private TodoItemJsonLines() {
+  }
+
+  static class Writer implements Closeable {
+    private final Codec<TodoItem> _codec;
+    private final BufferedWriter _out;
+
+    Writer(final File file, final Codec<TodoItem> codec) throws IOException {
+      this._codec = codec;
+      this._out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_8));
+    }
+
+    void write(final TodoItem item) throws IOException {
+      final StringWriter line = new StringWriter();
+      _codec.encode(new JsonWriter(line, SETTINGS), item, EncoderContext.builder().build());
+      _out.write(line.toString());
+      _out.newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+      _out.close();
+    }
+  }
+
+  static class Reader implements Closeable {
+    private final Codec<TodoItem> _codec;
+    private final BufferedReader _in;
+
+    Reader(final File file, final Codec<TodoItem> codec) throws IOException {
+      this._codec = codec;
+      this._in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+    }
+
+    /**
+     * Reads the next item, skipping blank lines.
+     * @return the item, or null at the end of the file.
+     * @throws org.bson.json.JsonParseException if a line is not a valid item.
+     */
+    @Nullable
+    TodoItem next() throws IOException {
+      String line;
+      while ((line = _in.readLine()) != null) {
+        if (!line.trim().isEmpty()) {
+          return _codec.decode(new JsonReader(line), DecoderContext.builder().build());
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      _in.close();
+    }
+  }
+}
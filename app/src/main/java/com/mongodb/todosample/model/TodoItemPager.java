@@ -0,0 +1,304 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A paged view of the logged in user's todo list for lists too large to hold in memory. Items
+ * are fetched in _id order, one page at a time, using the last (or first) loaded _id as the
+ * cursor, so every page is a cheap indexed range query regardless of how deep the user has
+ * scrolled. At most maxPages pages are kept; loading past either end of the window drops items
+ * from the other end, which are fetched again if the user scrolls back.
+ *
+ * Positions are relative to the loaded window. Listeners are told about every change to the
+ * window through {@link TodoList.Listener#onListChanged(List, ChangeSet)}, synchronously, with
+ * a snapshot of the window that later changes do not affect. All methods must be called on the
+ * main thread.
+ */
+public class TodoItemPager {
+  private final TodoList _todoList;
+  private final int _pageSize;
+  private final int _maxItems;
+  private final int _prefetchDistance;
+
+  private final IndexedTodoItemList _items = new IndexedTodoItemList();
+  private final List<TodoItem> _readOnlyItems = Collections.unmodifiableList(_items);
+  private final List<TodoList.Listener> _listeners = new ArrayList<>();
+
+  private boolean _hasMoreBefore;
+  private boolean _hasMoreAfter = true;
+  private boolean _loadingBefore;
+  private boolean _loadingAfter;
+  // Set when loading a page failed, e.g. while offline, so that binding rows near the edge does
+  // not send the same request again and again. Only a reload clears them.
+  private boolean _loadBeforeFailed;
+  private boolean _loadAfterFailed;
+
+  // The version of the window in the snapshots listeners are given.
+  private long _version;
+
+  // Incremented on reload so that pages requested for a previous window are discarded.
+  private int _generation;
+
+  TodoItemPager(
+          final TodoList todoList,
+          final int pageSize,
+          final int maxPages) {
+    this._todoList = todoList;
+    this._pageSize = pageSize;
+    this._maxItems = pageSize * maxPages;
+    this._prefetchDistance = pageSize / 2;
+  }
+
+  public void registerListener(final TodoList.Listener listener) {
+    _listeners.add(listener);
+  }
+
+  public int size() {
+    return _items.size();
+  }
+
+  /**
+   * Returns the item at a position of the loaded window, and starts loading the adjacent page if
+   * the position is close to either end of the window.
+   */
+  public TodoItem get(final int position) {
+    loadAround(position);
+    return _items.get(position);
+  }
+
+  /**
+   * The items of the loaded window. The list changes as pages are loaded and dropped.
+   */
+  List<TodoItem> loadedItems() {
+    return _readOnlyItems;
+  }
+
+  /**
+   * Returns the item at a position of the loaded window without loading anything, e.g. to prepare
+   * rows before they are shown.
+   */
+  public TodoItem peek(final int position) {
+    return _items.get(position);
+  }
+
+  /**
+   * Starts loading the adjacent page if the position is within half a page of either end of the
+   * loaded window and more items exist in that direction, unless loading that page failed since
+   * the last reload.
+   */
+  public void loadAround(final int position) {
+    if (position >= _items.size() - _prefetchDistance
+            && _hasMoreAfter && !_loadingAfter && !_loadAfterFailed) {
+      _loadAfter();
+    }
+    if (position < _prefetchDistance
+            && _hasMoreBefore && !_loadingBefore && !_loadBeforeFailed) {
+      _loadBefore();
+    }
+  }
+
+  /**
+   * Re-fetches the currently loaded window (or the first page, if nothing is loaded) and
+   * publishes what changed.
+   */
+  Task<Void> reload() {
+    final String ownerId = _todoList.currentOwnerId();
+    if (ownerId == null) {
+      return Tasks.forException(new IllegalStateException("Must be logged in to load items."));
+    }
+
+    final int generation = ++_generation;
+    _loadingBefore = false;
+    _loadingAfter = false;
+    _loadBeforeFailed = false;
+    _loadAfterFailed = false;
+
+    final Document filter = _baseFilter(ownerId);
+    if (_hasMoreBefore && !_items.isEmpty()) {
+      filter.append(TodoItem.ID_KEY, new Document("$gte", _items.get(0).getId()));
+    }
+    final int limit = Math.max(_items.size(), _pageSize);
+
+    return _fetch(filter, 1, limit).continueWith(new Continuation<List<TodoItem>, Void>() {
+      @Override
+      public Void then(@NonNull Task<List<TodoItem>> task) throws Exception {
+        if (generation != _generation) {
+          return null;
+        }
+        final List<TodoItem> window = _resultOf(task);
+        _hasMoreAfter = window.size() == limit;
+
+        final ChangeSet changes = ListDiffer.diff(_items, window);
+        _items.clear();
+        _items.addAll(window);
+        _notifyListeners(changes);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Applies an optimistic mutation made through the TodoList to the loaded window. New items sort
+   * last by _id, so they are only shown if the window already reaches the end of the list.
+   */
+  void apply(final Mutation mutation) {
+    if (mutation instanceof Mutation.AddItem && _hasMoreAfter) {
+      return;
+    }
+    final ChangeSet.Builder changes = new ChangeSet.Builder();
+    mutation.apply(_items, changes);
+    _notifyListeners(changes.build());
+  }
+
+  /**
+   * Drops the loaded window entirely, e.g. on logout.
+   */
+  void clear() {
+    _generation++;
+    final ChangeSet.Builder changes = new ChangeSet.Builder();
+    if (!_items.isEmpty()) {
+      changes.removed(0, _items.size());
+    }
+    _items.clear();
+    _hasMoreBefore = false;
+    _hasMoreAfter = true;
+    _loadingBefore = false;
+    _loadingAfter = false;
+    _loadBeforeFailed = false;
+    _loadAfterFailed = false;
+    _notifyListeners(changes.build());
+  }
+
+  private void _loadAfter() {
+    final String ownerId = _todoList.currentOwnerId();
+    if (ownerId == null) {
+      return;
+    }
+
+    final Document filter = _baseFilter(ownerId);
+    if (!_items.isEmpty()) {
+      filter.append(TodoItem.ID_KEY,
+              new Document("$gt", _items.get(_items.size() - 1).getId()));
+    }
+
+    final int generation = _generation;
+    _loadingAfter = true;
+    _fetch(filter, 1, _pageSize).continueWith(new Continuation<List<TodoItem>, Void>() {
+      @Override
+      public Void then(@NonNull Task<List<TodoItem>> task) throws Exception {
+        if (generation != _generation) {
+          return null;
+        }
+        _loadingAfter = false;
+        _loadAfterFailed = !task.isSuccessful();
+        final List<TodoItem> page = _resultOf(task);
+        _hasMoreAfter = page.size() == _pageSize;
+
+        if (page.isEmpty()) {
+          return null;
+        }
+
+        final ChangeSet.Builder changes = new ChangeSet.Builder();
+        changes.inserted(_items.size(), page.size());
+        _items.addAll(page);
+
+        final int excess = _items.size() - _maxItems;
+        if (excess > 0) {
+          _items.subList(0, excess).clear();
+          changes.removed(0, excess);
+          _hasMoreBefore = true;
+        }
+        _notifyListeners(changes.build());
+        return null;
+      }
+    });
+  }
+
+  private void _loadBefore() {
+    final String ownerId = _todoList.currentOwnerId();
+    if (ownerId == null || _items.isEmpty()) {
+      return;
+    }
+
+    final Document filter = _baseFilter(ownerId)
+            .append(TodoItem.ID_KEY, new Document("$lt", _items.get(0).getId()));
+
+    final int generation = _generation;
+    _loadingBefore = true;
+    _fetch(filter, -1, _pageSize).continueWith(new Continuation<List<TodoItem>, Void>() {
+      @Override
+      public Void then(@NonNull Task<List<TodoItem>> task) throws Exception {
+        if (generation != _generation) {
+          return null;
+        }
+        _loadingBefore = false;
+        _loadBeforeFailed = !task.isSuccessful();
+        final List<TodoItem> page = _resultOf(task);
+        _hasMoreBefore = page.size() == _pageSize;
+        if (page.isEmpty()) {
+          return null;
+        }
+        Collections.reverse(page);
+
+        final ChangeSet.Builder changes = new ChangeSet.Builder();
+        _items.addAll(0, page);
+        changes.inserted(0, page.size());
+
+        final int excess = _items.size() - _maxItems;
+        if (excess > 0) {
+          _items.subList(_items.size() - excess, _items.size()).clear();
+          changes.removed(_items.size(), excess);
+          _hasMoreAfter = true;
+        }
+        _notifyListeners(changes.build());
+        return null;
+      }
+    });
+  }
+
+  private static Document _baseFilter(final String ownerId) {
+    return new Document(TodoItem.OWNER_KEY, ownerId)
+            .append(TodoItem.DELETED_KEY, new Document("$ne", true));
+  }
+
+  private Task<List<TodoItem>> _fetch(final Document filter, final int direction, final int limit) {
+    return _todoList.collection().find(
+            filter,
+            TodoList.listProjection(),
+            new Document(TodoItem.ID_KEY, direction),
+            limit);
+  }
+
+  private static List<TodoItem> _resultOf(final Task<List<TodoItem>> task) throws Exception {
+    if (!task.isSuccessful()) {
+      if (task.getException() != null) {
+        throw task.getException();
+      }
+      throw new IllegalStateException("Loading todo items failed for unknown reason.");
+    }
+    return task.getResult();
+  }
+
+  private void _notifyListeners(final ChangeSet changes) {
+    if (changes.isEmpty()) {
+      return;
+    }
+    // Listeners may keep the list, e.g. to diff against, so they get a snapshot of the window
+    // rather than the window itself, which later pages change in place.
+    final TodoListSnapshot snapshot = TodoListSnapshot.of(_items, ++_version);
+    for (final TodoList.Listener listener : _listeners) {
+      listener.onListChanged(snapshot, changes);
+    }
+  }
+}
@@ -1,33 +1,64 @@
 package com.mongodb.todosample.model;
 
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
 
 import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.TaskExecutors;
 import com.google.android.gms.tasks.Tasks;
 import com.mongodb.stitch.android.core.Stitch;
 import com.mongodb.stitch.android.core.StitchAppClient;
 import com.mongodb.stitch.android.core.auth.StitchAuth;
 import com.mongodb.stitch.android.core.auth.StitchAuthListener;
 import com.mongodb.stitch.android.core.auth.StitchUser;
-import com.mongodb.stitch.android.services.mongodb.remote.RemoteMongoClient;
-import com.mongodb.stitch.android.services.mongodb.remote.RemoteMongoCollection;
 import com.mongodb.stitch.core.StitchAppClientConfiguration;
+import com.mongodb.stitch.core.StitchRequestErrorCode;
+import com.mongodb.stitch.core.StitchRequestException;
 import com.mongodb.stitch.core.auth.providers.anonymous.AnonymousCredential;
 
 import com.mongodb.stitch.core.auth.providers.userpassword.UserPasswordCredential;
 import com.mongodb.todosample.R;
-import com.mongodb.todosample.Utils;
+import com.mongodb.todosample.StitchInitializer;
+import com.mongodb.todosample.metrics.Counter;
+import com.mongodb.todosample.metrics.HitRatio;
+import com.mongodb.todosample.metrics.LatencyHistogram;
+import com.mongodb.todosample.metrics.MetricNames;
+import com.mongodb.todosample.metrics.Metrics;
 import com.mongodb.todosample.model.objects.TodoItem;
+import com.mongodb.todosample.model.objects.TodoItemCodec;
 
 import org.bson.Document;
 import org.bson.codecs.configuration.CodecProvider;
 import org.bson.codecs.pojo.PojoCodecProvider;
 import org.bson.types.ObjectId;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 
@@ -38,37 +69,480 @@ import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
  * expose any Stitch-specific classes.
  */
 public class TodoList implements StitchAuthListener {
+  private static final String TAG = TodoList.class.getName();
+
   public static final String TODO_LIST_DATABASE = "todo";
   public static final String TODO_LIST_COLLECTION = "items";
 
-  // Stitch specific fields
-  private StitchAppClient                 _stitchClient;
-  private RemoteMongoCollection<TodoItem> _remoteTodoListCollection;
+  // How long deleted items are kept as tombstones on the server. A delta refresh whose watermark
+  // is older than this could have missed deletions, so it falls back to a full reload.
+  public static final long TOMBSTONE_RETENTION_MS = 7L * 24 * 60 * 60 * 1000;
+
+  // Number of fully fetched items kept for detail views.
+  private static final int DETAIL_CACHE_SIZE = 64;
+
+  // Number of query views whose items are kept for when they are opened again.
+  private static final int VIEW_CACHE_SIZE = 8;
+
+  // Default time writes are buffered for before being sent, so bursts can be coalesced.
+  public static final long DEFAULT_WRITE_COALESCING_WINDOW_MS = 300;
+
+  // Lists at least this large are diffed on a background thread rather than inline.
+  private static final int BACKGROUND_DIFF_THRESHOLD = 500;
+
+  // How often a subscribed list polls for changes, when subscribed without a ChangeEventSource.
+  public static final long DEFAULT_CHANGE_POLL_INTERVAL_MS = 5000;
+
+  // Bulk inserts are sent in batches of this many items, with at most this many batches in flight.
+  private static final int BULK_BATCH_SIZE = 500;
+  private static final int BULK_MAX_BATCHES_IN_FLIGHT = 4;
+
+  // File in the app's files directory holding the log of writes not yet applied by the server.
+  private static final String MUTATION_LOG_FILE = "todo_mutation_log";
+
+  // Stitch specific fields. These are set in the background once the shared client has been
+  // initialized, and _stitchClient last, on the main thread once the snapshot has been checked,
+  // so a non-null _stitchClient means all of them are set.
+  private volatile StitchAppClient _stitchClient;
+  private ResilientTodoCollection  _collection;
+  private volatile WriteQueue      _writeQueue;
+  private MutationLog              _mutationLog;
+  private BulkTransfer             _bulkTransfer;
+  private final Task<Void>         _ready;
+  // Read from the device without waiting for Stitch. Completes with the owner of the restored
+  // snapshot, or null if none was restored.
+  private final SnapshotStore      _snapshotStore;
+  private final Task<String>       _snapshotRestored;
+  private volatile long            _writeCoalescingWindowMs =
+          DEFAULT_WRITE_COALESCING_WINDOW_MS;
+  private volatile ResiliencePolicy _resiliencePolicy = ResiliencePolicy.DEFAULT;
+
+  // General fields. The cached list, the server's version of it and the pending optimistic
+  // mutations live in _state, which publishes immutable snapshots of the list and notifies
+  // listeners on the main thread.
+  private final TodoListState _state;
+
+  // Single-flight refresh state. At most one fetch runs at a time; refreshes requested while it
+  // runs share a single follow-up.
+  private Task<Void> _inFlightRefresh;
+  private TaskCompletionSource<Void> _followUpRefresh;
+
+  // Subscription mode. While subscribed, the list is patched by the source's change events and is
+  // not refreshed after writes. The source is kept across logouts, so the next user to log in is
+  // subscribed again.
+  private ChangeEventSource _changeEventSource;
+  private ChangeEventSource.Subscription _subscription;
+
+  // When any pagers are open, the list is in paged mode: refreshes reload the pagers' windows
+  // instead of fetching the whole list.
+  private final List<TodoItemPager> _pagers = new ArrayList<>();
 
-  // General fields
-  private final List<TodoItem> _cachedList;
-  private final List<Listener> _listeners;
+  // Views of the list selected and sorted by the server, by query. Views with listeners are
+  // refreshed along with the list; the others keep their items for when they are opened again.
+  private final LruCache<TodoQuery, TodoListView> _views = new LruCache<>(VIEW_CACHE_SIZE);
+
+  // Searches the tasks of the list as of the last notification to listeners.
+  private final LiveSearchIndex _searchIndex;
+
+  // Full documents fetched on demand, since list queries only fetch what rows render.
+  private final LruCache<ObjectId, TodoItem> _detailCache = new LruCache<>(DETAIL_CACHE_SIZE);
+
+  // Delta-sync state. The watermark is the newest last_modified value seen for _watermarkOwner.
+  private volatile Date   _watermark;
+  private volatile String _watermarkOwner;
+
+  // Writes that could not reach the server, keyed and replayed in log order once it can be
+  // reached again. While any are queued, new writes join the queue rather than overtake them.
+  // _offlineWritesOwner is the user whose logged writes have been queued.
+  private final TreeMap<Long, OfflineWrite> _offlineWrites = new TreeMap<>();
+  private String _offlineWritesOwner;
+  private boolean _replayingOfflineWrite;
+  // Replays are retried with backoff after failing to reach the server, in case connectivity
+  // does not visibly change, e.g. when the server rather than the network was down.
+  private int _replayFailures;
+  private boolean _replayScheduled;
+  private final Runnable _replayRunnable = new Runnable() {
+    @Override
+    public void run() {
+      _replayScheduled = false;
+      _replayOfflineWrites();
+    }
+  };
+
+  // Metrics. Recording into them is close to free while metrics are disabled.
+  private final LatencyHistogram _refreshLatency;
+  private final Map<MutationLog.Type, LatencyHistogram> _writeLatencies =
+          new EnumMap<>(MutationLog.Type.class);
+  private final Counter _refreshFailures;
+  private final Counter _writeFailures;
+  private final Counter _writesQueuedOffline;
+  private final Counter _writeRetries;
+  private final Counter _documentsFetched;
+  private final HitRatio _detailCacheHitRatio;
+  private final HitRatio _viewCacheHitRatio;
+  private final LatencyHistogram _searchLatency;
+
+  // Diffs large lists and restores the on-device snapshot off the main thread.
+  private final Executor _backgroundExecutor = Executors.newSingleThreadExecutor();
+  // Runs bulk inserts, imports and exports, which read and write files.
+  private final Executor _transferExecutor = Executors.newSingleThreadExecutor();
+  private final Handler _mainHandler = new Handler(Looper.getMainLooper());
   // in the future, there might be also be a local MongoDB collection, or synced collection,
   // and this class would be responsible for keeping a local and remote collection in sync.
 
+  /**
+   * Creates a TodoList backed by the Stitch collection. It keeps background threads, a network
+   * callback and an auth listener for as long as the process lives, so an app should create only
+   * one, as TodoApplication does, rather than one per activity.
+   */
   public TodoList(final Context context) {
-    this._initializeStitch(context);
-    this._cachedList = new ArrayList<>();
-    this._listeners = new ArrayList<>();
+    this(context, null);
+  }
+
+  /**
+   * Creates a TodoList that reads and writes its items through the given collection rather than
+   * the Stitch one, e.g. an in-memory one in tests, to measure the model under controlled
+   * conditions. Users still log in through Stitch.
+   * @param collection the collection to use, or null for the Stitch collection.
+   */
+  public TodoList(final Context context, @Nullable final TodoCollection collection) {
+    final Metrics metrics = Metrics.get();
+    this._refreshLatency = metrics.histogram(MetricNames.REFRESH);
+    this._writeLatencies.put(
+            MutationLog.Type.ADD_ITEM, metrics.histogram(MetricNames.ADD_ITEM));
+    this._writeLatencies.put(
+            MutationLog.Type.SET_CHECKED, metrics.histogram(MetricNames.UPDATE_ITEM_CHECKED));
+    this._writeLatencies.put(
+            MutationLog.Type.SET_TASK, metrics.histogram(MetricNames.UPDATE_ITEM_TASK));
+    this._writeLatencies.put(
+            MutationLog.Type.CLEAR_CHECKED, metrics.histogram(MetricNames.CLEAR_CHECKED_ITEMS));
+    this._writeLatencies.put(
+            MutationLog.Type.CLEAR_ALL, metrics.histogram(MetricNames.CLEAR_ALL_ITEMS));
+    this._refreshFailures = metrics.counter(MetricNames.REFRESH_FAILURES);
+    this._writeFailures = metrics.counter(MetricNames.WRITE_FAILURES);
+    this._writesQueuedOffline = metrics.counter(MetricNames.WRITES_QUEUED_OFFLINE);
+    this._writeRetries = metrics.counter(MetricNames.WRITE_RETRIES);
+    this._documentsFetched = metrics.counter(MetricNames.DOCUMENTS_FETCHED);
+    this._detailCacheHitRatio = metrics.hitRatio(MetricNames.DETAIL_CACHE);
+    this._viewCacheHitRatio = metrics.hitRatio(MetricNames.VIEW_CACHE);
+    this._searchLatency = metrics.histogram(MetricNames.SEARCH);
+
+    this._state = new TodoListState(TaskExecutors.MAIN_THREAD);
+    this._searchIndex = new LiveSearchIndex(_backgroundExecutor);
+    this._state.registerListener(_searchIndex);
+    this._snapshotStore = new SnapshotStore(
+            context.getApplicationContext().getFilesDir(), new TodoItemCodec());
+    this._snapshotRestored = this._restoreLatestSnapshot();
+    this._ready = this._initializeStitch(context.getApplicationContext(), collection);
+    this._watchConnectivity(context.getApplicationContext());
+  }
+
+  /**
+   * Waits for the shared Stitch client, which {@link StitchInitializer} initializes in the
+   * background, then sets up the collection and loads the log of writes not yet applied by the
+   * server on a background thread. Once the on-device snapshot, read meanwhile, has been restored
+   * and checked against the logged in user, the client is made available and auth events are
+   * listened to, so that the snapshot can never overwrite the result of the first refresh, and
+   * logged writes are applied to the list before it is refreshed.
+   */
+  private Task<Void> _initializeStitch(
+          final Context context,
+          @Nullable final TodoCollection collection) {
+    return StitchInitializer.getClient(context).continueWith(
+            _backgroundExecutor,
+            new Continuation<StitchAppClient, StitchAppClient>() {
+              @Override
+              public StitchAppClient then(@NonNull Task<StitchAppClient> task) throws Exception {
+                if (!task.isSuccessful()) {
+                  if (task.getException() != null) {
+                    throw task.getException();
+                  }
+                  throw new IllegalStateException("Initializing Stitch failed for unknown reason.");
+                }
+
+                final StitchAppClient client = task.getResult();
+                _collection = new ResilientTodoCollection(
+                        collection != null ? collection : StitchTodoCollection.forClient(client),
+                        _resiliencePolicy);
+                _writeQueue = new WriteQueue(_collection, _writeCoalescingWindowMs);
+                _bulkTransfer = new BulkTransfer(
+                        _collection,
+                        _transferExecutor,
+                        BULK_BATCH_SIZE,
+                        BULK_MAX_BATCHES_IN_FLIGHT);
+                _mutationLog = new MutationLog(
+                        new File(context.getFilesDir(), MUTATION_LOG_FILE),
+                        _collection.getCodec());
+                try {
+                  _mutationLog.load();
+                } catch (final IOException e) {
+                  Log.w(TAG, "Failed to read the mutation log", e);
+                }
+                return client;
+              }
+            }).continueWithTask(new Continuation<StitchAppClient, Task<Void>>() {
+              @Override
+              public Task<Void> then(@NonNull Task<StitchAppClient> task) throws Exception {
+                if (!task.isSuccessful()) {
+                  throw task.getException() != null
+                          ? task.getException() : new IllegalStateException();
+                }
+                final StitchAppClient client = task.getResult();
+                return _snapshotRestored.continueWith(new Continuation<String, Void>() {
+                  @Override
+                  public Void then(@NonNull Task<String> restored) {
+                    TodoList.this._checkRestoredSnapshot(client, restored.getResult());
+                    TodoList.this._stitchClient = client;
+                    // In case the policy was changed before _stitchClient was set.
+                    TodoList.this._collection.setPolicy(_resiliencePolicy);
+                    TodoList.this._restoreOfflineWrites();
+                    client.getAuth().addAuthListener(TodoList.this);
+                    return null;
+                  }
+                });
+              }
+            });
+  }
+
+  /**
+   * Returns a Task that completes once the Stitch client is initialized and any on-device
+   * snapshot of the list has been restored. Until then, {@link #isLoggedIn()} returns false, and
+   * the list is empty or shows the snapshot.
+   */
+  public Task<Void> whenReady() {
+    return _ready;
+  }
+
+  /**
+   * Reads the most recently saved snapshot of the list on a background thread, in parallel with
+   * the initialization of Stitch, and shows it on the main thread as soon as it is read, so that
+   * the first frames can show the list before the network is used. The snapshot's watermark is
+   * restored too, so that refresh only needs to fetch what changed since the snapshot was taken.
+   * @return a Task with the owner of the restored snapshot, or null if none was restored. Never
+   * fails.
+   */
+  private Task<String> _restoreLatestSnapshot() {
+    return Tasks.call(_backgroundExecutor, new Callable<SnapshotStore.Snapshot>() {
+      @Override
+      public SnapshotStore.Snapshot call() {
+        return _snapshotStore.loadLatest();
+      }
+    }).continueWith(new Continuation<SnapshotStore.Snapshot, String>() {
+      @Override
+      public String then(@NonNull Task<SnapshotStore.Snapshot> task) {
+        final SnapshotStore.Snapshot snapshot = task.isSuccessful() ? task.getResult() : null;
+        if (snapshot == null) {
+          return null;
+        }
+        _state.restore(snapshot.items);
+        _watermark = snapshot.watermark;
+        _watermarkOwner = snapshot.ownerId;
+        return snapshot.ownerId;
+      }
+    });
   }
 
   /**
-   * Initializes the _stitchClient field, calling Stitch's static client initialization functions
-   * if the client has never been initialized before.
+   * Drops the restored snapshot if it is not the logged in user's, e.g. because that user was
+   * logged out without the app running.
    */
-  private synchronized void _initializeStitch(Context context) {
-    _stitchClient = Utils.getStitchAppClient(context);
+  private void _checkRestoredSnapshot(
+          final StitchAppClient client,
+          @Nullable final String restoredOwnerId) {
+    if (restoredOwnerId == null) {
+      return;
+    }
+    final StitchUser authedUser = client.getAuth().getUser();
+    if (client.getAuth().isLoggedIn()
+            && authedUser != null
+            && restoredOwnerId.equals(authedUser.getId())) {
+      return;
+    }
+    _state.reset();
+    _watermark = null;
+    _watermarkOwner = null;
+  }
 
-    _stitchClient.getAuth().addAuthListener(this);
-    _remoteTodoListCollection = _stitchClient
-            .getServiceClient(RemoteMongoClient.factory, "mongodb-atlas")
-            .getDatabase(TODO_LIST_DATABASE)
-            .getCollection(TODO_LIST_COLLECTION, TodoItem.class);
+  /**
+   * Replays queued offline writes whenever a network becomes available.
+   */
+  private void _watchConnectivity(final Context context) {
+    final ConnectivityManager connectivityManager =
+            (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    if (connectivityManager == null) {
+      return;
+    }
+    connectivityManager.registerNetworkCallback(
+            new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build(),
+            new ConnectivityManager.NetworkCallback() {
+              @Override
+              public void onAvailable(final Network network) {
+                _mainHandler.post(new Runnable() {
+                  @Override
+                  public void run() {
+                    TodoList.this._replayOfflineWrites();
+                  }
+                });
+              }
+            });
+  }
+
+  /**
+   * Sets how long writes are buffered before being sent to the server. Writes made within the
+   * same window are collapsed and sent together; 0 still batches writes made in the same pass of
+   * the main thread's event loop.
+   * @param windowMillis the buffering window in milliseconds.
+   */
+  public void setWriteCoalescingWindow(final long windowMillis) {
+    _writeCoalescingWindowMs = windowMillis;
+    final WriteQueue writeQueue = _writeQueue;
+    if (writeQueue != null) {
+      writeQueue.setWindowMillis(windowMillis);
+    }
+  }
+
+  /**
+   * Sets how operations on the collection are retried, when the server stops being sent requests
+   * after it failed to answer, and whether slow reads are hedged. Defaults to
+   * {@link ResiliencePolicy#DEFAULT}.
+   */
+  public void setResiliencePolicy(final ResiliencePolicy policy) {
+    _resiliencePolicy = policy;
+    if (_stitchClient != null) {
+      _collection.setPolicy(policy);
+    }
+  }
+
+  /**
+   * Opens a paged view of the list, switching this TodoList to paged mode. In paged mode the
+   * full list is never fetched; {@link #refresh()} reloads the windows of the open pagers and
+   * mutations are applied to them directly, rather than to the cached list.
+   * @param pageSize the number of items fetched per page.
+   * @param maxPages the number of pages kept in memory at once.
+   * @return a pager whose first page is being loaded.
+   */
+  public TodoItemPager openPager(final int pageSize, final int maxPages) {
+    final TodoItemPager pager = new TodoItemPager(this, pageSize, maxPages);
+    _pagers.add(pager);
+    if (isLoggedIn()) {
+      pager.reload();
+    }
+    return pager;
+  }
+
+  /**
+   * Closes a pager opened by {@link #openPager(int, int)}, e.g. when the activity showing it is
+   * destroyed. Refreshes and mutations no longer reach it, and once no pagers are open the list
+   * leaves paged mode.
+   */
+  public void closePager(final TodoItemPager pager) {
+    _pagers.remove(pager);
+  }
+
+  /**
+   * Opens a view of the items selected by a query, in the query's order, e.g. only the open items
+   * or the most recently checked ones. Unlike the list itself, a view only fetches the items it
+   * shows. Views are cached: opening one again shows the items it had right away, and only fetches
+   * what was modified since.
+   *
+   * Mutations made through this TodoList are applied to cached views optimistically, and views with
+   * listeners are refreshed by {@link #refresh()}.
+   * @return the view, being brought up to date.
+   */
+  public TodoListView openView(final TodoQuery query) {
+    TodoListView view = _views.get(query);
+    if (view == null) {
+      view = new TodoListView(this, query, _viewCacheHitRatio);
+      _views.put(query, view);
+    }
+    if (isLoggedIn()) {
+      _refreshView(view);
+    }
+    return view;
+  }
+
+  /**
+   * The fields list queries fetch: what list rows render, plus what delta sync needs. Everything
+   * else is fetched per item by {@link #getItemDetails(ObjectId)}.
+   */
+  static Document listProjection() {
+    return new Document(TodoItem.ID_KEY, 1)
+            .append(TodoItem.TASK_KEY, 1)
+            .append(TodoItem.CHECKED_KEY, 1)
+            .append(TodoItem.LAST_MODIFIED_KEY, 1)
+            .append(TodoItem.DELETED_KEY, 1);
+  }
+
+  /**
+   * Fetches the full document of an item, including the fields left out of list queries such as
+   * its done date. Results are cached, and a cached document is reused for as long as the item's
+   * last_modified in the list matches it.
+   * @param itemId the _id of the item.
+   * @return A Task with the full item. The item reflects the server's version, so pending local
+   * changes that have not been written yet are not included.
+   */
+  public Task<TodoItem> getItemDetails(final ObjectId itemId) {
+    if(!isLoggedIn()) {
+      return Tasks.forException(new IllegalStateException("Must be logged in to get items."));
+    }
+
+    final TodoItem cached = _detailCache.get(itemId);
+    if (cached != null && _isCurrent(cached)) {
+      _detailCacheHitRatio.hit();
+      return Tasks.forResult(cached);
+    }
+    _detailCacheHitRatio.miss();
+
+    return _collection.findFirst(new Document(TodoItem.ID_KEY, itemId))
+            .continueWith(new Continuation<TodoItem, TodoItem>() {
+              @Override
+              public TodoItem then(@NonNull Task<TodoItem> task) throws Exception {
+                if (!task.isSuccessful()) {
+                  if (task.getException() != null) {
+                    throw task.getException();
+                  }
+                  throw new IllegalStateException("Fetching item failed for unknown reason.");
+                }
+                final TodoItem item = task.getResult();
+                if (item == null || item.getDeleted()) {
+                  throw new IllegalStateException("Item no longer exists.");
+                }
+                _detailCache.put(itemId, item);
+                return item;
+              }
+            });
+  }
+
+  /**
+   * Whether a cached full document is still the version the server list has for that item.
+   */
+  private boolean _isCurrent(final TodoItem detail) {
+    final TodoItem item = _state.getServerItem(detail.getId());
+    return item != null
+            && item.getLastModified() != null
+            && item.getLastModified().equals(detail.getLastModified());
+  }
+
+  /**
+   * Returns the id of the logged in user, or null if no user is logged in.
+   */
+  String currentOwnerId() {
+    final StitchAppClient client = _stitchClient;
+    if (client == null || !client.getAuth().isLoggedIn()) {
+      return null;
+    }
+    final StitchUser authedUser = client.getAuth().getUser();
+    return authedUser != null ? authedUser.getId() : null;
+  }
+
+  /**
+   * The todo collection. Only null before {@link #whenReady()} completes, while no user can be
+   * logged in yet.
+   */
+  TodoCollection collection() {
+    return _collection;
   }
 
   /**
@@ -76,7 +550,8 @@ public class TodoList implements StitchAuthListener {
    * @return whether or not a user is currently logged into the TodoList.
    */
   public Boolean isLoggedIn() {
-    return _stitchClient.getAuth().isLoggedIn();
+    final StitchAppClient client = _stitchClient;
+    return client != null && client.getAuth().isLoggedIn();
   }
 
 
@@ -84,95 +559,560 @@ public class TodoList implements StitchAuthListener {
    * Adds an item to the task list.
    * @param item A TodoItem to add to the task list. id and ownerId in the item do not need to be
    *             set as they will be automatically set when inserted into the MongoDB collection.
-   * @return A Task that completes when the item is successfully added. Triggers a refresh (and
-   * subsequent listener notification, but that refresh and listener notification may happen
-   * after the task is completed.
+   * @return A Task that completes when the item is successfully added. The item is added to the
+   * cached list (and listeners are notified) immediately; if the remote insert fails, the item is
+   * removed again. Triggers a refresh, but that refresh and listener notification may happen after
+   * the task is completed.
    */
   public Task<Void> addItem(final TodoItem item) {
-    final StitchUser authedUser = _stitchClient.getAuth().getUser();
-    if(!isLoggedIn() || authedUser == null) {
+    final String ownerId = currentOwnerId();
+    if(ownerId == null) {
       return Tasks.forException(new IllegalStateException("Must be logged in to add task."));
     }
 
-    item.setOwnerId(authedUser.getId());
+    item.setOwnerId(ownerId);
 
-    return _executeThenRefresh(_remoteTodoListCollection.insertOne(item));
+    return _executeOptimistically(MutationLog.Entry.addItem(ownerId, item), new RemoteWrite() {
+      @Override
+      public Task<Void> send() {
+        return _writeQueue.insert(item);
+      }
+    });
   }
 
-  public Task<Void> updateItemChecked(final ObjectId itemId, final boolean isChecked) {
-    if(!isLoggedIn()) {
-      return Tasks.forException(new IllegalStateException("Must be logged in to add task."));
+  /**
+   * Adds many items at once, e.g. a list migrated from another app. Rather than one write per
+   * item, the items are sent in batches of insertMany calls, several batches in flight at once,
+   * and the list is refreshed once after the last batch. Unlike {@link #addItem(TodoItem)}, items
+   * are not shown before the server has them, and are not replayed if the server cannot be
+   * reached.
+   * @param items the items to add. Their owner is set to the logged in user.
+   * @return a Task that completes once every item is added, or fails with the first error. Items
+   * of batches that were sent before the error stay added.
+   */
+  public Task<Void> addItems(final Collection<TodoItem> items) {
+    final String ownerId = currentOwnerId();
+    if(ownerId == null) {
+      return Tasks.forException(new IllegalStateException("Must be logged in to add tasks."));
     }
 
-    final Document updateDoc =
-            new Document("$set", new Document(TodoItem.CHECKED_KEY, isChecked));
+    final List<TodoItem> toAdd = new ArrayList<>(items);
+    for (final TodoItem item : toAdd) {
+      item.setOwnerId(ownerId);
+    }
+    final Iterator<TodoItem> iterator = toAdd.iterator();
+    return _insertAll(new BulkTransfer.Source() {
+      @Override
+      public TodoItem next() {
+        return iterator.hasNext() ? iterator.next() : null;
+      }
+    }).continueWith(new Continuation<Integer, Void>() {
+      @Override
+      public Void then(@NonNull Task<Integer> task) throws Exception {
+        if (!task.isSuccessful()) {
+          throw task.getException() != null ? task.getException() : new IllegalStateException();
+        }
+        return null;
+      }
+    });
+  }
 
-    if (isChecked) {
-      updateDoc.append("$currentDate", new Document(TodoItem.DONE_DATE_KEY, true));
-    } else {
-      updateDoc.append("$unset", new Document(TodoItem.DONE_DATE_KEY, ""));
+  /**
+   * Adds the items of a JSON lines file, such as one written by {@link #exportItems(File)}, the
+   * way {@link #addItems(Collection)} does. The file is read as the items are sent, so it is
+   * never held in memory whole. Items are added as new items of the logged in user, keeping only
+   * their task, checked state and done date; deleted items are skipped.
+   * @param file the file to read, with one item document per line.
+   * @return a Task with the number of items added, failing with the first error, including a
+   * line that is not a valid item. Items of batches that were sent before the error stay added.
+   */
+  public Task<Integer> importItems(final File file) {
+    final String ownerId = currentOwnerId();
+    if(ownerId == null) {
+      return Tasks.forException(new IllegalStateException("Must be logged in to import tasks."));
     }
 
-    return _executeThenRefresh(
-            _remoteTodoListCollection.updateOne(new Document(TodoItem.ID_KEY, itemId), updateDoc));
+    final TodoItemJsonLines.Reader[] reader = new TodoItemJsonLines.Reader[1];
+    final BulkTransfer.Source source = new BulkTransfer.Source() {
+      @Override
+      public TodoItem next() throws IOException {
+        if (reader[0] == null) {
+          reader[0] = new TodoItemJsonLines.Reader(file, _collection.getCodec());
+        }
+        TodoItem item = reader[0].next();
+        while (item != null && item.getDeleted()) {
+          item = reader[0].next();
+        }
+        if (item == null) {
+          return null;
+        }
+        return new TodoItem(
+                ObjectId.get(),
+                ownerId,
+                item.getTask() != null ? item.getTask() : "",
+                item.getChecked(),
+                item.getDoneDate(),
+                null,
+                false);
+      }
+    };
+    return _insertAll(source).continueWithTask(
+            _transferExecutor,
+            new Continuation<Integer, Task<Integer>>() {
+              @Override
+              public Task<Integer> then(@NonNull Task<Integer> task) throws IOException {
+                if (reader[0] != null) {
+                  reader[0].close();
+                }
+                return task;
+              }
+            });
   }
 
-  public Task<Void> updateItemTask(final ObjectId itemId, final String newTask) {
-    if(!isLoggedIn()) {
+  /**
+   * Writes the logged in user's items to a JSON lines file, one item document per line, fetching
+   * and writing them a page at a time so the list is never held in memory whole. The server's
+   * version of the list is written, so local changes that have not been written yet are not
+   * included.
+   * @param file the file to write. It is replaced if it exists, and deleted if the export fails.
+   * @return a Task with the number of items written.
+   */
+  public Task<Integer> exportItems(final File file) {
+    final String ownerId = currentOwnerId();
+    if(ownerId == null) {
+      return Tasks.forException(new IllegalStateException("Must be logged in to export tasks."));
+    }
+
+    return Tasks.call(_transferExecutor, new Callable<TodoItemJsonLines.Writer>() {
+      @Override
+      public TodoItemJsonLines.Writer call() throws IOException {
+        return new TodoItemJsonLines.Writer(file, _collection.getCodec());
+      }
+    }).continueWithTask(
+            _transferExecutor,
+            new Continuation<TodoItemJsonLines.Writer, Task<Integer>>() {
+              @Override
+              public Task<Integer> then(@NonNull final Task<TodoItemJsonLines.Writer> opened)
+                      throws Exception {
+                if (!opened.isSuccessful()) {
+                  throw opened.getException() != null
+                          ? opened.getException() : new IllegalStateException();
+                }
+                final TodoItemJsonLines.Writer writer = opened.getResult();
+                return _bulkTransfer.exportAll(ownerId, writer).continueWithTask(
+                        _transferExecutor,
+                        new Continuation<Integer, Task<Integer>>() {
+                          @Override
+                          public Task<Integer> then(@NonNull Task<Integer> task) {
+                            try {
+                              writer.close();
+                            } catch (final IOException e) {
+                              if (task.isSuccessful()) {
+                                file.delete();
+                                return Tasks.forException(e);
+                              }
+                            }
+                            if (!task.isSuccessful()) {
+                              file.delete();
+                            }
+                            return task;
+                          }
+                        });
+              }
+            });
+  }
+
+  /**
+   * Inserts the items of a bulk insert, then makes them show up in the list, even if only some
+   * of them were inserted.
+   */
+  private Task<Integer> _insertAll(final BulkTransfer.Source source) {
+    return _bulkTransfer.insertAll(source).continueWithTask(
+            new Continuation<Integer, Task<Integer>>() {
+              @Override
+              public Task<Integer> then(@NonNull Task<Integer> task) {
+                if (TodoList.this.isLoggedIn()) {
+                  TodoList.this._syncAcknowledged();
+                }
+                return task;
+              }
+            });
+  }
+
+  public Task<Void> updateItemChecked(final ObjectId itemId, final boolean isChecked) {
+    final String ownerId = currentOwnerId();
+    if(ownerId == null) {
       return Tasks.forException(new IllegalStateException("Must be logged in to add task."));
     }
 
-    final Document updateDoc =
-            new Document("$set", new Document(TodoItem.TASK_KEY, newTask));
+    final TodoItem item = _state.getItem(itemId);
+    final boolean wasChecked = item != null ? item.getChecked() : !isChecked;
+
+    return _executeOptimistically(
+            MutationLog.Entry.setChecked(ownerId, itemId, isChecked),
+            new RemoteWrite() {
+              @Override
+              public Task<Void> send() {
+                return _writeQueue.setChecked(itemId, isChecked, wasChecked);
+              }
+            });
+  }
+
+  public Task<Void> updateItemTask(final ObjectId itemId, final String newTask) {
+    final String ownerId = currentOwnerId();
+    if(ownerId == null) {
+      return Tasks.forException(new IllegalStateException("Must be logged in to add task."));
+    }
 
-    return _executeThenRefresh(
-            _remoteTodoListCollection.updateOne(new Document(TodoItem.ID_KEY, itemId), updateDoc));
+    return _executeOptimistically(
+            MutationLog.Entry.setTask(ownerId, itemId, newTask),
+            new RemoteWrite() {
+              @Override
+              public Task<Void> send() {
+                return _writeQueue.setTask(itemId, newTask);
+              }
+            });
   }
 
   public Task<Void> clearCheckedItems() {
-    if(!isLoggedIn()) {
+    final String ownerId = currentOwnerId();
+    if(ownerId == null) {
       return Tasks.forException(new IllegalStateException("Must be logged in to clear items."));
     }
 
-    return _executeThenRefresh(
-            _remoteTodoListCollection.deleteMany(new Document(TodoItem.CHECKED_KEY, true)));
+    final MutationLog.Entry entry = MutationLog.Entry.clearChecked(ownerId, _shownIds(true));
+    return _executeOptimistically(entry, new RemoteWrite() {
+      @Override
+      public Task<Void> send() {
+        return _clear(entry);
+      }
+    });
   }
 
   public Task<Void> clearAllItems() {
-    if(!isLoggedIn()) {
+    final String ownerId = currentOwnerId();
+    if(ownerId == null) {
       return Tasks.forException(new IllegalStateException("Must be logged in to add task."));
     }
 
-    return _executeThenRefresh(_remoteTodoListCollection.deleteMany(new Document()));
+    final MutationLog.Entry entry = MutationLog.Entry.clearAll(ownerId, _shownIds(false));
+    return _executeOptimistically(entry, new RemoteWrite() {
+      @Override
+      public Task<Void> send() {
+        return _clear(entry);
+      }
+    });
+  }
+
+  /**
+   * The _ids of the items shown, in the cached list or the windows of open pagers, or only of
+   * the checked ones. Clears remove these items rather than whatever matches when they reach the
+   * server, which may include items added or checked on other devices since.
+   */
+  private List<ObjectId> _shownIds(final boolean checkedOnly) {
+    final Set<ObjectId> ids = new LinkedHashSet<>();
+    for (final TodoItem item : getItems()) {
+      if (!checkedOnly || item.getChecked()) {
+        ids.add(item.getId());
+      }
+    }
+    for (final TodoItemPager pager : _pagers) {
+      for (final TodoItem item : pager.loadedItems()) {
+        if (!checkedOnly || item.getChecked()) {
+          ids.add(item.getId());
+        }
+      }
+    }
+    return new ArrayList<>(ids);
+  }
+
+  /**
+   * Tombstones the items a logged clear removes, by _id, so that sending it again changes
+   * nothing more. Clearing checked items leaves those unchecked since.
+   */
+  private Task<Void> _clear(final MutationLog.Entry entry) {
+    if (entry.itemIds.isEmpty()) {
+      return Tasks.forResult(null);
+    }
+    final Document filter = new Document(TodoItem.ID_KEY, new Document("$in", entry.itemIds))
+            .append(TodoItem.DELETED_KEY, new Document("$ne", true));
+    if (entry.type == MutationLog.Type.CLEAR_CHECKED) {
+      filter.append(TodoItem.CHECKED_KEY, true);
+    }
+    return _writeQueue.updateManyAfterFlush(filter, _tombstoneUpdate());
   }
 
   /**
-   * Private helper method that runs a Task, ignores its result on success, and refreshes the
-   * cached list, returning a Task that completes when the original Task completes. If the original
-   * task fails, this returns a failing task with the reason for the failure.
+   * Items are not deleted outright; they are marked deleted so that other clients doing a delta
+   * refresh can observe the deletion. Tombstones are purged after TOMBSTONE_RETENTION_MS.
+   */
+  private static Document _tombstoneUpdate() {
+    return new Document("$set", new Document(TodoItem.DELETED_KEY, true))
+            .append("$currentDate", new Document(TodoItem.LAST_MODIFIED_KEY, true));
+  }
+
+  /**
+   * Sends a write to the server. Not called until the write is sure to be sent, so that writes
+   * queued behind offline ones are not sent out of order.
+   */
+  private interface RemoteWrite {
+    Task<Void> send();
+  }
+
+  /**
+   * A logged write that could not reach the server, and its local equivalent.
+   */
+  private static class OfflineWrite {
+    final MutationLog.Entry entry;
+    final Mutation mutation;
+
+    OfflineWrite(final MutationLog.Entry entry, final Mutation mutation) {
+      this.entry = entry;
+      this.mutation = mutation;
+    }
+  }
+
+  /**
+   * Private helper method that logs a write, applies its mutation to the cached list right away,
+   * notifying listeners, and then sends it to the server. If the server cannot be reached, the
+   * write stays applied and is queued to be replayed once it can; so are writes made while others
+   * are queued. If the server rejects the write, the mutation is rolled back and listeners are
+   * notified of both the list changes and the rollback. If it succeeds, the list is refreshed; the
+   * mutation stays applied until a refresh that started after the success has been merged, or,
+   * when subscribed, until the write's change events have arrived.
    *
-   * @param task The task to execute
-   * @param <T> The result type of the original task.
-   * @return a Task that completes when the original task completes, but before a refresh completes
+   * @param entry The logged write, whose mutation is the local equivalent of the remote write.
+   * @param write Sends the write to the server.
+   * @return a Task that completes when the write is applied by the server or queued to be
+   * replayed, but before a refresh completes
    */
-  private <T> Task<Void> _executeThenRefresh(Task<T> task) {
-    return task.continueWithTask(new Continuation<T, Task<Void>>() {
+  private Task<Void> _executeOptimistically(
+          final MutationLog.Entry entry,
+          final RemoteWrite write) {
+    final Mutation mutation = entry.toMutation();
+    _mutationLog.append(entry);
+    _applyMutation(mutation);
+
+    if (!_offlineWrites.isEmpty()) {
+      _offlineWrites.put(entry.sequence, new OfflineWrite(entry, mutation));
+      _writesQueuedOffline.increment();
+      return Tasks.forResult(null);
+    }
+
+    final LatencyHistogram latency = _writeLatencies.get(entry.type);
+    final long start = latency.start();
+    return write.send().continueWithTask(new Continuation<Void, Task<Void>>() {
       @Override
-      public Task<Void> then(@NonNull Task<T> task) throws Exception {
+      public Task<Void> then(@NonNull Task<Void> task) throws Exception {
+        latency.stop(start);
         if (!task.isSuccessful()) {
-          if (task.getException() != null) {
-            throw task.getException();
+          final Exception cause = task.getException() != null
+                  ? task.getException() : new IllegalStateException();
+          if (isTransportError(cause)) {
+            TodoList.this._offlineWrites.put(entry.sequence, new OfflineWrite(entry, mutation));
+            TodoList.this._writesQueuedOffline.increment();
+            TodoList.this._scheduleReplay();
+            return Tasks.forResult(null);
           }
-          throw new IllegalStateException();
+          TodoList.this._writeFailures.increment();
+          TodoList.this._mutationLog.acknowledge(entry);
+          TodoList.this._rollback(mutation, cause);
+          throw cause;
         }
 
-        TodoList.this.refresh();
+        TodoList.this._mutationLog.acknowledge(entry);
+        TodoList.this._state.acknowledge(mutation);
+        TodoList.this._syncAcknowledged();
 
         return Tasks.forResult(null);
       }
     });
   }
 
+  /**
+   * Makes acknowledged writes show up in the server's version of the list: by refreshing it, or,
+   * when subscribed, by dropping the writes whose change events have already arrived. The others
+   * are dropped as their events arrive.
+   */
+  private void _syncAcknowledged() {
+    if (_subscription == null) {
+      refresh();
+      return;
+    }
+    final TodoListState.Rebuild rebuild = _state.dropReflectedMutations();
+    if (rebuild != null) {
+      _publish(rebuild);
+    }
+  }
+
+  /**
+   * Applies a mutation to the cached list, or, in paged mode, to the pagers' windows instead:
+   * paged refreshes never merge a server version into the cached list, so a mutation applied to
+   * it would never be dropped. Cached views get it either way.
+   */
+  private void _applyMutation(final Mutation mutation) {
+    if (_pagers.isEmpty()) {
+      _state.applyMutation(mutation);
+    }
+    for (final TodoItemPager pager : _pagers) {
+      pager.apply(mutation);
+    }
+    for (final TodoListView view : _views.snapshot().values()) {
+      view.apply(mutation);
+    }
+  }
+
+  /**
+   * Whether an operation failed because the server could not be reached, rather than because the
+   * server rejected it. Such an operation may or may not have been applied.
+   */
+  static boolean isTransportError(final Exception e) {
+    return e instanceof StitchRequestException
+            && ((StitchRequestException) e).getErrorCode()
+                    == StitchRequestErrorCode.TRANSPORT_ERROR;
+  }
+
+  /**
+   * Queues the logged writes of the logged in user that the server has not applied, e.g. those
+   * made offline before the app was restarted, and applies them to the cached list.
+   */
+  private void _restoreOfflineWrites() {
+    final String ownerId = currentOwnerId();
+    if (ownerId == null || ownerId.equals(_offlineWritesOwner)) {
+      return;
+    }
+    _offlineWritesOwner = ownerId;
+
+    for (final MutationLog.Entry entry : _mutationLog.pending()) {
+      if (!ownerId.equals(entry.ownerId) || _offlineWrites.containsKey(entry.sequence)) {
+        continue;
+      }
+      final Mutation mutation = entry.toMutation();
+      _applyMutation(mutation);
+      _offlineWrites.put(entry.sequence, new OfflineWrite(entry, mutation));
+    }
+  }
+
+  /**
+   * Sends the queued offline writes one at a time, in the order they were made. Each one is
+   * idempotent, since it may have reached the server before the connection failed. Replaying
+   * stops at the first write that cannot reach the server, and is retried after a backoff, when a
+   * network becomes available or when a user logs in.
+   */
+  private void _replayOfflineWrites() {
+    if (_replayingOfflineWrite || _offlineWrites.isEmpty() || !isLoggedIn()) {
+      return;
+    }
+    _replayingOfflineWrite = true;
+
+    final OfflineWrite write = _offlineWrites.firstEntry().getValue();
+    _writeRetries.increment();
+    _replay(write.entry).addOnCompleteListener(new OnCompleteListener<Void>() {
+      @Override
+      public void onComplete(@NonNull Task<Void> task) {
+        TodoList.this._replayingOfflineWrite = false;
+        final Exception cause = task.isSuccessful() ? null
+                : task.getException() != null ? task.getException() : new IllegalStateException();
+        if (cause != null && isTransportError(cause)) {
+          TodoList.this._scheduleReplay();
+          return;
+        }
+        TodoList.this._replayFailures = 0;
+
+        TodoList.this._mutationLog.acknowledge(write.entry);
+        if (TodoList.this._offlineWrites.get(write.entry.sequence) != write) {
+          // Logged out while the write was in flight. Another user's writes may be queued now.
+          TodoList.this._replayOfflineWrites();
+          return;
+        }
+        TodoList.this._offlineWrites.remove(write.entry.sequence);
+        if (cause != null) {
+          TodoList.this._writeFailures.increment();
+          TodoList.this._rollback(write.mutation, cause);
+        } else {
+          TodoList.this._state.acknowledge(write.mutation);
+        }
+
+        if (TodoList.this._offlineWrites.isEmpty()) {
+          TodoList.this._syncAcknowledged();
+        } else {
+          TodoList.this._replayOfflineWrites();
+        }
+      }
+    });
+  }
+
+  /**
+   * Replays the queued offline writes again after a backoff that grows with every replay that
+   * failed to reach the server in a row, unless the policy does not retry.
+   */
+  private void _scheduleReplay() {
+    if (_replayScheduled) {
+      return;
+    }
+    final long delay = _collection.retryDelayMillis(++_replayFailures);
+    if (delay < 0) {
+      return;
+    }
+    _replayScheduled = true;
+    _mainHandler.postDelayed(_replayRunnable, delay);
+  }
+
+  /**
+   * Sends a logged write in a form that can be applied more than once: inserts become upserts
+   * keyed by the item's _id, updates set absolute values and clears tombstone the items they
+   * cleared, by _id.
+   */
+  private Task<Void> _replay(final MutationLog.Entry entry) {
+    switch (entry.type) {
+      case ADD_ITEM:
+        return _writeQueue.upsertAfterFlush(entry.item);
+      case SET_CHECKED:
+        return _writeQueue.updateOneAfterFlush(
+                new Document(TodoItem.ID_KEY, entry.itemId),
+                WriteQueue.checkedUpdate(entry.checked));
+      case SET_TASK:
+        return _writeQueue.updateOneAfterFlush(
+                new Document(TodoItem.ID_KEY, entry.itemId),
+                WriteQueue.taskUpdate(entry.task));
+      default:
+        return _clear(entry);
+    }
+  }
+
+  /**
+   * Drops a failed mutation, rebuilds the cached list from the server's version and the remaining
+   * pending mutations, and tells listeners what was undone.
+   */
+  private void _rollback(final Mutation mutation, final Exception cause) {
+    final TodoListState.Rebuild rebuild = _state.discard(mutation);
+    if (rebuild == null && _pagers.isEmpty()) {
+      // Already discarded, e.g. by a logout.
+      return;
+    }
+    for (final TodoItemPager pager : _pagers) {
+      pager.reload();
+    }
+    // The rolled back change never reached the server, so a delta refresh would not undo it.
+    for (final TodoListView view : _views.snapshot().values()) {
+      view.invalidate();
+      if (view.hasListeners()) {
+        _refreshView(view);
+      }
+    }
+    if (rebuild == null) {
+      // Made in paged mode, so only the pagers and views had it.
+      _state.notifyRolledBack(cause);
+      return;
+    }
+    _publish(rebuild).addOnCompleteListener(new OnCompleteListener<Void>() {
+      @Override
+      public void onComplete(@NonNull Task<Void> task) {
+        TodoList.this._state.notifyRolledBack(cause);
+      }
+    });
+  }
+
   /**
    * onAuthEvent is called any time a notable event regarding authentication happens.
    * Some of these events are:
@@ -188,55 +1128,308 @@ public class TodoList implements StitchAuthListener {
   @Override
   public void onAuthEvent(StitchAuth auth) {
     if (auth.isLoggedIn()) {
-      TodoList.this.refresh();
+      TodoList.this._restoreOfflineWrites();
+      TodoList.this._replayOfflineWrites();
+      if (TodoList.this._changeEventSource != null && TodoList.this._subscription == null) {
+        TodoList.this._startSubscription();
+      } else {
+        TodoList.this.ensureRefreshed();
+      }
     }
   }
 
   /**
    * A listener interface that can be implemented to react to changes made to the task list,
-   * remotely or otherwise. In the future, this listener could be called whenever an update to
-   * the list is recognized via MongoDB Stitch Mobile Sync
+   * remotely or otherwise. While the list is subscribed to a {@link ChangeEventSource}, it is
+   * also called for the changes made on other devices as they arrive.
+   *
+   * Notifications are delivered on the main thread, in the order the changes were made. Each one
+   * carries the version of the list it describes, which may already be older than the one
+   * {@link TodoList#getItems()} returns; listeners that index into the list, such as adapters,
+   * should read from the list they were last given.
    */
   public interface Listener {
     /**
-     * The method to call when the list has been successfully modified. This is not guaranteed
-     * to be called on the main thread.
+     * The method to call when the list may have changed in any way.
+     * @param items the list as it is after the modification.
+     */
+    void onListModified(List<TodoItem> items);
+
+    /**
+     * The method to call when specific items of the list were inserted, removed, moved or
+     * changed.
+     * @param items the list as it is after the changes.
+     * @param changes the ordered changes that lead from the list given in the previous
+     *                notification to items.
+     */
+    void onListChanged(List<TodoItem> items, ChangeSet changes);
+
+    /**
+     * The method to call when a change that was applied to the list optimistically failed on the
+     * server and was undone. The list changes caused by the rollback have already been delivered
+     * via {@link #onListChanged(List, ChangeSet)} or {@link #onListModified(List)}.
+     * @param cause the reason the remote change failed.
      */
-    void onListModified();
+    void onMutationRolledBack(Exception cause);
+  }
+
+  /**
+   * Registers a TodoList.Listener with this TodoList. It is first notified of the current list
+   * through {@link Listener#onListModified(List)}, then of every change made after that. This
+   * may be called from any thread.
+   * @param listener The listener to register with this list.
+   */
+  public void registerListener(final Listener listener) {
+    this._state.registerListener(listener);
   }
 
   /**
-   * Notifies all the registered listeners that something about the list may have changed.
+   * Stops notifying a listener. Notifications already queued for it may still be delivered.
+   * @param listener The listener to unregister.
    */
-  private void _notifyListeners() {
-    for (Listener listener : this._listeners) {
-      listener.onListModified();
+  public void unregisterListener(final Listener listener) {
+    this._state.unregisterListener(listener);
+  }
+
+  /**
+   * Subscribes to changes made to the logged in user's items on the server, polling for them
+   * every {@link #DEFAULT_CHANGE_POLL_INTERVAL_MS}.
+   * @see #subscribe(ChangeEventSource)
+   */
+  public Task<Void> subscribe() {
+    if(!isLoggedIn()) {
+      return Tasks.forException(new IllegalStateException("Must be logged in to subscribe."));
     }
+    return subscribe(new PollingChangeEventSource(_collection, DEFAULT_CHANGE_POLL_INTERVAL_MS));
   }
 
   /**
-   * Registers a TodoList.Listener with this TodoList.
-   * @param listener The listener to register with this list.
+   * Switches to subscription mode: once the list has been refreshed, it is kept up to date by
+   * applying the changes the given source delivers, including those made on other devices, as
+   * incremental patches. Writes are no longer followed by a refresh; their optimistic changes are
+   * kept until the source delivers them. Any previous subscription is cancelled. Must be called
+   * on the main thread.
+   * @param source the stream of changes to apply.
+   * @return a Task that completes once the subscription has started.
    */
-  public void registerListener(final Listener listener) {
-    this._listeners.add(listener);
+  public Task<Void> subscribe(final ChangeEventSource source) {
+    if(!isLoggedIn()) {
+      return Tasks.forException(new IllegalStateException("Must be logged in to subscribe."));
+    }
+    unsubscribe();
+    _changeEventSource = source;
+    return _startSubscription();
+  }
+
+  /**
+   * Leaves subscription mode. The list is refreshed after writes again.
+   */
+  public void unsubscribe() {
+    _changeEventSource = null;
+    _cancelSubscription();
   }
 
   /**
-   * Refreshes the list
+   * Refreshes the list, then subscribes to the changes made since the refresh's watermark. The
+   * refresh gives the subscription a starting point; without a watermark, e.g. in paged mode, the
+   * source starts with every item.
+   */
+  private Task<Void> _startSubscription() {
+    final ChangeEventSource source = _changeEventSource;
+    return ensureRefreshed().continueWith(new Continuation<Void, Void>() {
+      @Override
+      public Void then(@NonNull Task<Void> task) {
+        final String ownerId = currentOwnerId();
+        if (source != TodoList.this._changeEventSource
+                || TodoList.this._subscription != null
+                || ownerId == null) {
+          return null;
+        }
+
+        final Date since = ownerId.equals(_watermarkOwner) ? _watermark : null;
+        TodoList.this._subscription = source.subscribe(
+                ownerId,
+                since,
+                new ChangeEventSource.Listener() {
+                  @Override
+                  public void onChangeEvents(final List<ChangeEvent> events) {
+                    if (ownerId.equals(currentOwnerId())) {
+                      TodoList.this._onChangeEvents(events);
+                    }
+                  }
+                });
+        return null;
+      }
+    });
+  }
+
+  private void _cancelSubscription() {
+    if (_subscription != null) {
+      _subscription.cancel();
+      _subscription = null;
+    }
+  }
+
+  private void _onChangeEvents(final List<ChangeEvent> events) {
+    final TodoListState.Rebuild rebuild = _state.onChangeEvents(events);
+    if (rebuild != null) {
+      _publish(rebuild);
+    }
+  }
+
+  /**
+   * Refreshes the list, guaranteeing that the data fetched reflects every write acknowledged
+   * before this call. If a refresh is already running, a single follow-up refresh is scheduled to
+   * run after it, and every caller requesting a refresh in the meantime shares that follow-up.
    * @return A task that completes when the list is refreshed. Any registered listeners are
    * automatically notified.
    */
   public Task<Void> refresh() {
-    final StitchUser authedUser = _stitchClient.getAuth().getUser();
-    if(!_stitchClient.getAuth().isLoggedIn() || authedUser == null) {
+    if (_inFlightRefresh == null) {
+      return _startRefresh();
+    }
+    if (_followUpRefresh == null) {
+      _followUpRefresh = new TaskCompletionSource<>();
+    }
+    return _followUpRefresh.getTask();
+  }
+
+  /**
+   * Makes sure the list is being refreshed, joining the refresh that is already running if there
+   * is one. Use this instead of {@link #refresh()} when any recent data will do, such as when a
+   * screen is first shown.
+   * @return A task that completes when the list is refreshed.
+   */
+  public Task<Void> ensureRefreshed() {
+    if (_inFlightRefresh != null) {
+      return _inFlightRefresh;
+    }
+    return _startRefresh();
+  }
+
+  private Task<Void> _startRefresh() {
+    final long start = _refreshLatency.start();
+    final Task<Void> refresh = _fetch();
+    _inFlightRefresh = refresh;
+
+    refresh.addOnCompleteListener(new OnCompleteListener<Void>() {
+      @Override
+      public void onComplete(@NonNull Task<Void> task) {
+        TodoList.this._refreshLatency.stop(start);
+        if (!task.isSuccessful()) {
+          TodoList.this._refreshFailures.increment();
+        }
+        if (TodoList.this._inFlightRefresh != refresh) {
+          return;
+        }
+        TodoList.this._inFlightRefresh = null;
+
+        final TaskCompletionSource<Void> followUp = TodoList.this._followUpRefresh;
+        TodoList.this._followUpRefresh = null;
+        if (followUp == null) {
+          return;
+        }
+        TodoList.this._startRefresh().addOnCompleteListener(new OnCompleteListener<Void>() {
+          @Override
+          public void onComplete(@NonNull Task<Void> task) {
+            if (task.isSuccessful()) {
+              followUp.setResult(null);
+            } else {
+              followUp.setException(task.getException() != null
+                      ? task.getException() : new IllegalStateException());
+            }
+          }
+        });
+      }
+    });
+    return refresh;
+  }
+
+  /**
+   * Fetches the list from the server. If a valid watermark exists for the current user, only the
+   * documents modified since the watermark (including tombstones of deleted documents) are fetched
+   * and merged into the cached list. Otherwise the whole list is reloaded. In paged mode, the open
+   * pagers reload their windows instead.
+   */
+  private Task<Void> _fetch() {
+    final String ownerId = currentOwnerId();
+    if(ownerId == null) {
       return Tasks.forException(new IllegalStateException("Must be logged in to refresh list."));
     }
 
-    final List<TodoItem> findResult = new ArrayList<>();
-    return _remoteTodoListCollection.find(
-            new Document(TodoItem.OWNER_KEY, authedUser.getId())
-    ).into(findResult).continueWithTask(new Continuation<List<TodoItem>, Task<Void>>() {
+    for (final TodoListView view : _views.snapshot().values()) {
+      if (view.hasListeners()) {
+        _refreshView(view);
+      }
+    }
+
+    if (!_pagers.isEmpty()) {
+      final List<Task<Void>> reloads = new ArrayList<>(_pagers.size());
+      for (final TodoItemPager pager : _pagers) {
+        reloads.add(pager.reload());
+      }
+      return Tasks.whenAll(reloads);
+    }
+
+    final int refreshNumber = _state.beginRefresh();
+    if (_hasValidWatermark(ownerId)) {
+      return _deltaRefresh(ownerId, _watermark, refreshNumber);
+    }
+    return _fullReload(ownerId, refreshNumber);
+  }
+
+  /**
+   * Refreshes a view on its own. Its listeners only hear of changes, so failures are just logged,
+   * and the view is tried again on the next refresh.
+   */
+  private void _refreshView(final TodoListView view) {
+    view.refresh().addOnCompleteListener(new OnCompleteListener<Void>() {
+      @Override
+      public void onComplete(@NonNull Task<Void> task) {
+        if (!task.isSuccessful()) {
+          Log.w(TAG, "Refreshing view " + view.getQuery() + " failed", task.getException());
+        }
+      }
+    });
+  }
+
+  private boolean _hasValidWatermark(final String ownerId) {
+    return _watermark != null
+            && ownerId.equals(_watermarkOwner)
+            && System.currentTimeMillis() - _watermark.getTime() < TOMBSTONE_RETENTION_MS;
+  }
+
+  /**
+   * Replaces the cached list with every live document owned by the user, and purges tombstones
+   * that are past their retention period.
+   */
+  private Task<Void> _fullReload(final String ownerId, final int refreshNumber) {
+    Task<List<TodoItem>> query = null;
+    if (_collection.delegate() instanceof StitchTodoCollection
+            && !ownerId.equals(_watermarkOwner)
+            && !_state.hasPendingMutations()) {
+      // The first fetch for a user who just logged in may already have been started by the
+      // login. It predates this refresh, so it is only used while no write could be missing.
+      // It bypasses the resilience policy, so if it failed the query is sent again.
+      final Task<List<TodoItem>> initialFetch = InitialFetch.take(ownerId);
+      if (initialFetch != null) {
+        query = initialFetch.continueWithTask(
+                new Continuation<List<TodoItem>, Task<List<TodoItem>>>() {
+                  @Override
+                  public Task<List<TodoItem>> then(@NonNull Task<List<TodoItem>> task) {
+                    if (task.isSuccessful()) {
+                      return task;
+                    }
+                    return _collection.find(
+                            InitialFetch.filter(ownerId), listProjection(), null, 0);
+                  }
+                });
+      }
+    }
+    if (query == null) {
+      query = _collection.find(InitialFetch.filter(ownerId), listProjection(), null, 0);
+    }
+    return query.continueWithTask(new Continuation<List<TodoItem>, Task<Void>>() {
       @Override
       public Task<Void> then(@NonNull Task<List<TodoItem>> task) throws Exception {
         if (!task.isSuccessful()) {
@@ -245,36 +1438,185 @@ public class TodoList implements StitchAuthListener {
           }
           throw new IllegalStateException("Refreshing todo list failed for unknown reason.");
         }
+        final List<TodoItem> findResult = task.getResult();
+        TodoList.this._documentsFetched.add(findResult.size());
 
-        TodoList.this._cachedList.clear();
-        TodoList.this._cachedList.addAll(findResult);
-        TodoList.this._notifyListeners();
+        if (TodoList.this._state.isStale(refreshNumber)) {
+          // Stale: logged out, or a newer refresh was applied, while this one was in flight.
+          return Tasks.forResult(null);
+        }
 
-        return Tasks.forResult(null);
+        TodoList.this._watermarkOwner = ownerId;
+        TodoList.this._watermark = maxLastModified(findResult, null);
+        TodoList.this._purgeTombstones(ownerId);
+
+        return TodoList.this._onServerVersion(findResult, refreshNumber);
       }
     });
   }
 
   /**
-   * "Logs out" this task list by clearing the cached list of tasks, triggering a logout in Stitch,
-   * and notifying the listeners of the
+   * Fetches only the documents modified at or after the watermark and merges them into the cached
+   * list by _id. $gte is used rather than $gt so that writes landing in the same millisecond as
+   * the watermark are not missed; merging is idempotent so re-reading them is harmless.
    */
-  public Task<Void> logout() {
-    this._cachedList.clear();
-    return this._stitchClient.getAuth().logout().continueWith(new Continuation<Void, Void>() {
+  private Task<Void> _deltaRefresh(
+          final String ownerId,
+          final Date watermark,
+          final int refreshNumber) {
+    return _collection.find(
+            new Document(TodoItem.OWNER_KEY, ownerId)
+                    .append(TodoItem.LAST_MODIFIED_KEY, new Document("$gte", watermark)),
+            listProjection(),
+            null,
+            0
+    ).continueWithTask(new Continuation<List<TodoItem>, Task<Void>>() {
       @Override
-      public Void then(@NonNull Task<Void> task) {
-        TodoList.this._notifyListeners();
+      public Task<Void> then(@NonNull Task<List<TodoItem>> task) throws Exception {
+        if (!task.isSuccessful()) {
+          if (task.getException() != null) {
+            throw task.getException();
+          }
+          throw new IllegalStateException("Refreshing todo list failed for unknown reason.");
+        }
+        final List<TodoItem> findResult = task.getResult();
+        TodoList.this._documentsFetched.add(findResult.size());
+
+        // The user may have logged out or changed while the query was in flight.
+        if (!ownerId.equals(TodoList.this._watermarkOwner)) {
+          return Tasks.forResult(null);
+        }
+
+        TodoList.this._watermark = maxLastModified(findResult, TodoList.this._watermark);
+
+        final IndexedTodoItemList merged = TodoList.this._state.copyServerList();
+        merged.merge(findResult);
+        return TodoList.this._onServerVersion(merged, refreshNumber);
+      }
+    });
+  }
+
+  /**
+   * Records a new version of the list as fetched by the given refresh, drops the pending mutations
+   * that version already reflects, and publishes the result of replaying the remaining ones.
+   */
+  private Task<Void> _onServerVersion(final List<TodoItem> serverList, final int refreshNumber) {
+    final TodoListState.Rebuild rebuild = _state.onServerVersion(serverList, refreshNumber);
+    if (rebuild == null) {
+      // A newer refresh was already applied, or the list was logged out of since this started.
+      return Tasks.forResult(null);
+    }
+    _snapshotStore.saveAsync(_watermarkOwner, _watermark, new ArrayList<>(serverList));
+    return _publish(rebuild);
+  }
+
+  /**
+   * Diffs a rebuilt list against the snapshot it replaces and commits it, so listeners are told
+   * exactly what changed. Small lists are diffed inline; large ones are diffed and committed on a
+   * background thread, leaving the main thread free.
+   * @return a Task that completes once the new version is published.
+   */
+  private Task<Void> _publish(final TodoListState.Rebuild rebuild) {
+    if (rebuild.base.size() + rebuild.list.size() < BACKGROUND_DIFF_THRESHOLD) {
+      _state.commit(rebuild, ListDiffer.diff(rebuild.base, rebuild.list));
+      return Tasks.forResult(null);
+    }
+
+    return Tasks.call(_backgroundExecutor, new Callable<Void>() {
+      @Override
+      public Void call() {
+        TodoList.this._state.commit(rebuild, ListDiffer.diff(rebuild.base, rebuild.list));
         return null;
       }
     });
   }
 
   /**
-   * Retrieves the cached list of TodoItem objects that this TodoList holds.
+   * The newest last_modified of the items, or of initial if it is newer.
+   */
+  static Date maxLastModified(final List<TodoItem> items, @Nullable final Date initial) {
+    long max = initial != null ? initial.getTime() : TodoItem.NO_DATE;
+    for (final TodoItem item : items) {
+      max = Math.max(max, item.lastModifiedMillis());
+    }
+    if (initial != null && max == initial.getTime()) {
+      return initial;
+    }
+    return max == TodoItem.NO_DATE ? null : new Date(max);
+  }
+
+  /**
+   * Best-effort removal of tombstones older than the retention period. Failures are ignored since
+   * the next full reload will try again.
+   */
+  private void _purgeTombstones(final String ownerId) {
+    final Date cutoff = new Date(System.currentTimeMillis() - TOMBSTONE_RETENTION_MS);
+    _collection.deleteMany(
+            new Document(TodoItem.OWNER_KEY, ownerId)
+                    .append(TodoItem.DELETED_KEY, true)
+                    .append(TodoItem.LAST_MODIFIED_KEY, new Document("$lt", cutoff)));
+  }
+
+  /**
+   * "Logs out" this task list by clearing the cached list of tasks, triggering a logout in Stitch,
+   * and notifying the listeners of the
+   */
+  public Task<Void> logout() {
+    if (this._stitchClient == null) {
+      return Tasks.forException(new IllegalStateException("Must be logged in to log out."));
+    }
+    if (this._watermarkOwner != null) {
+      this._snapshotStore.deleteAsync(this._watermarkOwner);
+    }
+    this._cancelSubscription();
+    this._state.reset();
+    // Queued offline writes stay in the log, and are replayed when their user logs in again.
+    this._offlineWrites.clear();
+    this._offlineWritesOwner = null;
+    this._detailCache.evictAll();
+    for (final TodoItemPager pager : this._pagers) {
+      pager.clear();
+    }
+    for (final TodoListView view : this._views.snapshot().values()) {
+      view.clear();
+    }
+    this._watermark = null;
+    this._watermarkOwner = null;
+    InitialFetch.clear();
+    return this._stitchClient.getAuth().logout();
+  }
+
+  /**
+   * Searches the tasks of the cached list, e.g. as the user types: finds the items that have, for
+   * every word of the query, a word starting with it. Items with more whole-word matches rank
+   * first, and ties are in the order the items were created.
+   *
+   * The tasks are kept in an index that is updated with every change, so a search does not scan
+   * the list. It reflects the list as of the last notification to listeners, so results match the
+   * list a listener has been told about. In paged mode nothing is cached, so nothing is found.
+   * Must be called on the main thread.
+   * @return the matching items, or an empty list if the query has no words.
+   */
+  public List<TodoItem> search(final String query) {
+    final long start = _searchLatency.start();
+    final List<TodoItem> results = _searchIndex.search(query);
+    _searchLatency.stop(start);
+    return results;
+  }
+
+  /**
+   * Retrieves the cached list of TodoItem objects that this TodoList holds. The list is an
+   * immutable snapshot that later changes never affect, so it may be read from any thread.
    * @return a list of TodoItem objects
    */
-  public List<TodoItem> getItems() {
-    return _cachedList;
+  public TodoListSnapshot getItems() {
+    return _state.snapshot();
+  }
+
+  /**
+   * Returns how many of the cached items are checked, in constant time.
+   */
+  public int getCheckedItemCount() {
+    return _state.snapshot().getCheckedCount();
   }
 }
@@ -0,0 +1,56 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * An immutable version of the todo list. A new snapshot is published every time the list
+ * changes, so a snapshot can be read from any thread, and kept for as long as needed, without
+ * ever observing a later change.
+ *
+ * Snapshots share the chunks the list keeps its items in, so publishing one after a change copies
+ * only the table of chunks rather than every item. Reading a position is O(log n).
+ */
+public final class TodoListSnapshot extends AbstractList<TodoItem> implements RandomAccess {
+  static final TodoListSnapshot EMPTY = new TodoListSnapshot(new TodoItemChunks(), 0, 0);
+
+  private final TodoItemChunks _items;
+  private final int _checkedCount;
+  private final long _version;
+
+  private TodoListSnapshot(
+          final TodoItemChunks items,
+          final int checkedCount,
+          final long version) {
+    this._items = items;
+    this._checkedCount = checkedCount;
+    this._version = version;
+  }
+
+  static TodoListSnapshot of(final IndexedTodoItemList list, final long version) {
+    return new TodoListSnapshot(list.snapshotOrder(), list.checkedCount(), version);
+  }
+
+  @Override
+  public TodoItem get(final int position) {
+    return _items.get(position);
+  }
+
+  @Override
+  public int size() {
+    return _items.size();
+  }
+
+  public int getCheckedCount() {
+    return _checkedCount;
+  }
+
+  /**
+   * The version of the list this snapshot was taken of. Later snapshots have higher versions.
+   */
+  public long getVersion() {
+    return _version;
+  }
+}
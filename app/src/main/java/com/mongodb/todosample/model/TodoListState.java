@@ -0,0 +1,415 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The in-memory state of a TodoList: the server's version of the list, the optimistic mutations
+ * pending over it, and the resulting list that is shown. Every method is safe to call from any
+ * thread.
+ *
+ * Writers hold a lock while they change the state. Every change publishes a new immutable
+ * {@link TodoListSnapshot}, which readers get without locking. Listener notifications are queued,
+ * in the order the changes were made, onto a serial dispatch executor, and each carries the
+ * snapshot it describes, so a listener always sees changes in order and against the right list.
+ */
+class TodoListState {
+  private final Object _lock = new Object();
+  private final Executor _dispatchExecutor;
+  private final AtomicReference<TodoListSnapshot> _snapshot =
+          new AtomicReference<>(TodoListSnapshot.EMPTY);
+  private final List<TodoList.Listener> _listeners = new CopyOnWriteArrayList<>();
+
+  // Guarded by _lock. _cachedList is always _serverList with _pendingMutations replayed over it,
+  // in order. _refreshCount is the number of refreshes started so far; results of refreshes
+  // numbered at or below _lastAppliedRefresh are stale. _version is incremented on every change
+  // to _cachedList, so a list rebuilt against an older version can be detected and discarded.
+  private IndexedTodoItemList _cachedList = new IndexedTodoItemList();
+  private IndexedTodoItemList _serverList = new IndexedTodoItemList();
+  private final List<Mutation> _pendingMutations = new ArrayList<>();
+  private int _refreshCount;
+  private int _lastAppliedRefresh;
+  private long _version;
+
+  /**
+   * A new version of the list, built from the server's version and the pending mutations, waiting
+   * to be diffed against the snapshot it replaces and committed.
+   */
+  static class Rebuild {
+    final IndexedTodoItemList list;
+    final TodoListSnapshot base;
+    private final long _baseVersion;
+
+    private Rebuild(
+            final IndexedTodoItemList list,
+            final TodoListSnapshot base,
+            final long baseVersion) {
+      this.list = list;
+      this.base = base;
+      this._baseVersion = baseVersion;
+    }
+  }
+
+  /**
+   * @param dispatchExecutor a serial executor that listeners are notified on.
+   */
+  TodoListState(final Executor dispatchExecutor) {
+    this._dispatchExecutor = dispatchExecutor;
+  }
+
+  /**
+   * Returns the current version of the list, without locking.
+   */
+  TodoListSnapshot snapshot() {
+    return _snapshot.get();
+  }
+
+  /**
+   * Registers a listener. Its first notification is an onListModified with the current snapshot,
+   * after which it receives every change made from then on.
+   */
+  void registerListener(final TodoList.Listener listener) {
+    synchronized (_lock) {
+      _listeners.add(listener);
+      final TodoListSnapshot snapshot = _snapshot.get();
+      _dispatchExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          listener.onListModified(snapshot);
+        }
+      });
+    }
+  }
+
+  void unregisterListener(final TodoList.Listener listener) {
+    _listeners.remove(listener);
+  }
+
+  /**
+   * Sets both the server's version and the shown list, e.g. from a snapshot stored on the device.
+   */
+  void restore(final List<TodoItem> items) {
+    synchronized (_lock) {
+      _serverList = new IndexedTodoItemList(items);
+      _cachedList = new IndexedTodoItemList(items);
+      _publishModified();
+    }
+  }
+
+  @Nullable
+  TodoItem getItem(final ObjectId itemId) {
+    synchronized (_lock) {
+      return _cachedList.getById(itemId);
+    }
+  }
+
+  @Nullable
+  TodoItem getServerItem(final ObjectId itemId) {
+    synchronized (_lock) {
+      return _serverList.getById(itemId);
+    }
+  }
+
+  IndexedTodoItemList copyServerList() {
+    synchronized (_lock) {
+      return new IndexedTodoItemList(_serverList);
+    }
+  }
+
+  /**
+   * Whether any mutation is pending, acknowledged or not.
+   */
+  boolean hasPendingMutations() {
+    synchronized (_lock) {
+      return !_pendingMutations.isEmpty();
+    }
+  }
+
+  /**
+   * Applies a mutation optimistically and keeps it pending until a refresh reflects it.
+   * Mutations patch the indexed list in place, and the snapshot published for one shares the
+   * list's chunks, so neither applying nor publishing a mutation copies or diffs the whole list:
+   * at 100k items each touches a few hundred references (see {@link TodoItemChunks}).
+   */
+  void applyMutation(final Mutation mutation) {
+    synchronized (_lock) {
+      _pendingMutations.add(mutation);
+      final ChangeSet.Builder changes = new ChangeSet.Builder();
+      mutation.apply(_cachedList, changes);
+      _version++;
+      final ChangeSet changeSet = changes.build();
+      if (!changeSet.isEmpty()) {
+        _publishChanged(changeSet);
+      }
+    }
+  }
+
+  /**
+   * Records that the server accepted a mutation; any refresh started from now on reflects it.
+   */
+  void acknowledge(final Mutation mutation) {
+    synchronized (_lock) {
+      mutation.acknowledge(_refreshCount);
+    }
+  }
+
+  /**
+   * Drops a mutation that failed on the server.
+   * @return the list without the mutation, or null if the mutation was no longer pending, e.g.
+   * because the list was reset.
+   */
+  @Nullable
+  Rebuild discard(final Mutation mutation) {
+    synchronized (_lock) {
+      if (!_pendingMutations.remove(mutation)) {
+        return null;
+      }
+      return _rebuild();
+    }
+  }
+
+  /**
+   * Starts a refresh.
+   * @return the number of the refresh, to pass to {@link #onServerVersion(List, int)}.
+   */
+  int beginRefresh() {
+    synchronized (_lock) {
+      return ++_refreshCount;
+    }
+  }
+
+  /**
+   * Whether the result of a refresh would be discarded, because a newer one was applied or the
+   * list was reset since it started.
+   */
+  boolean isStale(final int refreshNumber) {
+    synchronized (_lock) {
+      return refreshNumber <= _lastAppliedRefresh;
+    }
+  }
+
+  /**
+   * Records a new server version of the list fetched by the given refresh and drops the pending
+   * mutations it already reflects.
+   * @return the list with the remaining mutations replayed, or null if the refresh is stale.
+   */
+  @Nullable
+  Rebuild onServerVersion(final List<TodoItem> serverList, final int refreshNumber) {
+    synchronized (_lock) {
+      if (refreshNumber <= _lastAppliedRefresh) {
+        return null;
+      }
+      _lastAppliedRefresh = refreshNumber;
+      _serverList = new IndexedTodoItemList(serverList);
+
+      for (int i = _pendingMutations.size() - 1; i >= 0; i--) {
+        if (_pendingMutations.get(i).isReflectedIn(refreshNumber)) {
+          _pendingMutations.remove(i);
+        }
+      }
+      return _rebuild();
+    }
+  }
+
+  /**
+   * Applies a batch of change events from the server to the server's version of the list, and
+   * drops the acknowledged mutations it now reflects. Refreshes in flight are made stale, since
+   * the events may be newer than what they return.
+   *
+   * While no mutations are pending, the shown list is the server's version, so the events are
+   * applied to it as an incremental patch and published right away. Otherwise the list has to be
+   * rebuilt with the remaining mutations replayed.
+   * @return the list to publish, or null if the changes were already published.
+   */
+  @Nullable
+  Rebuild onChangeEvents(final List<ChangeEvent> events) {
+    synchronized (_lock) {
+      _lastAppliedRefresh = _refreshCount;
+      final boolean hadPendingMutations = !_pendingMutations.isEmpty();
+      for (final ChangeEvent event : events) {
+        _patch(_serverList, event, null);
+      }
+      _dropReflectedMutations();
+      if (hadPendingMutations) {
+        return _rebuild();
+      }
+
+      final ChangeSet.Builder changes = new ChangeSet.Builder();
+      for (final ChangeEvent event : events) {
+        _patch(_cachedList, event, changes);
+      }
+      _version++;
+      final ChangeSet changeSet = changes.build();
+      if (changeSet.isEmpty()) {
+        _snapshot.set(TodoListSnapshot.of(_cachedList, _version));
+      } else {
+        _publishChanged(changeSet);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Drops the acknowledged mutations that the server's version of the list already reflects,
+   * e.g. when change events for a write arrived before the write was acknowledged.
+   * @return the list without them, or null if none were dropped.
+   */
+  @Nullable
+  Rebuild dropReflectedMutations() {
+    synchronized (_lock) {
+      return _dropReflectedMutations() ? _rebuild() : null;
+    }
+  }
+
+  /**
+   * Drops reflected mutations from the front of the pending ones only: a later mutation may be
+   * reflected while an earlier one that overwrites the same field is not, and dropping the later
+   * one would let the earlier one win.
+   */
+  private boolean _dropReflectedMutations() {
+    int reflected = 0;
+    while (reflected < _pendingMutations.size()) {
+      final Mutation mutation = _pendingMutations.get(reflected);
+      if (!mutation.isAcknowledged() || !mutation.isReflectedIn(_serverList)) {
+        break;
+      }
+      reflected++;
+    }
+    _pendingMutations.subList(0, reflected).clear();
+    return reflected > 0;
+  }
+
+  private static void _patch(
+          final IndexedTodoItemList list,
+          final ChangeEvent event,
+          @Nullable final ChangeSet.Builder changes) {
+    final int position = list.positionOf(event.getDocumentKey());
+    if (event.removesItem()) {
+      if (position != -1) {
+        list.remove(position);
+        if (changes != null) {
+          changes.removed(position, 1);
+        }
+      }
+    } else if (position != -1) {
+      final TodoItem previous = list.set(position, event.getFullDocument());
+      final int payload = ListDiffer.payloadOf(previous, event.getFullDocument());
+      if (changes != null && payload != 0) {
+        changes.changed(position, 1, payload);
+      }
+    } else {
+      list.add(event.getFullDocument());
+      if (changes != null) {
+        changes.inserted(list.size() - 1, 1);
+      }
+    }
+  }
+
+  /**
+   * Publishes a rebuilt list along with the changes from the snapshot it was built against. If
+   * the list changed in the meantime, neither the rebuilt list nor the changes are current, so
+   * the list is rebuilt again from the latest state and published as a whole.
+   */
+  void commit(final Rebuild rebuild, final ChangeSet changes) {
+    synchronized (_lock) {
+      if (rebuild._baseVersion != _version) {
+        _cachedList = _replayPending();
+        _version++;
+        _publishModified();
+        return;
+      }
+
+      // Items may differ in fields that are not rendered, so swap even when there are no changes.
+      _cachedList = rebuild.list;
+      _version++;
+      if (changes.isEmpty()) {
+        _snapshot.set(TodoListSnapshot.of(_cachedList, _version));
+      } else {
+        _publishChanged(changes);
+      }
+    }
+  }
+
+  /**
+   * Empties the list and discards pending mutations and in-flight refreshes, e.g. on logout.
+   */
+  void reset() {
+    synchronized (_lock) {
+      _cachedList = new IndexedTodoItemList();
+      _serverList = new IndexedTodoItemList();
+      _pendingMutations.clear();
+      _lastAppliedRefresh = _refreshCount;
+      _version++;
+      _publishModified();
+    }
+  }
+
+  /**
+   * Notifies listeners that a mutation was rolled back, after every change queued before it.
+   */
+  void notifyRolledBack(final Exception cause) {
+    synchronized (_lock) {
+      final List<TodoList.Listener> listeners = new ArrayList<>(_listeners);
+      _dispatchExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          for (final TodoList.Listener listener : listeners) {
+            listener.onMutationRolledBack(cause);
+          }
+        }
+      });
+    }
+  }
+
+  private Rebuild _rebuild() {
+    return new Rebuild(_replayPending(), _snapshot.get(), _version);
+  }
+
+  private IndexedTodoItemList _replayPending() {
+    final IndexedTodoItemList list = new IndexedTodoItemList(_serverList);
+    for (final Mutation mutation : _pendingMutations) {
+      mutation.apply(list, null);
+    }
+    return list;
+  }
+
+  // The listeners are captured when a notification is queued, so a listener registered later
+  // never receives a change to a list it has not seen.
+
+  private void _publishModified() {
+    final TodoListSnapshot snapshot = TodoListSnapshot.of(_cachedList, _version);
+    _snapshot.set(snapshot);
+    final List<TodoList.Listener> listeners = new ArrayList<>(_listeners);
+    _dispatchExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        for (final TodoList.Listener listener : listeners) {
+          listener.onListModified(snapshot);
+        }
+      }
+    });
+  }
+
+  private void _publishChanged(final ChangeSet changes) {
+    final TodoListSnapshot snapshot = TodoListSnapshot.of(_cachedList, _version);
+    _snapshot.set(snapshot);
+    final List<TodoList.Listener> listeners = new ArrayList<>(_listeners);
+    _dispatchExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        for (final TodoList.Listener listener : listeners) {
+          listener.onListChanged(snapshot, changes);
+        }
+      }
+    });
+  }
+}
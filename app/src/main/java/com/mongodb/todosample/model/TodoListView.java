@@ -0,0 +1,279 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.mongodb.todosample.metrics.HitRatio;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The items of the logged in user's todo list selected and ordered by a {@link TodoQuery}, fetched
+ * with the query's filter, sort and limit so that the server only sends the items shown.
+ *
+ * Views are cached by their TodoList, and keep their items between uses. Refreshing a view that
+ * has been fetched before only asks for the documents modified since (the newest last_modified it
+ * has seen), and merges them in; only a view that may be missing items, such as a full view that
+ * lost items or one that skips items, is fetched again as a whole.
+ *
+ * Listeners are told about every change through
+ * {@link TodoList.Listener#onListChanged(List, ChangeSet)}, synchronously. All methods must be
+ * called on the main thread.
+ */
+public class TodoListView {
+  private final TodoList _todoList;
+  private final TodoQuery _query;
+  private final Comparator<TodoItem> _comparator;
+  private final HitRatio _cacheHitRatio;
+
+  private List<TodoItem> _items = Collections.emptyList();
+  private final List<TodoList.Listener> _listeners = new ArrayList<>();
+
+  // The owner the items were fetched for, and the newest last_modified among the documents the
+  // server sent, or null if the next refresh must fetch the whole view.
+  @Nullable
+  private String _ownerId;
+  @Nullable
+  private Date _watermark;
+  // Whether the server had more items than the limit, so items after the last one are unknown.
+  private boolean _full;
+
+  // Incremented on every fetch so that answers to previous ones are discarded.
+  private int _generation;
+
+  TodoListView(final TodoList todoList, final TodoQuery query, final HitRatio cacheHitRatio) {
+    this._todoList = todoList;
+    this._query = query;
+    this._comparator = query.comparator();
+    this._cacheHitRatio = cacheHitRatio;
+  }
+
+  public TodoQuery getQuery() {
+    return _query;
+  }
+
+  /**
+   * The items of the view, as of the last notification. The list is not modified afterwards.
+   */
+  public List<TodoItem> getItems() {
+    return _items;
+  }
+
+  public void registerListener(final TodoList.Listener listener) {
+    _listeners.add(listener);
+  }
+
+  public void unregisterListener(final TodoList.Listener listener) {
+    _listeners.remove(listener);
+  }
+
+  boolean hasListeners() {
+    return !_listeners.isEmpty();
+  }
+
+  /**
+   * Brings the view up to date with the server, fetching only what changed if it can.
+   */
+  Task<Void> refresh() {
+    final String ownerId = _todoList.currentOwnerId();
+    if (ownerId == null) {
+      return Tasks.forException(new IllegalStateException("Must be logged in to load items."));
+    }
+    if (_watermark == null
+            || !ownerId.equals(_ownerId)
+            || System.currentTimeMillis() - _watermark.getTime()
+                    >= TodoList.TOMBSTONE_RETENTION_MS) {
+      return _reload(ownerId);
+    }
+
+    final int generation = ++_generation;
+    final Date watermark = _watermark;
+    // Every document modified since, so that items that left the view are seen leaving it.
+    final Document filter = new Document(TodoItem.OWNER_KEY, ownerId)
+            .append(TodoItem.LAST_MODIFIED_KEY, new Document("$gte", watermark));
+    return _todoList.collection().find(filter, _projection(), null, 0).continueWithTask(
+            new Continuation<List<TodoItem>, Task<Void>>() {
+              @Override
+              public Task<Void> then(@NonNull Task<List<TodoItem>> task) throws Exception {
+                final List<TodoItem> modified = _resultOf(task);
+                if (generation != _generation) {
+                  return Tasks.forResult(null);
+                }
+                if (modified.isEmpty()) {
+                  _cacheHitRatio.hit();
+                  return Tasks.forResult(null);
+                }
+                final List<TodoItem> merged = _merge(modified);
+                if (merged == null) {
+                  return _reload(ownerId);
+                }
+                _cacheHitRatio.hit();
+                _watermark = TodoList.maxLastModified(modified, _watermark);
+                _show(merged);
+                return Tasks.forResult(null);
+              }
+            });
+  }
+
+  /**
+   * Applies an optimistic mutation made through the TodoList, moving items that it changed into,
+   * out of or within the view.
+   */
+  void apply(final Mutation mutation) {
+    final IndexedTodoItemList items = new IndexedTodoItemList(_items);
+    mutation.apply(items, null);
+    final List<TodoItem> shown = new ArrayList<>(items.size());
+    for (final TodoItem item : items) {
+      if (_query.matches(item)) {
+        shown.add(item);
+      }
+    }
+    Collections.sort(shown, _comparator);
+    _show(_capped(shown));
+  }
+
+  /**
+   * Forgets what the server last sent, so that the next refresh fetches the whole view, e.g. after
+   * a mutation that was applied to it was rolled back.
+   */
+  void invalidate() {
+    _watermark = null;
+  }
+
+  /**
+   * Drops the items entirely, e.g. on logout.
+   */
+  void clear() {
+    _generation++;
+    _ownerId = null;
+    _watermark = null;
+    _full = false;
+    _show(Collections.<TodoItem>emptyList());
+  }
+
+  private Task<Void> _reload(final String ownerId) {
+    _cacheHitRatio.miss();
+    final int generation = ++_generation;
+    // Stitch's find has no skip, so skipped items are fetched and dropped here. Skips are meant to
+    // be small; deep pages are cheaper with a TodoItemPager.
+    final int skip = _query.getSkip();
+    final int limit = _query.getLimit() > 0 ? skip + _query.getLimit() : 0;
+    return _todoList.collection().find(
+            _query.filter(ownerId),
+            _projection(),
+            _query.sort(),
+            limit
+    ).continueWith(new Continuation<List<TodoItem>, Void>() {
+      @Override
+      public Void then(@NonNull Task<List<TodoItem>> task) throws Exception {
+        final List<TodoItem> fetched = _resultOf(task);
+        if (generation != _generation) {
+          return null;
+        }
+        _ownerId = ownerId;
+        _watermark = TodoList.maxLastModified(fetched, null);
+        _full = limit > 0 && fetched.size() == limit;
+        _show(new ArrayList<>(fetched.subList(Math.min(skip, fetched.size()), fetched.size())));
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Merges documents modified since the watermark into the items.
+   * @return the merged items, or null if they cannot be known without fetching the whole view.
+   */
+  @Nullable
+  private List<TodoItem> _merge(final List<TodoItem> modified) {
+    if (_query.getSkip() > 0) {
+      // Any change may have moved items across the start of the view.
+      return null;
+    }
+    final Map<ObjectId, TodoItem> byId = new HashMap<>(modified.size() * 2);
+    for (final TodoItem item : modified) {
+      byId.put(item.getId(), item);
+    }
+    final List<TodoItem> merged = new ArrayList<>(_items.size() + modified.size());
+    for (final TodoItem item : _items) {
+      if (!byId.containsKey(item.getId())) {
+        merged.add(item);
+      }
+    }
+    for (final TodoItem item : modified) {
+      if (_query.matches(item)) {
+        merged.add(item);
+      }
+    }
+    Collections.sort(merged, _comparator);
+
+    if (!_full) {
+      // Every item of the view was known, so the merged items are all of them.
+      return _capped(merged);
+    }
+    // Unmodified items past the end of the view are unknown, and sort after its last item. Merged
+    // items up to it are therefore in place, but ones after it may not be.
+    if (_items.isEmpty()) {
+      return null;
+    }
+    final TodoItem last = _items.get(_items.size() - 1);
+    int known = 0;
+    while (known < merged.size() && _comparator.compare(merged.get(known), last) <= 0) {
+      known++;
+    }
+    if (known < _query.getLimit()) {
+      return null;
+    }
+    return new ArrayList<>(merged.subList(0, _query.getLimit()));
+  }
+
+  private List<TodoItem> _capped(final List<TodoItem> items) {
+    final int limit = _query.getLimit();
+    if (limit == 0 || items.size() <= limit) {
+      return items;
+    }
+    _full = true;
+    return new ArrayList<>(items.subList(0, limit));
+  }
+
+  private void _show(final List<TodoItem> items) {
+    final List<TodoItem> shown = Collections.unmodifiableList(items);
+    final ChangeSet changes = ListDiffer.diff(_items, shown);
+    _items = shown;
+    if (changes.isEmpty()) {
+      return;
+    }
+    for (final TodoList.Listener listener : _listeners) {
+      listener.onListChanged(_items, changes);
+    }
+  }
+
+  /**
+   * What list rows render, plus the done date that views may be sorted by.
+   */
+  private static Document _projection() {
+    return TodoList.listProjection().append(TodoItem.DONE_DATE_KEY, 1);
+  }
+
+  private static List<TodoItem> _resultOf(final Task<List<TodoItem>> task) throws Exception {
+    if (!task.isSuccessful()) {
+      if (task.getException() != null) {
+        throw task.getException();
+      }
+      throw new IllegalStateException("Loading todo items failed for unknown reason.");
+    }
+    return task.getResult();
+  }
+}
@@ -0,0 +1,236 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.NonNull;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Which of the logged in user's items a {@link TodoListView} shows, and in what order. The filter,
+ * sort and limit are part of the query sent to the server, so a view only downloads the items it
+ * shows.
+ *
+ * The server answers these queries from an index only if the collection has one matching them:
+ * the owner and checked state first, since they are matched exactly, then the sort keys. See
+ * {@link #INDEXES} for the indexes to create on the collection.
+ *
+ * Queries are immutable; the with methods return a modified copy.
+ */
+public final class TodoQuery {
+  public enum Status {
+    ALL,
+    OPEN,
+    CHECKED
+  }
+
+  public enum SortKey {
+    // Creation order, since _ids are ObjectIds.
+    ID,
+    // Items without a done date, such as open ones, sort before every other item.
+    DONE_DATE
+  }
+
+  /**
+   * Every item, in the order they were created.
+   */
+  public static final TodoQuery ALL = new TodoQuery(Status.ALL, SortKey.ID, true, 0, 0);
+
+  /**
+   * The items that are not checked yet, in the order they were created.
+   */
+  public static final TodoQuery OPEN = ALL.withStatus(Status.OPEN);
+
+  /**
+   * The checked items, the most recently checked first.
+   */
+  public static final TodoQuery RECENTLY_CHECKED =
+          ALL.withStatus(Status.CHECKED).sortedBy(SortKey.DONE_DATE, false);
+
+  /**
+   * The keys of the indexes that serve every query, to be created on the todo collection by
+   * whoever administers it; the app cannot create indexes through Stitch. An index can be walked
+   * in either direction, so each serves both sort directions. Items tombstoned as deleted are
+   * filtered out while walking the index, which is cheap as long as few are kept.
+   */
+  public static final List<Document> INDEXES = Collections.unmodifiableList(Arrays.asList(
+          // Open or checked items, in creation order.
+          new Document(TodoItem.OWNER_KEY, 1)
+                  .append(TodoItem.CHECKED_KEY, 1)
+                  .append(TodoItem.ID_KEY, 1),
+          // Open or checked items, by done date.
+          new Document(TodoItem.OWNER_KEY, 1)
+                  .append(TodoItem.CHECKED_KEY, 1)
+                  .append(TodoItem.DONE_DATE_KEY, -1)
+                  .append(TodoItem.ID_KEY, -1),
+          // All items, by done date. All items in creation order use the owner and _id index that
+          // paging already needs.
+          new Document(TodoItem.OWNER_KEY, 1)
+                  .append(TodoItem.DONE_DATE_KEY, -1)
+                  .append(TodoItem.ID_KEY, -1),
+          new Document(TodoItem.OWNER_KEY, 1)
+                  .append(TodoItem.ID_KEY, 1)));
+
+  private final Status _status;
+  private final SortKey _sortKey;
+  private final boolean _ascending;
+  private final int _skip;
+  private final int _limit;
+
+  private TodoQuery(
+          final Status status,
+          final SortKey sortKey,
+          final boolean ascending,
+          final int skip,
+          final int limit) {
+    this._status = status;
+    this._sortKey = sortKey;
+    this._ascending = ascending;
+    this._skip = skip;
+    this._limit = limit;
+  }
+
+  public TodoQuery withStatus(@NonNull final Status status) {
+    return new TodoQuery(status, _sortKey, _ascending, _skip, _limit);
+  }
+
+  /**
+   * Orders items by the given key. Items with the same value, such as open items by done date, are
+   * ordered by _id in the same direction.
+   */
+  public TodoQuery sortedBy(@NonNull final SortKey sortKey, final boolean ascending) {
+    return new TodoQuery(_status, sortKey, ascending, _skip, _limit);
+  }
+
+  /**
+   * Leaves out the given number of items from the start of the view.
+   */
+  public TodoQuery withSkip(final int skip) {
+    if (skip < 0) {
+      throw new IllegalArgumentException("skip must not be negative");
+    }
+    return new TodoQuery(_status, _sortKey, _ascending, skip, _limit);
+  }
+
+  /**
+   * Shows at most the given number of items.
+   * @param limit the number of items, or 0 for no limit.
+   */
+  public TodoQuery withLimit(final int limit) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit must not be negative");
+    }
+    return new TodoQuery(_status, _sortKey, _ascending, _skip, limit);
+  }
+
+  public Status getStatus() {
+    return _status;
+  }
+
+  public SortKey getSortKey() {
+    return _sortKey;
+  }
+
+  public boolean isAscending() {
+    return _ascending;
+  }
+
+  public int getSkip() {
+    return _skip;
+  }
+
+  public int getLimit() {
+    return _limit;
+  }
+
+  /**
+   * The find filter selecting the items of this query owned by the given user.
+   */
+  Document filter(final String ownerId) {
+    final Document filter = new Document(TodoItem.OWNER_KEY, ownerId);
+    if (_status != Status.ALL) {
+      filter.append(TodoItem.CHECKED_KEY, _status == Status.CHECKED);
+    }
+    return filter.append(TodoItem.DELETED_KEY, new Document("$ne", true));
+  }
+
+  /**
+   * The find sort, with _id breaking ties so that the order is the same on every fetch.
+   */
+  Document sort() {
+    final int direction = _ascending ? 1 : -1;
+    final Document sort = new Document();
+    if (_sortKey == SortKey.DONE_DATE) {
+      sort.append(TodoItem.DONE_DATE_KEY, direction);
+    }
+    return sort.append(TodoItem.ID_KEY, direction);
+  }
+
+  /**
+   * Whether an item belongs to this query, as {@link #filter(String)} would select it for its
+   * owner.
+   */
+  boolean matches(final TodoItem item) {
+    if (item.getDeleted()) {
+      return false;
+    }
+    return _status == Status.ALL || item.getChecked() == (_status == Status.CHECKED);
+  }
+
+  /**
+   * Orders items as {@link #sort()} has the server order them.
+   */
+  Comparator<TodoItem> comparator() {
+    return new Comparator<TodoItem>() {
+      @Override
+      public int compare(final TodoItem a, final TodoItem b) {
+        int order = 0;
+        if (_sortKey == SortKey.DONE_DATE) {
+          // NO_DATE is the smallest long, so items without a done date sort first, as on the
+          // server.
+          order = Long.compare(a.doneDateMillis(), b.doneDateMillis());
+        }
+        if (order == 0) {
+          order = a.getId().compareTo(b.getId());
+        }
+        return _ascending ? order : -order;
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof TodoQuery)) {
+      return false;
+    }
+    final TodoQuery other = (TodoQuery) o;
+    return _status == other._status
+            && _sortKey == other._sortKey
+            && _ascending == other._ascending
+            && _skip == other._skip
+            && _limit == other._limit;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = _status.hashCode();
+    hash = 31 * hash + _sortKey.hashCode();
+    hash = 31 * hash + (_ascending ? 1 : 0);
+    hash = 31 * hash + _skip;
+    return 31 * hash + _limit;
+  }
+
+  @Override
+  public String toString() {
+    return "TodoQuery{" + _status + " by " + _sortKey + (_ascending ? " ascending" : " descending")
+            + ", skip " + _skip + ", limit " + _limit + "}";
+  }
+}
@@ -0,0 +1,405 @@
+package com.mongodb.todosample.model;
+
+import android.support.annotation.Nullable;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An inverted index of the words in the tasks of the todo list, for searching it as the user
+ * types. Words are runs of letters and digits, compared case-insensitively, and are kept sorted so
+ * that every word starting with a prefix is found with a range lookup.
+ *
+ * The index follows the list through the same notifications as its listeners: a ChangeSet is
+ * replayed on a mirror of the list to find the items removed, and only the positions it inserted
+ * or changed are read from the new list; of those, only items whose task changed are tokenized
+ * again. The index therefore reflects the list as of the last notification it was given. Fields
+ * that are not rendered, such as done_date, may change without a CHANGED change, so the items
+ * search returns may hold older values of those.
+ *
+ * Not thread safe. TodoList only uses it on the main thread.
+ */
+final class TodoSearchIndex {
+  // A query word scores this much for an item with that exact word, and less for an item with a
+  // longer word starting with it.
+  private static final int WORD_SCORE = 2;
+  private static final int PREFIX_SCORE = 1;
+
+  private static class Entry {
+    TodoItem item;
+    final String[] words;
+
+    Entry(final TodoItem item, final String[] words) {
+      this.item = item;
+      this.words = words;
+    }
+  }
+
+  private static class Match implements Comparable<Match> {
+    final TodoItem item;
+    final int score;
+
+    Match(final TodoItem item, final int score) {
+      this.item = item;
+      this.score = score;
+    }
+
+    @Override
+    public int compareTo(final Match other) {
+      if (score != other.score) {
+        return score > other.score ? -1 : 1;
+      }
+      return item.getId().compareTo(other.item.getId());
+    }
+  }
+
+  /**
+   * Positions whose items must be read from the new list, as sorted, disjoint, half-open ranges
+   * of positions in the list as replayed so far. Changes are mostly made from the back of the
+   * list forward or from the front back, so ranges are walked from the last one and the walk
+   * stops at the first range a change cannot affect.
+   */
+  private static final class DirtyRanges {
+    final List<int[]> ranges = new ArrayList<>();
+
+    /**
+     * Shifts the ranges for items inserted at a position, without marking the items.
+     */
+    void inserted(final int position, final int count) {
+      for (int i = ranges.size() - 1; i >= 0; i--) {
+        final int[] range = ranges.get(i);
+        if (range[0] < position) {
+          if (range[1] > position) {
+            range[1] += count;
+          }
+          return;
+        }
+        range[0] += count;
+        range[1] += count;
+      }
+    }
+
+    void removed(final int position, final int count) {
+      for (int i = ranges.size() - 1; i >= 0; i--) {
+        final int[] range = ranges.get(i);
+        if (range[1] <= position) {
+          return;
+        }
+        range[0] = _afterRemoval(range[0], position, count);
+        range[1] = _afterRemoval(range[1], position, count);
+        if (range[0] == range[1]) {
+          ranges.remove(i);
+        }
+      }
+    }
+
+    boolean contains(final int position) {
+      for (int i = ranges.size() - 1; i >= 0; i--) {
+        final int[] range = ranges.get(i);
+        if (range[0] <= position) {
+          return position < range[1];
+        }
+      }
+      return false;
+    }
+
+    void mark(final int position, final int count) {
+      int index = ranges.size();
+      while (index > 0 && ranges.get(index - 1)[0] > position) {
+        index--;
+      }
+      final int[] range = {position, position + count};
+      if (index > 0 && ranges.get(index - 1)[1] >= position) {
+        index--;
+        ranges.get(index)[1] = Math.max(ranges.get(index)[1], range[1]);
+      } else {
+        ranges.add(index, range);
+      }
+      final int[] merged = ranges.get(index);
+      while (index + 1 < ranges.size() && ranges.get(index + 1)[0] <= merged[1]) {
+        merged[1] = Math.max(merged[1], ranges.remove(index + 1)[1]);
+      }
+    }
+
+    private static int _afterRemoval(final int x, final int position, final int count) {
+      return x <= position ? x : Math.max(position, x - count);
+    }
+  }
+
+  // The list as of the last notification, with null for items a change set inserted, until they
+  // are indexed. Kept in chunks, so that replaying a change does not shift the whole list.
+  private final TodoItemChunks _mirror = new TodoItemChunks();
+  private final Map<ObjectId, Entry> _entries = new HashMap<>();
+  // Postings hold the entries themselves, which hash by identity, so matching items are found
+  // without looking their _id up again.
+  private final TreeMap<String, Set<Entry>> _postings = new TreeMap<>();
+
+  /**
+   * Indexes the list anew, e.g. after a notification that it may have changed in any way. Items
+   * whose task is unchanged are not tokenized again.
+   */
+  void reset(final List<TodoItem> items) {
+    final Set<ObjectId> live = new HashSet<>(items.size() * 2);
+    for (final TodoItem item : items) {
+      live.add(item.getId());
+      _index(item);
+    }
+    final Iterator<Map.Entry<ObjectId, Entry>> entries = _entries.entrySet().iterator();
+    while (entries.hasNext()) {
+      final Map.Entry<ObjectId, Entry> entry = entries.next();
+      if (!live.contains(entry.getKey())) {
+        _removePostings(entry.getValue());
+        entries.remove();
+      }
+    }
+    _mirror.reset(items.toArray(new TodoItem[items.size()]));
+  }
+
+  /**
+   * Applies the changes that lead from the list of the previous notification to items. Costs
+   * O(changes * (chunk size + n / chunk size)); change sets touching more items than that saves
+   * are applied with {@link #reset(List)} instead.
+   */
+  void apply(final List<TodoItem> items, final ChangeSet changes) {
+    int touched = 0;
+    for (final ChangeSet.Change change : changes.getChanges()) {
+      touched += change.getType() == ChangeSet.Type.MOVED ? 1 : change.getCount();
+    }
+    if (touched > items.size() / TodoItemChunks.MAX_CHUNK) {
+      reset(items);
+      return;
+    }
+
+    final DirtyRanges dirty = new DirtyRanges();
+    for (final ChangeSet.Change change : changes.getChanges()) {
+      final int position = change.getPosition();
+      switch (change.getType()) {
+        case INSERTED:
+          for (int i = 0; i < change.getCount(); i++) {
+            _mirror.add(position, null);
+          }
+          dirty.inserted(position, change.getCount());
+          dirty.mark(position, change.getCount());
+          break;
+        case REMOVED:
+          for (int i = 0; i < change.getCount(); i++) {
+            _unindex(_mirror.get(position));
+            _mirror.remove(position);
+          }
+          dirty.removed(position, change.getCount());
+          break;
+        case MOVED:
+          final TodoItem moved = _mirror.get(position);
+          final boolean movedDirty = dirty.contains(position);
+          _mirror.remove(position);
+          _mirror.add(change.getToPosition(), moved);
+          dirty.removed(position, 1);
+          dirty.inserted(change.getToPosition(), 1);
+          if (movedDirty) {
+            dirty.mark(change.getToPosition(), 1);
+          }
+          break;
+        case CHANGED:
+          dirty.mark(position, change.getCount());
+          break;
+      }
+    }
+
+    if (_mirror.size() != items.size()) {
+      // Should not happen; recover rather than search a list that is not shown.
+      reset(items);
+      return;
+    }
+    for (final int[] range : dirty.ranges) {
+      for (int i = range[0]; i < range[1]; i++) {
+        final TodoItem item = items.get(i);
+        _index(item);
+        _mirror.set(i, item);
+      }
+    }
+  }
+
+  /**
+   * Finds the items that have, for every word of the query, a word starting with it. Items with
+   * more exact word matches rank first, and ties are in the order the items were created.
+   * @return the matching items, or an empty list if the query has no words.
+   */
+  List<TodoItem> search(final String query) {
+    final String[] words = tokenize(query);
+    if (words.length == 0) {
+      return Collections.emptyList();
+    }
+
+    // Candidates come from the word with the fewest matches, and the other words are checked
+    // against each candidate's own words. This is cheaper than collecting every item matching a
+    // common prefix only to intersect it away.
+    int rarest = 0;
+    int rarestCount = Integer.MAX_VALUE;
+    for (int i = 0; i < words.length; i++) {
+      final int count = _countOf(words[i]);
+      if (count < rarestCount) {
+        rarest = i;
+        rarestCount = count;
+      }
+    }
+    // An item can be seeded by several of its words. The word itself sorts first, so an item
+    // with it as a whole word is seeded by it first.
+    final NavigableMap<String, Set<Entry>> seeds = _postingsStartingWith(words[rarest]);
+    final Set<Entry> seen = seeds.size() > 1 ? new HashSet<Entry>() : null;
+    final List<Match> matches = new ArrayList<>();
+    for (final Map.Entry<String, Set<Entry>> seed : seeds.entrySet()) {
+      final int seedScore = seed.getKey().equals(words[rarest]) ? WORD_SCORE : PREFIX_SCORE;
+      for (final Entry entry : seed.getValue()) {
+        if (seen != null && !seen.add(entry)) {
+          continue;
+        }
+        int score = seedScore;
+        for (int i = 0; i < words.length && score > 0; i++) {
+          if (i != rarest) {
+            final int wordScore = _scoreOf(words[i], entry.words);
+            score = wordScore == 0 ? 0 : score + wordScore;
+          }
+        }
+        if (score > 0) {
+          matches.add(new Match(entry.item, score));
+        }
+      }
+    }
+
+    return _ranked(matches);
+  }
+
+  /**
+   * Searches a list without an index, ranking the results the same way as {@link #search(String)}.
+   * Takes time proportional to the length of the list.
+   */
+  static List<TodoItem> scan(final List<TodoItem> items, final String query) {
+    final String[] words = tokenize(query);
+    if (words.length == 0) {
+      return Collections.emptyList();
+    }
+    final List<Match> matches = new ArrayList<>();
+    for (final TodoItem item : items) {
+      final String[] itemWords = tokenize(item.getTask());
+      int score = 0;
+      for (int i = 0; i < words.length && (i == 0 || score > 0); i++) {
+        final int wordScore = _scoreOf(words[i], itemWords);
+        score = wordScore == 0 ? 0 : score + wordScore;
+      }
+      if (score > 0) {
+        matches.add(new Match(item, score));
+      }
+    }
+    return _ranked(matches);
+  }
+
+  /**
+   * Splits text into its distinct words, lower-cased.
+   */
+  static String[] tokenize(final String text) {
+    final Set<String> words = new LinkedHashSet<>();
+    final String lower = text.toLowerCase(Locale.ROOT);
+    int start = -1;
+    for (int i = 0; i <= lower.length(); i++) {
+      final boolean inWord = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+      if (inWord && start < 0) {
+        start = i;
+      } else if (!inWord && start >= 0) {
+        words.add(lower.substring(start, i));
+        start = -1;
+      }
+    }
+    return words.toArray(new String[words.size()]);
+  }
+
+  private NavigableMap<String, Set<Entry>> _postingsStartingWith(final String word) {
+    return _postings.subMap(word, true, word + Character.MAX_VALUE, false);
+  }
+
+  /**
+   * The number of items with a word starting with the given one, counting an item once per word.
+   */
+  private int _countOf(final String word) {
+    int count = 0;
+    for (final Set<Entry> entries : _postingsStartingWith(word).values()) {
+      count += entries.size();
+    }
+    return count;
+  }
+
+  private static List<TodoItem> _ranked(final List<Match> matches) {
+    Collections.sort(matches);
+    final List<TodoItem> results = new ArrayList<>(matches.size());
+    for (final Match match : matches) {
+      results.add(match.item);
+    }
+    return Collections.unmodifiableList(results);
+  }
+
+  private static int _scoreOf(final String word, final String[] itemWords) {
+    int score = 0;
+    for (final String itemWord : itemWords) {
+      if (itemWord.equals(word)) {
+        return WORD_SCORE;
+      }
+      if (itemWord.startsWith(word)) {
+        score = PREFIX_SCORE;
+      }
+    }
+    return score;
+  }
+
+  private void _index(final TodoItem item) {
+    final Entry existing = _entries.get(item.getId());
+    if (existing != null) {
+      if (existing.item.getTask().equals(item.getTask())) {
+        existing.item = item;
+        return;
+      }
+      _removePostings(existing);
+    }
+    final Entry entry = new Entry(item, tokenize(item.getTask()));
+    _entries.put(item.getId(), entry);
+    for (final String word : entry.words) {
+      Set<Entry> entries = _postings.get(word);
+      if (entries == null) {
+        entries = new HashSet<>();
+        _postings.put(word, entries);
+      }
+      entries.add(entry);
+    }
+  }
+
+  private void _unindex(@Nullable final TodoItem item) {
+    if (item == null) {
+      return;
+    }
+    final Entry entry = _entries.remove(item.getId());
+    if (entry != null) {
+      _removePostings(entry);
+    }
+  }
+
+  private void _removePostings(final Entry entry) {
+    for (final String word : entry.words) {
+      final Set<Entry> entries = _postings.get(word);
+      if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+        _postings.remove(word);
+      }
+    }
+  }
+}
@@ -0,0 +1,421 @@
+package com.mongodb.todosample.model;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffers writes to the todo collection for a short window and flushes them together, collapsing
+ * redundant ones along the way:
+ * - checking and then unchecking an item (or vice versa) cancels out,
+ * - only the last task text written to an item is sent,
+ * - checks and edits of an item that is still waiting to be inserted are folded into the insert.
+ * Adds become a single insertMany, and check state changes become at most two updateMany calls.
+ * Clears and replayed offline writes act as barriers: pending writes are flushed first, then the
+ * barrier write is sent.
+ * Every caller still gets its own Task, completed when the write covering it completes.
+ *
+ * All methods must be called on the main thread.
+ */
+class WriteQueue {
+  private static final String TAG = WriteQueue.class.getName();
+
+  private final TodoCollection _collection;
+  private final Handler _handler = new Handler(Looper.getMainLooper());
+  private long _windowMillis;
+
+  private final Map<ObjectId, PendingInsert> _inserts = new LinkedHashMap<>();
+  private final Map<ObjectId, PendingCheck> _checks = new LinkedHashMap<>();
+  private final Map<ObjectId, PendingTask> _tasks = new LinkedHashMap<>();
+  private boolean _flushScheduled;
+
+  // Flushes run one after another so that writes reach the server in the order they were made.
+  private Task<Void> _lastFlush = Tasks.forResult(null);
+
+  private final Runnable _flushRunnable = new Runnable() {
+    @Override
+    public void run() {
+      _flushScheduled = false;
+      flush();
+    }
+  };
+
+  WriteQueue(final TodoCollection collection, final long windowMillis) {
+    this._collection = collection;
+    this._windowMillis = windowMillis;
+  }
+
+  void setWindowMillis(final long windowMillis) {
+    this._windowMillis = windowMillis;
+  }
+
+  Task<Void> insert(final TodoItem item) {
+    final PendingInsert insert = new PendingInsert(item);
+    _inserts.put(item.getId(), insert);
+    _scheduleFlush();
+    return insert.completion.getTask();
+  }
+
+  /**
+   * @param wasChecked the checked state of the item before this write, used to detect writes
+   *                   that cancel each other out.
+   */
+  Task<Void> setChecked(final ObjectId itemId, final boolean checked, final boolean wasChecked) {
+    final TaskCompletionSource<Void> completion = new TaskCompletionSource<>();
+
+    final PendingInsert insert = _inserts.get(itemId);
+    if (insert != null) {
+      insert.item = insert.item.withChecked(checked);
+      insert.followers.add(completion);
+      return completion.getTask();
+    }
+
+    PendingCheck check = _checks.get(itemId);
+    if (check == null) {
+      check = new PendingCheck(wasChecked);
+      _checks.put(itemId, check);
+    }
+    check.checked = checked;
+    check.completions.add(completion);
+    _scheduleFlush();
+    return completion.getTask();
+  }
+
+  Task<Void> setTask(final ObjectId itemId, final String task) {
+    final TaskCompletionSource<Void> completion = new TaskCompletionSource<>();
+
+    final PendingInsert insert = _inserts.get(itemId);
+    if (insert != null) {
+      insert.item = insert.item.withTask(task);
+      insert.followers.add(completion);
+      return completion.getTask();
+    }
+
+    PendingTask pendingTask = _tasks.get(itemId);
+    if (pendingTask == null) {
+      pendingTask = new PendingTask();
+      _tasks.put(itemId, pendingTask);
+    }
+    pendingTask.task = task;
+    pendingTask.completions.add(completion);
+    _scheduleFlush();
+    return completion.getTask();
+  }
+
+  /**
+   * Flushes everything buffered so far and then runs updateMany with the given filter and update.
+   */
+  Task<Void> updateManyAfterFlush(final Document filter, final Document update) {
+    flush();
+    return _enqueue(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(@NonNull Task<Void> ignored) {
+        return _collection.updateMany(filter, update);
+      }
+    });
+  }
+
+  /**
+   * Flushes everything buffered so far and then runs updateOne with the given filter and update.
+   */
+  Task<Void> updateOneAfterFlush(final Document filter, final Document update) {
+    flush();
+    return _enqueue(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(@NonNull Task<Void> ignored) {
+        return _collection.updateOne(filter, update, false);
+      }
+    });
+  }
+
+  /**
+   * Flushes everything buffered so far and then inserts the item unless a document with its _id
+   * already exists. Unlike {@link #insert(TodoItem)}, this can safely be repeated, e.g. when
+   * replaying a write whose outcome is unknown.
+   */
+  Task<Void> upsertAfterFlush(final TodoItem item) {
+    flush();
+    return _enqueue(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(@NonNull Task<Void> ignored) {
+        return _upsert(_collection, item);
+      }
+    });
+  }
+
+  /**
+   * Inserts items with a single insertMany, then stamps last_modified with the server's clock in
+   * one updateMany covering the whole batch. insertMany cannot use $currentDate, so the documents
+   * are inserted with the device's clock as a provisional last_modified: if the stamp fails, they
+   * are still seen by delta syncs rather than left without a watermark field. The task completes
+   * once the items are inserted; a failed stamp is only logged, since the items exist either way.
+   */
+  static Task<Void> insertStamped(final TodoCollection collection, final List<TodoItem> items) {
+    final long now = System.currentTimeMillis();
+    final List<TodoItem> stamped = new ArrayList<>(items.size());
+    final List<ObjectId> ids = new ArrayList<>(items.size());
+    for (final TodoItem item : items) {
+      stamped.add(item.withLastModified(now));
+      ids.add(item.getId());
+    }
+    return collection.insertMany(stamped).continueWithTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(@NonNull Task<Void> task) throws Exception {
+        if (!task.isSuccessful()) {
+          throw _exceptionOf(task);
+        }
+        return collection.updateMany(
+                new Document(TodoItem.ID_KEY, new Document("$in", ids)),
+                new Document("$currentDate", new Document(TodoItem.LAST_MODIFIED_KEY, true)))
+                .continueWith(new Continuation<Void, Void>() {
+                  @Override
+                  public Void then(@NonNull Task<Void> stamp) {
+                    if (!stamp.isSuccessful()) {
+                      Log.w(TAG, "Failed to stamp " + ids.size() + " inserted items",
+                              stamp.getException());
+                    }
+                    return null;
+                  }
+                });
+      }
+    });
+  }
+
+  /**
+   * Inserts the item unless a document with its _id already exists, stamping last_modified.
+   */
+  private static Task<Void> _upsert(final TodoCollection collection, final TodoItem item) {
+    final Document fields = new Document(TodoItem.OWNER_KEY, item.getOwnerId())
+            .append(TodoItem.TASK_KEY, item.getTask())
+            .append(TodoItem.CHECKED_KEY, item.getChecked())
+            .append(TodoItem.DELETED_KEY, item.getDeleted());
+    if (item.getDoneDate() != null) {
+      fields.append(TodoItem.DONE_DATE_KEY, item.getDoneDate());
+    }
+    final Document updateDoc = new Document("$setOnInsert", fields)
+            .append("$currentDate", new Document(TodoItem.LAST_MODIFIED_KEY, true));
+    return collection.updateOne(new Document(TodoItem.ID_KEY, item.getId()), updateDoc, true);
+  }
+
+  /**
+   * The update that sets an item's checked state, stamping or clearing its done date.
+   */
+  static Document checkedUpdate(final boolean checked) {
+    final Document updateDoc = new Document("$set", new Document(TodoItem.CHECKED_KEY, checked));
+    final Document currentDateDoc = new Document(TodoItem.LAST_MODIFIED_KEY, true);
+    if (checked) {
+      currentDateDoc.append(TodoItem.DONE_DATE_KEY, true);
+    } else {
+      updateDoc.append("$unset", new Document(TodoItem.DONE_DATE_KEY, ""));
+    }
+    updateDoc.append("$currentDate", currentDateDoc);
+    return updateDoc;
+  }
+
+  /**
+   * The update that sets an item's task text.
+   */
+  static Document taskUpdate(final String task) {
+    return new Document("$set", new Document(TodoItem.TASK_KEY, task))
+            .append("$currentDate", new Document(TodoItem.LAST_MODIFIED_KEY, true));
+  }
+
+  /**
+   * Sends everything buffered so far. This is called automatically when the window elapses.
+   */
+  void flush() {
+    if (_flushScheduled) {
+      _handler.removeCallbacks(_flushRunnable);
+      _flushScheduled = false;
+    }
+    if (_inserts.isEmpty() && _checks.isEmpty() && _tasks.isEmpty()) {
+      return;
+    }
+
+    final List<PendingInsert> inserts = new ArrayList<>(_inserts.values());
+    final Map<ObjectId, PendingCheck> checks = new LinkedHashMap<>(_checks);
+    final Map<ObjectId, PendingTask> tasks = new LinkedHashMap<>(_tasks);
+    _inserts.clear();
+    _checks.clear();
+    _tasks.clear();
+
+    _enqueue(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(@NonNull Task<Void> ignored) {
+        final List<Task<?>> writes = new ArrayList<>();
+        writes.add(_flushInserts(inserts));
+        writes.add(_flushChecks(checks, true));
+        writes.add(_flushChecks(checks, false));
+        for (final Map.Entry<ObjectId, PendingTask> entry : tasks.entrySet()) {
+          writes.add(_flushTask(entry.getKey(), entry.getValue()));
+        }
+        return Tasks.whenAll(writes);
+      }
+    });
+  }
+
+  private void _scheduleFlush() {
+    if (!_flushScheduled) {
+      _flushScheduled = true;
+      _handler.postDelayed(_flushRunnable, _windowMillis);
+    }
+  }
+
+  /**
+   * Chains a step after the previous flush. Failures of earlier steps are reported to their own
+   * callers and do not prevent later steps from running.
+   */
+  private Task<Void> _enqueue(final Continuation<Void, Task<Void>> step) {
+    final Task<Void> result = _lastFlush.continueWithTask(step);
+    _lastFlush = result.continueWith(new Continuation<Void, Void>() {
+      @Override
+      public Void then(@NonNull Task<Void> task) {
+        return null;
+      }
+    });
+    return result;
+  }
+
+  private Task<Void> _flushInserts(final List<PendingInsert> inserts) {
+    if (inserts.isEmpty()) {
+      return Tasks.forResult(null);
+    }
+
+    final List<TodoItem> items = new ArrayList<>(inserts.size());
+    for (final PendingInsert insert : inserts) {
+      items.add(insert.item);
+    }
+
+    return _completeAll(insertStamped(_collection, items), new Completer() {
+      @Override
+      public void complete(final Exception error) {
+        for (final PendingInsert insert : inserts) {
+          _complete(insert.completion, error);
+          for (final TaskCompletionSource<Void> follower : insert.followers) {
+            _complete(follower, error);
+          }
+        }
+      }
+    });
+  }
+
+  private Task<Void> _flushChecks(final Map<ObjectId, PendingCheck> checks, final boolean checked) {
+    final List<ObjectId> ids = new ArrayList<>();
+    final List<PendingCheck> covered = new ArrayList<>();
+    for (final Map.Entry<ObjectId, PendingCheck> entry : checks.entrySet()) {
+      final PendingCheck check = entry.getValue();
+      if (check.checked != checked) {
+        continue;
+      }
+      covered.add(check);
+      if (check.checked != check.wasChecked) {
+        ids.add(entry.getKey());
+      }
+    }
+
+    if (covered.isEmpty()) {
+      return Tasks.forResult(null);
+    }
+
+    final Task<Void> write;
+    if (ids.isEmpty()) {
+      // Every write for these items cancelled out.
+      write = Tasks.forResult(null);
+    } else {
+      write = _collection.updateMany(
+              new Document(TodoItem.ID_KEY, new Document("$in", ids)), checkedUpdate(checked));
+    }
+
+    return _completeAll(write, new Completer() {
+      @Override
+      public void complete(final Exception error) {
+        for (final PendingCheck check : covered) {
+          for (final TaskCompletionSource<Void> completion : check.completions) {
+            _complete(completion, error);
+          }
+        }
+      }
+    });
+  }
+
+  private Task<Void> _flushTask(final ObjectId itemId, final PendingTask pendingTask) {
+    return _completeAll(
+            _collection.updateOne(
+                    new Document(TodoItem.ID_KEY, itemId), taskUpdate(pendingTask.task), false),
+            new Completer() {
+              @Override
+              public void complete(final Exception error) {
+                for (final TaskCompletionSource<Void> completion : pendingTask.completions) {
+                  _complete(completion, error);
+                }
+              }
+            });
+  }
+
+  private interface Completer {
+    void complete(Exception error);
+  }
+
+  private static Task<Void> _completeAll(final Task<Void> write, final Completer completer) {
+    return write.continueWith(new Continuation<Void, Void>() {
+      @Override
+      public Void then(@NonNull Task<Void> task) {
+        completer.complete(task.isSuccessful() ? null : _exceptionOf(task));
+        return null;
+      }
+    });
+  }
+
+  private static void _complete(final TaskCompletionSource<Void> completion, final Exception error) {
+    if (error == null) {
+      completion.setResult(null);
+    } else {
+      completion.setException(error);
+    }
+  }
+
+  private static Exception _exceptionOf(final Task<?> task) {
+    return task.getException() != null ? task.getException() : new IllegalStateException();
+  }
+
+  private static class PendingInsert {
+    final TaskCompletionSource<Void> completion = new TaskCompletionSource<>();
+    // Checks and edits of the item made before it was sent, folded into the insert itself.
+    final List<TaskCompletionSource<Void>> followers = new ArrayList<>();
+    TodoItem item;
+
+    PendingInsert(final TodoItem item) {
+      this.item = item;
+    }
+  }
+
+  private static class PendingCheck {
+    final List<TaskCompletionSource<Void>> completions = new ArrayList<>();
+    final boolean wasChecked;
+    boolean checked;
+
+    PendingCheck(final boolean wasChecked) {
+      this.wasChecked = wasChecked;
+    }
+  }
+
+  private static class PendingTask {
+    final List<TaskCompletionSource<Void>> completions = new ArrayList<>();
+    String task;
+  }
+}
@@ -38,6 +38,12 @@ public class TodoItem {
   public static final String TASK_KEY = "task";
   public static final String CHECKED_KEY = "checked";
   public static final String DONE_DATE_KEY = "done_date";
+  public static final String LAST_MODIFIED_KEY = "last_modified";
+  public static final String DELETED_KEY = "deleted";
+
+  // Stored in place of a date that is not set. Dates are kept as epoch milliseconds so that
+  // decoding an item does not allocate a Date per field; the getters return Date copies.
+  public static final long NO_DATE = Long.MIN_VALUE;
 
   @NonNull
   private ObjectId id;
@@ -51,8 +57,17 @@ public class TodoItem {
   @NonNull
   private Boolean checked;
 
-  @Nullable
-  private Date doneDate;
+  @BsonIgnore
+  private long doneDateMillis;
+
+  // Maintained by the server via $currentDate on every write. Used as the delta-sync watermark.
+  @BsonIgnore
+  private long lastModifiedMillis;
+
+  // Tombstone flag. Deleted items are kept around for a while so that delta refreshes can
+  // observe the deletion.
+  @NonNull
+  private Boolean deleted;
 
   /**
    * Constructor for TodoItem that is used when reading from BSON.
@@ -63,29 +78,52 @@ public class TodoItem {
           @BsonProperty(OWNER_KEY) final String ownerId,
           @BsonProperty(TASK_KEY) final String task,
           @BsonProperty(CHECKED_KEY) final Boolean checked,
-          @BsonProperty(DONE_DATE_KEY) final Date doneDate) {
+          @BsonProperty(DONE_DATE_KEY) final Date doneDate,
+          @BsonProperty(LAST_MODIFIED_KEY) final Date lastModified,
+          @BsonProperty(DELETED_KEY) final Boolean deleted) {
+    // done_date may be absent because the item is unchecked or because it was left out of a
+    // projection; either way there is no done date to report.
+    this(
+            id,
+            ownerId,
+            task,
+            checked != null && checked,
+            doneDate != null ? doneDate.getTime() : NO_DATE,
+            lastModified != null ? lastModified.getTime() : NO_DATE,
+            deleted != null && deleted);
+  }
+
+  /**
+   * Constructor used by {@link TodoItemCodec}, taking dates as epoch milliseconds or NO_DATE.
+   */
+  TodoItem(
+          @NonNull final ObjectId id,
+          @Nullable final String ownerId,
+          final String task,
+          final boolean checked,
+          final long doneDate,
+          final long lastModified,
+          final boolean deleted) {
     this.id = id;
     this.ownerId = ownerId;
     this.task = task;
-    if (checked == null) {
-      this.checked = false;
-    } else {
-      this.checked = checked;
-    }
-
-    if (doneDate == null) {
-      this.doneDate = new Date();
-    } else {
-      this.doneDate = doneDate;
-    }
+    this.checked = checked;
+    this.doneDateMillis = doneDate;
+    this.lastModifiedMillis = lastModified;
+    this.deleted = deleted;
   }
 
+  /**
+   * Constructor for a new, unchecked item. It has no done date until it is checked.
+   */
   public TodoItem(
           @NonNull final String task) {
     this.id = ObjectId.get();
     this.task = task;
     this.checked = false;
-    this.doneDate = new Date();
+    this.doneDateMillis = NO_DATE;
+    this.lastModifiedMillis = NO_DATE;
+    this.deleted = false;
   }
 
   // Getters
@@ -110,7 +148,58 @@ public class TodoItem {
 
   @Nullable @BsonProperty(DONE_DATE_KEY)
   public Date getDoneDate() {
-    return new Date(doneDate.getTime());
+    return doneDateMillis == NO_DATE ? null : new Date(doneDateMillis);
+  }
+
+  @Nullable @BsonProperty(LAST_MODIFIED_KEY)
+  public Date getLastModified() {
+    return lastModifiedMillis == NO_DATE ? null : new Date(lastModifiedMillis);
+  }
+
+  @NonNull @BsonProperty(DELETED_KEY)
+  public Boolean getDeleted() {
+    return deleted;
+  }
+
+  /**
+   * The done date in epoch milliseconds, or NO_DATE. Unlike {@link #getDoneDate()}, does not
+   * allocate, for code that reads the dates of every item of the list.
+   */
+  public long doneDateMillis() {
+    return doneDateMillis;
+  }
+
+  /**
+   * The last modified date in epoch milliseconds, or NO_DATE. Unlike {@link #getLastModified()},
+   * does not allocate.
+   */
+  public long lastModifiedMillis() {
+    return lastModifiedMillis;
+  }
+
+  // Copies
+
+  /**
+   * Returns a copy of this item with a different checked state. As on the server, checking an item
+   * sets its done date to now.
+   */
+  public TodoItem withChecked(final boolean checked) {
+    final long doneDate = checked ? System.currentTimeMillis() : NO_DATE;
+    return new TodoItem(id, ownerId, task, checked, doneDate, lastModifiedMillis, deleted);
+  }
+
+  /**
+   * Returns a copy of this item with a different task.
+   */
+  public TodoItem withTask(@NonNull final String task) {
+    return new TodoItem(id, ownerId, task, checked, doneDateMillis, lastModifiedMillis, deleted);
+  }
+
+  /**
+   * Returns a copy of this item with a different last modified date, in epoch milliseconds.
+   */
+  public TodoItem withLastModified(final long lastModified) {
+    return new TodoItem(id, ownerId, task, checked, doneDateMillis, lastModified, deleted);
   }
 
   // Setters
@@ -0,0 +1,118 @@
+package com.mongodb.todosample.model.objects;
+
+import com.mongodb.todosample.metrics.Counter;
+import com.mongodb.todosample.metrics.MetricNames;
+import com.mongodb.todosample.metrics.Metrics;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+/**
+ * Reads and writes TodoItems field by field, straight from and to BSON. Unlike the reflective
+ * POJO codec, it decodes without reflection, intermediate property maps or Date objects, which
+ * matters when whole lists of items are decoded on every refresh.
+ *
+ * Fields absent from a document (e.g. left out by a projection) or set to null take the same
+ * defaults as the POJO codec gave them. Unknown fields are skipped.
+ */
+public class TodoItemCodec implements Codec<TodoItem> {
+  private static final Counter DOCUMENTS_DECODED =
+          Metrics.get().counter(MetricNames.DOCUMENTS_DECODED);
+  private static final Counter BYTES_DECODED = Metrics.get().counter(MetricNames.BYTES_DECODED);
+
+  @Override
+  public TodoItem decode(final BsonReader reader, final DecoderContext decoderContext) {
+    // Byte counts are only known when decoding binary BSON; Stitch results arrive as JSON.
+    final BsonBinaryReader binaryReader =
+            Metrics.get().isEnabled() && reader instanceof BsonBinaryReader
+                    ? (BsonBinaryReader) reader : null;
+    final int startPosition = binaryReader != null
+            ? binaryReader.getBsonInput().getPosition() : 0;
+
+    ObjectId id = null;
+    String ownerId = null;
+    String task = null;
+    boolean checked = false;
+    long doneDate = TodoItem.NO_DATE;
+    long lastModified = TodoItem.NO_DATE;
+    boolean deleted = false;
+
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      final String name = reader.readName();
+      if (reader.getCurrentBsonType() == BsonType.NULL) {
+        reader.readNull();
+        continue;
+      }
+
+      switch (name) {
+        case TodoItem.ID_KEY:
+          id = reader.readObjectId();
+          break;
+        case TodoItem.OWNER_KEY:
+          ownerId = reader.readString();
+          break;
+        case TodoItem.TASK_KEY:
+          task = reader.readString();
+          break;
+        case TodoItem.CHECKED_KEY:
+          checked = reader.readBoolean();
+          break;
+        case TodoItem.DONE_DATE_KEY:
+          doneDate = reader.readDateTime();
+          break;
+        case TodoItem.LAST_MODIFIED_KEY:
+          lastModified = reader.readDateTime();
+          break;
+        case TodoItem.DELETED_KEY:
+          deleted = reader.readBoolean();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.readEndDocument();
+
+    DOCUMENTS_DECODED.increment();
+    if (binaryReader != null) {
+      BYTES_DECODED.add(binaryReader.getBsonInput().getPosition() - startPosition);
+    }
+    return new TodoItem(id, ownerId, task, checked, doneDate, lastModified, deleted);
+  }
+
+  @Override
+  public void encode(
+          final BsonWriter writer,
+          final TodoItem item,
+          final EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    writer.writeObjectId(TodoItem.ID_KEY, item.getId());
+    if (item.getOwnerId() != null) {
+      writer.writeString(TodoItem.OWNER_KEY, item.getOwnerId());
+    }
+    if (item.getTask() != null) {
+      writer.writeString(TodoItem.TASK_KEY, item.getTask());
+    }
+    writer.writeBoolean(TodoItem.CHECKED_KEY, item.getChecked());
+    if (item.doneDateMillis() != TodoItem.NO_DATE) {
+      writer.writeDateTime(TodoItem.DONE_DATE_KEY, item.doneDateMillis());
+    }
+    if (item.lastModifiedMillis() != TodoItem.NO_DATE) {
+      writer.writeDateTime(TodoItem.LAST_MODIFIED_KEY, item.lastModifiedMillis());
+    }
+    writer.writeBoolean(TodoItem.DELETED_KEY, item.getDeleted());
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public Class<TodoItem> getEncoderClass() {
+    return TodoItem.class;
+  }
+}
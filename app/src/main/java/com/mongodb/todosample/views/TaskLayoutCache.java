@@ -0,0 +1,220 @@
+package com.mongodb.todosample.views;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+import com.mongodb.todosample.metrics.HitRatio;
+import com.mongodb.todosample.metrics.MetricNames;
+import com.mongodb.todosample.metrics.Metrics;
+
+import org.bson.types.ObjectId;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Text layouts of tasks, built ahead of time on a background thread so that rows about to scroll
+ * into view do not have to break long tasks into lines on the main thread. Layouts are keyed by
+ * the item's _id and its task, and are built for the text width and paint that the rows'
+ * {@link TaskTextView}s last reported; a different width, e.g. after a rotation, drops them all.
+ *
+ * The cache is trimmed when the system runs low on memory, and emptied once the app is in the
+ * background. Register it with {@link android.content.Context#registerComponentCallbacks}.
+ *
+ * Thread safe.
+ */
+public class TaskLayoutCache implements ComponentCallbacks2 {
+  // Rows hold a handful of lines each, so this covers several screens of long tasks.
+  private static final int MAX_LAYOUTS = 256;
+  // Prefetches waiting for the background thread beyond this many are dropped; when flinging,
+  // the rows they were for have scrolled by before they would be built.
+  private static final int MAX_PENDING = 32;
+
+  // Shared by every cache, so that prefetching never competes with itself for a core.
+  private static final ExecutorService LAYOUT_EXECUTOR =
+          Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+              final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                  Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                  runnable.run();
+                }
+              }, "task-layout");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  private static final class Key {
+    final ObjectId id;
+    final String text;
+
+    Key(final ObjectId id, final String text) {
+      this.id = id;
+      this.text = text;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return id.equals(other.id) && text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * id.hashCode() + text.hashCode();
+    }
+  }
+
+  private final LruCache<Key, Layout> _layouts = new LruCache<>(MAX_LAYOUTS);
+  private final HitRatio _hitRatio = Metrics.get().hitRatio(MetricNames.TASK_LAYOUT_CACHE);
+
+  // Guarded by this.
+  @Nullable
+  private TextPaint _paint;
+  private int _width = -1;
+  // Incremented whenever the layouts are dropped, so that builds started before are discarded.
+  private int _generation;
+  private final Set<Key> _pending = new HashSet<>();
+
+  /**
+   * Sets the paint and text width that layouts are built for. Called by rows as they measure;
+   * the paint is copied, and only looked at when the width changes.
+   */
+  synchronized void configure(final TextPaint paint, final int width) {
+    if (width == _width) {
+      return;
+    }
+    _paint = new TextPaint(paint);
+    _width = width;
+    _dropAll();
+  }
+
+  /**
+   * The layout of an item's task for the configured width, or null if it has not been built.
+   */
+  @Nullable
+  Layout get(final ObjectId id, final String text) {
+    final Layout layout = _layouts.get(new Key(id, text));
+    if (layout == null) {
+      _hitRatio.miss();
+    } else {
+      _hitRatio.hit();
+    }
+    return layout;
+  }
+
+  synchronized void put(final ObjectId id, final String text, final Layout layout) {
+    if (layout.getWidth() == _width) {
+      _layouts.put(new Key(id, text), layout);
+    }
+  }
+
+  /**
+   * Starts building the layout of an item's task on the background thread, unless it is cached
+   * or already being built, or no row has been measured yet.
+   */
+  public void prefetch(final ObjectId id, final String text) {
+    final Key key = new Key(id, text);
+    final TextPaint paint;
+    final int width;
+    final int generation;
+    synchronized (this) {
+      if (_paint == null || _pending.size() >= MAX_PENDING || _pending.contains(key)) {
+        return;
+      }
+      if (_layouts.get(key) != null) {
+        return;
+      }
+      // Building measures with the paint, so each build gets its own copy rather than share one
+      // with the layouts being drawn on the main thread.
+      paint = new TextPaint(_paint);
+      width = _width;
+      generation = _generation;
+      _pending.add(key);
+    }
+    LAYOUT_EXECUTOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (TaskLayoutCache.this) {
+          if (generation != _generation) {
+            return;
+          }
+        }
+        final Layout layout = newLayout(text, paint, width);
+        synchronized (TaskLayoutCache.this) {
+          if (generation != _generation) {
+            return;
+          }
+          _pending.remove(key);
+          _layouts.put(key, layout);
+        }
+      }
+    });
+  }
+
+  /**
+   * Drops every layout.
+   */
+  public synchronized void evictAll() {
+    _dropAll();
+  }
+
+  @Override
+  public void onTrimMemory(final int level) {
+    if (level >= TRIM_MEMORY_BACKGROUND) {
+      // Nothing is shown, and the rows will be built again when the app is.
+      evictAll();
+    } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+      _layouts.trimToSize(MAX_LAYOUTS / 4);
+    } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+      _layouts.trimToSize(MAX_LAYOUTS / 2);
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    evictAll();
+  }
+
+  @Override
+  public void onConfigurationChanged(final Configuration newConfig) {
+  }
+
+  private void _dropAll() {
+    _generation++;
+    _pending.clear();
+    _layouts.evictAll();
+  }
+
+  /**
+   * Lays out text as a TextView with the same paint and width would, breaking lines with the
+   * same strategy.
+   */
+  @SuppressWarnings("deprecation")
+  static Layout newLayout(final CharSequence text, final TextPaint paint, final int width) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      return StaticLayout.Builder.obtain(text, 0, text.length(), paint, width)
+              .setBreakStrategy(Layout.BREAK_STRATEGY_HIGH_QUALITY)
+              .setHyphenationFrequency(Layout.HYPHENATION_FREQUENCY_NORMAL)
+              .build();
+    }
+    return new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+  }
+}
@@ -0,0 +1,164 @@
+package com.mongodb.todosample.views;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.annotation.Nullable;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Shows the task of a todo item, drawing a text layout that a {@link TaskLayoutCache} may have
+ * built ahead of time. A TextView lays its text out again on the main thread whenever it is set,
+ * which for long tasks can take longer than a frame; this view only does so when the cache does
+ * not have the layout yet.
+ *
+ * Takes the textAppearance, textSize and textColor attributes, like a TextView.
+ */
+public class TaskTextView extends View {
+  // Sorted by attribute id, as obtainStyledAttributes requires.
+  private static final int[] TEXT_ATTRS = {android.R.attr.textSize, android.R.attr.textColor};
+  private static final int[] APPEARANCE_ATTRS = {android.R.attr.textAppearance};
+  private static final int DEFAULT_TEXT_SIZE_SP = 14;
+
+  private final TextPaint _paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+
+  @Nullable
+  private TaskLayoutCache _layoutCache;
+  @Nullable
+  private ObjectId _id;
+  private String _text = "";
+  // Laid out for the width the view was last measured at, or null until it is next measured.
+  @Nullable
+  private Layout _layout;
+
+  public TaskTextView(final Context context) {
+    this(context, null);
+  }
+
+  public TaskTextView(final Context context, @Nullable final AttributeSet attrs) {
+    super(context, attrs);
+    _paint.density = getResources().getDisplayMetrics().density;
+    _paint.setTextSize(TypedValue.applyDimension(
+            TypedValue.COMPLEX_UNIT_SP,
+            DEFAULT_TEXT_SIZE_SP,
+            getResources().getDisplayMetrics()));
+
+    final TypedArray appearance = context.obtainStyledAttributes(attrs, APPEARANCE_ATTRS);
+    final int appearanceId = appearance.getResourceId(0, 0);
+    appearance.recycle();
+    if (appearanceId != 0) {
+      final TypedArray appearanceAttrs = context.obtainStyledAttributes(appearanceId, TEXT_ATTRS);
+      _applyTextAttrs(appearanceAttrs);
+      appearanceAttrs.recycle();
+    }
+    final TypedArray own = context.obtainStyledAttributes(attrs, TEXT_ATTRS);
+    _applyTextAttrs(own);
+    own.recycle();
+  }
+
+  private void _applyTextAttrs(final TypedArray attrs) {
+    if (attrs.hasValue(0)) {
+      _paint.setTextSize(attrs.getDimensionPixelSize(0, 0));
+    }
+    if (attrs.hasValue(1)) {
+      _paint.setColor(attrs.getColor(1, _paint.getColor()));
+    }
+  }
+
+  /**
+   * Sets the cache to take layouts from, and to add the ones this view builds itself to.
+   */
+  public void setLayoutCache(@Nullable final TaskLayoutCache layoutCache) {
+    _layoutCache = layoutCache;
+  }
+
+  /**
+   * Shows an item's task. Only lays the view out again if the task's layout is not cached or
+   * takes a different height than the one shown.
+   */
+  public void setTask(final ObjectId id, final String text) {
+    if (id.equals(_id) && text.equals(_text)) {
+      return;
+    }
+    _id = id;
+    _text = text;
+    final Layout cached = _layoutCache != null ? _layoutCache.get(id, text) : null;
+    if (cached != null
+            && _layout != null
+            && cached.getWidth() == _layout.getWidth()
+            && cached.getHeight() == _layout.getHeight()) {
+      _layout = cached;
+    } else {
+      _layout = cached;
+      requestLayout();
+    }
+    invalidate();
+  }
+
+  public CharSequence getText() {
+    return _text;
+  }
+
+  @Override
+  protected void onMeasure(final int widthMeasureSpec, final int heightMeasureSpec) {
+    final int horizontalPadding = getPaddingLeft() + getPaddingRight();
+    final int width;
+    if (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED) {
+      width = (int) Math.ceil(Layout.getDesiredWidth(_text, _paint)) + horizontalPadding;
+    } else {
+      width = MeasureSpec.getSize(widthMeasureSpec);
+    }
+    final int textWidth = Math.max(0, width - horizontalPadding);
+
+    if (_layout == null || _layout.getWidth() != textWidth) {
+      _layout = null;
+      if (_layoutCache != null && _id != null) {
+        _layoutCache.configure(_paint, textWidth);
+        _layout = _layoutCache.get(_id, _text);
+      }
+      if (_layout == null) {
+        _layout = TaskLayoutCache.newLayout(_text, _paint, textWidth);
+        if (_layoutCache != null && _id != null) {
+          _layoutCache.put(_id, _text, _layout);
+        }
+      }
+    }
+
+    final int height = _layout.getHeight() + getPaddingTop() + getPaddingBottom();
+    setMeasuredDimension(
+            resolveSize(Math.max(width, getSuggestedMinimumWidth()), widthMeasureSpec),
+            resolveSize(Math.max(height, getSuggestedMinimumHeight()), heightMeasureSpec));
+  }
+
+  @Override
+  protected void onDraw(final Canvas canvas) {
+    if (_layout == null) {
+      return;
+    }
+    canvas.save();
+    canvas.translate(getPaddingLeft(), getPaddingTop());
+    _layout.draw(canvas);
+    canvas.restore();
+  }
+
+  @Override
+  public void onPopulateAccessibilityEvent(final AccessibilityEvent event) {
+    super.onPopulateAccessibilityEvent(event);
+    event.getText().add(_text);
+  }
+
+  @Override
+  public void onInitializeAccessibilityNodeInfo(final AccessibilityNodeInfo info) {
+    super.onInitializeAccessibilityNodeInfo(info);
+    info.setText(_text);
+  }
+}
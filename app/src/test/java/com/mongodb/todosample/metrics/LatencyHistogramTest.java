@@ -0,0 +1,78 @@
+package com.mongodb.todosample.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+  private final Metrics _metrics = new Metrics();
+
+  @Before
+  public void enable() {
+    _metrics.setEnabled(true);
+  }
+
+  @Test
+  public void estimatesPercentilesWithinABucket() {
+    final LatencyHistogram histogram = _metrics.histogram("test");
+    for (long micros = 1; micros <= 10000; micros++) {
+      histogram.recordMicros(micros);
+    }
+
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(10000, snapshot.getCount());
+    assertEquals(5000, snapshot.getMeanMicros());
+    _assertWithinEighth(5000, snapshot.getP50Micros());
+    _assertWithinEighth(9500, snapshot.getP95Micros());
+    _assertWithinEighth(9900, snapshot.getP99Micros());
+    assertEquals(10000, snapshot.getMaxMicros());
+  }
+
+  @Test
+  public void recordsNothingWhileDisabled() {
+    final LatencyHistogram histogram = _metrics.histogram("test");
+    final Counter counter = _metrics.counter("test");
+    _metrics.setEnabled(false);
+
+    histogram.stop(histogram.start());
+    histogram.recordMicros(100);
+    counter.increment();
+
+    assertEquals(0, histogram.snapshot().getCount());
+    assertEquals(0, counter.get());
+    assertEquals("", _metrics.dump());
+  }
+
+  @Test
+  public void bucketsContainTheirUpperBounds() {
+    for (int bucket = 0; bucket < 300; bucket++) {
+      final long upperBound = LatencyHistogram.upperBoundOf(bucket);
+      assertEquals(bucket, LatencyHistogram.bucketOf(upperBound));
+      assertEquals(bucket + 1, LatencyHistogram.bucketOf(upperBound + 1));
+    }
+  }
+
+  @Test
+  public void looksUpMetricsByName() {
+    assertSame(_metrics.counter("a"), _metrics.counter("a"));
+    _metrics.counter("a").add(3);
+    _metrics.hitRatio("b").hit();
+    _metrics.hitRatio("b").miss();
+
+    assertEquals(3, _metrics.counter("a").get());
+    assertEquals(0.5, _metrics.hitRatio("b").getRatio(), 0);
+    assertEquals("a: 3\nb: 50.0% of 2\n", _metrics.dump());
+
+    _metrics.reset();
+    assertEquals("", _metrics.dump());
+  }
+
+  private static void _assertWithinEighth(final long expected, final long actual) {
+    assertTrue(
+            actual + " is not within an eighth of " + expected,
+            Math.abs(actual - expected) <= expected / 8);
+  }
+}
@@ -0,0 +1,148 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a TodoListState from a {@link LocalChangeEventSource} the way a subscribed TodoList
+ * does, and checks that change events patch the list incrementally and retire optimistic
+ * mutations once the server reflects them.
+ */
+public class ChangeEventSubscriptionTest {
+  private static final String OWNER = "owner";
+
+  private final LocalChangeEventSource _server = new LocalChangeEventSource();
+  private final TodoListState _state = new TodoListState(new Executor() {
+    @Override
+    public void execute(final Runnable command) {
+      command.run();
+    }
+  });
+  private final ReplayingListener _listener = new ReplayingListener();
+
+  @Before
+  public void subscribe() {
+    _state.registerListener(_listener);
+    _server.subscribe(OWNER, null, new ChangeEventSource.Listener() {
+      @Override
+      public void onChangeEvents(final List<ChangeEvent> events) {
+        _publish(_state.onChangeEvents(events));
+      }
+    });
+  }
+
+  @Test
+  public void patchesTheListWithChangesFromOtherDevices() {
+    final TodoItem a = _item("a");
+    final TodoItem b = _item("b");
+    _server.insert(a);
+    _server.insert(b);
+    _server.setChecked(a.getId(), true);
+    _server.tombstone(b.getId());
+
+    _assertMatchesServer();
+    assertTrue(_state.snapshot().get(0).getChecked());
+  }
+
+  @Test
+  public void dropsAcknowledgedMutationsOnceTheirEventsArrive() {
+    final TodoItem item = _item("a");
+    final Mutation add = new Mutation.AddItem(item);
+    _state.applyMutation(add);
+    _state.acknowledge(add);
+    _server.insert(item);
+    _assertMatchesServer();
+
+    // Were the insert still pending, it would bring the item back.
+    _server.tombstone(item.getId());
+    _assertMatchesServer();
+  }
+
+  @Test
+  public void dropsMutationsWhoseEventsArrivedBeforeTheAcknowledgement() {
+    final TodoItem item = _item("a");
+    final Mutation add = new Mutation.AddItem(item);
+    _state.applyMutation(add);
+    _server.insert(item);
+    _state.acknowledge(add);
+    _publish(_state.dropReflectedMutations());
+
+    _server.tombstone(item.getId());
+    _assertMatchesServer();
+  }
+
+  @Test
+  public void keepsUnacknowledgedMutationsOverEvents() {
+    final TodoItem a = _item("a");
+    final TodoItem b = _item("b");
+    _server.insert(a);
+    _server.insert(b);
+
+    _state.applyMutation(new Mutation.SetChecked(a.getId(), true));
+    _server.setChecked(b.getId(), true);
+
+    assertTrue(_state.snapshot().get(0).getChecked());
+    assertTrue(_state.snapshot().get(1).getChecked());
+    assertNull(_listener.failure);
+  }
+
+  @Test
+  public void keepsClearsUntilEveryClearedItemIsGone() {
+    final TodoItem a = _item("a");
+    final TodoItem b = _item("b");
+    final TodoItem c = _item("c");
+    _server.insert(a);
+    _server.insert(b);
+    _server.insert(c);
+    _server.setChecked(a.getId(), true);
+    _server.setChecked(b.getId(), true);
+
+    final Mutation clear = new Mutation.ClearChecked(Arrays.asList(a.getId(), b.getId()));
+    _state.applyMutation(clear);
+    _state.acknowledge(clear);
+    _server.tombstone(a.getId());
+    assertEquals(1, _state.snapshot().size());
+
+    _server.tombstone(b.getId());
+    _server.setChecked(c.getId(), true);
+    _assertMatchesServer();
+  }
+
+  @Test
+  public void eventsMakeInFlightRefreshesStale() {
+    final int refreshNumber = _state.beginRefresh();
+    final List<TodoItem> before = _server.liveDocuments();
+    _server.insert(_item("a"));
+
+    assertNull(_state.onServerVersion(before, refreshNumber));
+    _assertMatchesServer();
+  }
+
+  private void _publish(final TodoListState.Rebuild rebuild) {
+    if (rebuild != null) {
+      _state.commit(rebuild, ListDiffer.diff(rebuild.base, rebuild.list));
+    }
+  }
+
+  private void _assertMatchesServer() {
+    ReplayingListener.assertSameItems(_server.liveDocuments(), _state.snapshot());
+    ReplayingListener.assertSameItems(_state.snapshot(), _listener.items);
+    assertNull(_listener.failure);
+  }
+
+  private static TodoItem _item(final String task) {
+    final TodoItem item = new TodoItem(task);
+    item.setOwnerId(OWNER);
+    return item;
+  }
+}
@@ -0,0 +1,59 @@
+package com.mongodb.todosample.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    final CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+
+    assertFalse(breaker.onFailure(0));
+    assertFalse(breaker.onFailure(0));
+    breaker.onSuccess();
+    assertFalse(breaker.onFailure(0));
+    assertFalse(breaker.onFailure(0));
+    assertTrue(breaker.allowRequest(0));
+    assertTrue(breaker.onFailure(10));
+
+    assertFalse(breaker.allowRequest(500));
+    assertEquals(510, breaker.millisUntilRetry(500));
+  }
+
+  @Test
+  public void letsASingleProbeThroughOnceOpenTimeHasPassed() {
+    final CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+    breaker.onFailure(0);
+
+    assertTrue(breaker.allowRequest(1000));
+    assertFalse(breaker.allowRequest(1001));
+
+    breaker.onSuccess();
+    assertTrue(breaker.allowRequest(1002));
+    assertEquals(0, breaker.millisUntilRetry(1002));
+  }
+
+  @Test
+  public void reopensWhenTheProbeFails() {
+    final CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+    breaker.onFailure(0);
+
+    assertTrue(breaker.allowRequest(1000));
+    assertFalse(breaker.onFailure(1200));
+
+    assertFalse(breaker.allowRequest(2100));
+    assertTrue(breaker.allowRequest(2200));
+  }
+
+  @Test
+  public void neverOpensWithoutAThreshold() {
+    final CircuitBreaker breaker = new CircuitBreaker(0, 1000);
+    for (int i = 0; i < 100; i++) {
+      assertFalse(breaker.onFailure(i));
+    }
+    assertTrue(breaker.allowRequest(100));
+  }
+}
@@ -0,0 +1,95 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-process stand-in for the server: holds the documents of a todo collection and delivers a
+ * change event to every subscriber of the document's owner whenever one is written, synchronously
+ * and in order.
+ */
+class LocalChangeEventSource implements ChangeEventSource {
+  private final Map<ObjectId, TodoItem> _documents = new LinkedHashMap<>();
+  private final List<LocalSubscription> _subscriptions = new ArrayList<>();
+  private long _clock = 1;
+
+  void insert(final TodoItem item) {
+    _write(ChangeEvent.OperationType.INSERT, _stamp(item, item.getChecked(), item.getDeleted()));
+  }
+
+  void setChecked(final ObjectId id, final boolean checked) {
+    _write(ChangeEvent.OperationType.UPDATE, _stamp(_documents.get(id), checked, false));
+  }
+
+  void tombstone(final ObjectId id) {
+    final TodoItem item = _documents.get(id);
+    _write(ChangeEvent.OperationType.UPDATE, _stamp(item, item.getChecked(), true));
+  }
+
+  /**
+   * The live documents, in insertion order, the way a full reload would return them.
+   */
+  List<TodoItem> liveDocuments() {
+    final List<TodoItem> live = new ArrayList<>();
+    for (final TodoItem item : _documents.values()) {
+      if (!item.getDeleted()) {
+        live.add(item);
+      }
+    }
+    return live;
+  }
+
+  @Override
+  public Subscription subscribe(
+          final String ownerId,
+          final Date since,
+          final Listener listener) {
+    final LocalSubscription subscription = new LocalSubscription(ownerId, listener);
+    _subscriptions.add(subscription);
+    return subscription;
+  }
+
+  private void _write(final ChangeEvent.OperationType operationType, final TodoItem item) {
+    _documents.put(item.getId(), item);
+    final ChangeEvent event = new ChangeEvent(operationType, item.getId(), item);
+    for (final LocalSubscription subscription : new ArrayList<>(_subscriptions)) {
+      if (subscription.ownerId.equals(item.getOwnerId())) {
+        subscription.listener.onChangeEvents(Collections.singletonList(event));
+      }
+    }
+  }
+
+  private TodoItem _stamp(final TodoItem item, final boolean checked, final boolean deleted) {
+    return new TodoItem(
+            item.getId(),
+            item.getOwnerId(),
+            item.getTask(),
+            checked,
+            item.getDoneDate(),
+            new Date(_clock++),
+            deleted);
+  }
+
+  private class LocalSubscription implements Subscription {
+    final String ownerId;
+    final Listener listener;
+
+    LocalSubscription(final String ownerId, final Listener listener) {
+      this.ownerId = ownerId;
+      this.listener = listener;
+    }
+
+    @Override
+    public void cancel() {
+      _subscriptions.remove(this);
+    }
+  }
+}
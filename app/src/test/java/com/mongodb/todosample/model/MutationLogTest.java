@@ -0,0 +1,142 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+import com.mongodb.todosample.model.objects.TodoItemCodec;
+
+import org.bson.types.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MutationLogTest {
+  @Rule
+  public final TemporaryFolder _folder = new TemporaryFolder();
+
+  @Test
+  public void reloadsUnacknowledgedEntriesInOrder() throws Exception {
+    final File file = _folder.newFile();
+    final ObjectId itemId = new ObjectId();
+
+    final MutationLog log = new MutationLog(file, new TodoItemCodec());
+    log.load();
+    final MutationLog.Entry add = log.append(MutationLog.Entry.addItem("owner", new TodoItem("a")));
+    final MutationLog.Entry check = log.append(MutationLog.Entry.setChecked("owner", itemId, true));
+    final MutationLog.Entry edit = log.append(MutationLog.Entry.setTask("owner", itemId, "b"));
+    final ObjectId clearedId = new ObjectId();
+    log.append(MutationLog.Entry.clearChecked("other", Collections.singletonList(clearedId)));
+    log.acknowledge(check);
+    log.close();
+
+    final List<MutationLog.Entry> entries = new MutationLog(file, new TodoItemCodec()).load();
+
+    assertEquals(3, entries.size());
+    assertEquals(add.sequence, entries.get(0).sequence);
+    assertEquals(MutationLog.Type.ADD_ITEM, entries.get(0).type);
+    assertEquals(add.item.getId(), entries.get(0).item.getId());
+    assertEquals("a", entries.get(0).item.getTask());
+    assertEquals(edit.sequence, entries.get(1).sequence);
+    assertEquals(MutationLog.Type.SET_TASK, entries.get(1).type);
+    assertEquals(itemId, entries.get(1).itemId);
+    assertEquals("b", entries.get(1).task);
+    assertEquals(MutationLog.Type.CLEAR_CHECKED, entries.get(2).type);
+    assertEquals("other", entries.get(2).ownerId);
+    assertEquals(Collections.singletonList(clearedId), entries.get(2).itemIds);
+  }
+
+  @Test
+  public void continuesSequenceNumbersAfterReload() throws Exception {
+    final File file = _folder.newFile();
+    final MutationLog log = new MutationLog(file, new TodoItemCodec());
+    log.load();
+    final MutationLog.Entry first =
+            log.append(MutationLog.Entry.clearAll("owner", Collections.<ObjectId>emptyList()));
+    log.close();
+
+    final MutationLog reloaded = new MutationLog(file, new TodoItemCodec());
+    reloaded.load();
+    final MutationLog.Entry second =
+            reloaded.append(MutationLog.Entry.clearAll("owner", Collections.<ObjectId>emptyList()));
+
+    assertTrue(second.sequence > first.sequence);
+  }
+
+  @Test
+  public void ignoresTornTailAndKeepsAppending() throws Exception {
+    final File file = _folder.newFile();
+    final MutationLog log = new MutationLog(file, new TodoItemCodec());
+    log.load();
+    log.append(MutationLog.Entry.setTask("owner", new ObjectId(), "kept"));
+    log.append(MutationLog.Entry.setTask("owner", new ObjectId(), "torn"));
+    log.close();
+
+    // Simulate a crash in the middle of writing the second record.
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+
+    final MutationLog reloaded = new MutationLog(file, new TodoItemCodec());
+    final List<MutationLog.Entry> entries = reloaded.load();
+    assertEquals(1, entries.size());
+    assertEquals("kept", entries.get(0).task);
+
+    reloaded.append(MutationLog.Entry.setTask("owner", new ObjectId(), "after"));
+    reloaded.close();
+
+    final List<MutationLog.Entry> afterCrash = new MutationLog(file, new TodoItemCodec()).load();
+    assertEquals(2, afterCrash.size());
+    assertEquals("after", afterCrash.get(1).task);
+  }
+
+  @Test
+  public void ignoresGarbageTail() throws Exception {
+    final File file = _folder.newFile();
+    final MutationLog log = new MutationLog(file, new TodoItemCodec());
+    log.load();
+    log.append(MutationLog.Entry.clearAll("owner", Collections.<ObjectId>emptyList()));
+    log.close();
+
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(new byte[] {12, 0, 0, 0, 1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+    assertEquals(1, new MutationLog(file, new TodoItemCodec()).load().size());
+  }
+
+  @Test
+  public void compactsAcknowledgedEntries() throws Exception {
+    final File file = _folder.newFile();
+    final MutationLog log = new MutationLog(file, new TodoItemCodec());
+    log.load();
+
+    final List<MutationLog.Entry> appended = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      appended.add(log.append(MutationLog.Entry.setTask("owner", new ObjectId(), "task " + i)));
+    }
+    for (int i = 0; i < 990; i++) {
+      log.acknowledge(appended.get(i));
+    }
+    log.close();
+
+    final long compactedLength = file.length();
+    final List<MutationLog.Entry> entries = new MutationLog(file, new TodoItemCodec()).load();
+
+    assertEquals(10, entries.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("task " + (990 + i), entries.get(i).task);
+    }
+    // 1000 entries and 990 acknowledgements would take far more room than this.
+    assertTrue(compactedLength < 200 * 100);
+    assertFalse(new File(file.getPath() + ".compact").exists());
+  }
+}
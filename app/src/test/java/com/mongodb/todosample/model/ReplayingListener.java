@@ -0,0 +1,89 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Keeps its own copy of the list by applying each ChangeSet it receives, the way a
+ * RecyclerView does, and checks after every notification that the copy matches the list the
+ * notification carries.
+ */
+class ReplayingListener implements TodoList.Listener {
+  final List<TodoItem> items = new ArrayList<>();
+  volatile Throwable failure;
+
+  @Override
+  public void onListModified(final List<TodoItem> newItems) {
+    items.clear();
+    items.addAll(newItems);
+  }
+
+  @Override
+  public void onListChanged(final List<TodoItem> newItems, final ChangeSet changes) {
+    try {
+      _replay(changes);
+      assertSameItems(newItems, _fillPlaceholders(items, newItems));
+    } catch (final AssertionError | RuntimeException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    items.clear();
+    items.addAll(newItems);
+  }
+
+  /**
+   * Inserted and changed rows are rebound from the new list, so they are only placeholders
+   * here. Every other row must already match the new list exactly.
+   */
+  private void _replay(final ChangeSet changes) {
+    for (final ChangeSet.Change change : changes.getChanges()) {
+      switch (change.getType()) {
+        case INSERTED:
+          items.addAll(change.getPosition(), Collections.<TodoItem>nCopies(change.getCount(), null));
+          break;
+        case REMOVED:
+          items.subList(change.getPosition(), change.getPosition() + change.getCount()).clear();
+          break;
+        case MOVED:
+          items.add(change.getToPosition(), items.remove(change.getPosition()));
+          break;
+        case CHANGED:
+          for (int i = 0; i < change.getCount(); i++) {
+            items.set(change.getPosition() + i, null);
+          }
+          break;
+      }
+    }
+  }
+
+  private static List<TodoItem> _fillPlaceholders(
+          final List<TodoItem> items,
+          final List<TodoItem> newItems) {
+    final List<TodoItem> filled = new ArrayList<>(items);
+    for (int i = 0; i < filled.size() && i < newItems.size(); i++) {
+      if (filled.get(i) == null) {
+        filled.set(i, newItems.get(i));
+      }
+    }
+    return filled;
+  }
+
+  @Override
+  public void onMutationRolledBack(final Exception cause) {
+  }
+
+  static void assertSameItems(final List<TodoItem> expected, final List<TodoItem> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getId(), actual.get(i).getId());
+      assertEquals(expected.get(i).getTask(), actual.get(i).getTask());
+      assertEquals(expected.get(i).getChecked(), actual.get(i).getChecked());
+    }
+  }
+}
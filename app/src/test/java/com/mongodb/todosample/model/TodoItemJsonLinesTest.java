@@ -0,0 +1,87 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+import com.mongodb.todosample.model.objects.TodoItemCodec;
+
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TodoItemJsonLinesTest {
+  @Rule
+  public final TemporaryFolder _folder = new TemporaryFolder();
+
+  @Test
+  public void readsBackWhatItWrote() throws Exception {
+    final File file = _folder.newFile();
+    final Date done = new Date(1500000000000L);
+    final TodoItem checked =
+            new TodoItem(ObjectId.get(), "owner", "a \"quoted\"\ntask", true, done, done, false);
+    final TodoItem unchecked = new TodoItem("b");
+
+    final TodoItemJsonLines.Writer writer =
+            new TodoItemJsonLines.Writer(file, new TodoItemCodec());
+    writer.write(checked);
+    writer.write(unchecked);
+    writer.close();
+
+    final TodoItemJsonLines.Reader reader =
+            new TodoItemJsonLines.Reader(file, new TodoItemCodec());
+    final TodoItem first = reader.next();
+    final TodoItem second = reader.next();
+    assertNull(reader.next());
+    reader.close();
+
+    assertEquals(checked.getId(), first.getId());
+    assertEquals("a \"quoted\"\ntask", first.getTask());
+    assertTrue(first.getChecked());
+    assertEquals(done, first.getDoneDate());
+    assertEquals(unchecked.getId(), second.getId());
+    assertEquals("b", second.getTask());
+    assertFalse(second.getChecked());
+    assertNull(second.getDoneDate());
+  }
+
+  @Test
+  public void readsItemsWrittenByOtherTools() throws Exception {
+    final File file = _write("{\"task\": \"x\", \"checked\": true, \"priority\": 2}\n\n"
+            + "{\"task\": \"y\"}\n");
+
+    final TodoItemJsonLines.Reader reader =
+            new TodoItemJsonLines.Reader(file, new TodoItemCodec());
+    final TodoItem first = reader.next();
+    final TodoItem second = reader.next();
+    assertNull(reader.next());
+    reader.close();
+
+    assertEquals("x", first.getTask());
+    assertTrue(first.getChecked());
+    assertEquals("y", second.getTask());
+    assertFalse(second.getChecked());
+  }
+
+  @Test(expected = JsonParseException.class)
+  public void rejectsMalformedLines() throws Exception {
+    final File file = _write("{\"task\": \n");
+    new TodoItemJsonLines.Reader(file, new TodoItemCodec()).next();
+  }
+
+  private File _write(final String contents) throws Exception {
+    final File file = _folder.newFile();
+    final FileOutputStream out = new FileOutputStream(file);
+    out.write(contents.getBytes("UTF-8"));
+    out.close();
+    return file;
+  }
+}
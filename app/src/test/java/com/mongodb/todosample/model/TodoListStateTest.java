@@ -0,0 +1,221 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hammers a TodoListState with optimistic mutations, refreshes, rollbacks, resets and reads from
+ * several threads at once, and checks that readers only ever see consistent snapshots and that a
+ * listener replaying the notifications it receives always ends up with the published list.
+ */
+public class TodoListStateTest {
+  private static final int MUTATOR_THREADS = 4;
+  private static final int REFRESHER_THREADS = 2;
+  private static final int READER_THREADS = 2;
+  private static final int OPERATIONS_PER_THREAD = 2000;
+
+  @Test
+  public void concurrentMutationsRefreshesAndReadsStayConsistent() throws Exception {
+    final ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+    final TodoListState state = new TodoListState(dispatcher);
+    final FakeServer server = new FakeServer();
+    final ReplayingListener listener = new ReplayingListener();
+    state.registerListener(listener);
+
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final AtomicBoolean done = new AtomicBoolean();
+    final List<Thread> writers = new ArrayList<>();
+    final List<Thread> readers = new ArrayList<>();
+
+    for (int i = 0; i < MUTATOR_THREADS; i++) {
+      final long seed = i;
+      writers.add(new Thread(new Guarded(failure) {
+        @Override
+        void runGuarded() {
+          final Random random = new Random(seed);
+          for (int op = 0; op < OPERATIONS_PER_THREAD; op++) {
+            final Mutation mutation = _randomMutation(random, state.snapshot());
+            state.applyMutation(mutation);
+            if (random.nextInt(10) == 0) {
+              // The write failed on the server.
+              final TodoListState.Rebuild rebuild = state.discard(mutation);
+              if (rebuild != null) {
+                state.commit(rebuild, ListDiffer.diff(rebuild.base, rebuild.list));
+              }
+            } else {
+              server.apply(mutation);
+              state.acknowledge(mutation);
+            }
+          }
+        }
+      }));
+    }
+
+    for (int i = 0; i < REFRESHER_THREADS; i++) {
+      writers.add(new Thread(new Guarded(failure) {
+        @Override
+        void runGuarded() {
+          for (int op = 0; op < OPERATIONS_PER_THREAD / 4; op++) {
+            _refresh(state, server);
+          }
+        }
+      }));
+    }
+
+    for (int i = 0; i < READER_THREADS; i++) {
+      readers.add(new Thread(new Guarded(failure) {
+        @Override
+        void runGuarded() {
+          long lastVersion = -1;
+          while (!done.get()) {
+            final TodoListSnapshot snapshot = state.snapshot();
+            assertTrue(snapshot.getVersion() >= lastVersion);
+            lastVersion = snapshot.getVersion();
+
+            int checked = 0;
+            for (final TodoItem item : snapshot) {
+              if (item.getChecked()) {
+                checked++;
+              }
+            }
+            assertEquals(snapshot.getCheckedCount(), checked);
+          }
+        }
+      }));
+    }
+
+    for (final Thread thread : readers) {
+      thread.start();
+    }
+    for (final Thread thread : writers) {
+      thread.start();
+    }
+    for (final Thread thread : writers) {
+      thread.join();
+    }
+    done.set(true);
+    for (final Thread thread : readers) {
+      thread.join();
+    }
+    assertNull(failure.get());
+
+    // Every write has either been rolled back or acknowledged, so one more refresh leaves no
+    // pending mutations and the list matches the server.
+    _refresh(state, server);
+    _drain(dispatcher);
+
+    ReplayingListener.assertSameItems(server.items(), state.snapshot());
+    ReplayingListener.assertSameItems(state.snapshot(), listener.items);
+    assertNull(listener.failure);
+  }
+
+  @Test
+  public void resetDiscardsInFlightRefreshes() throws Exception {
+    final ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+    final TodoListState state = new TodoListState(dispatcher);
+    final ReplayingListener listener = new ReplayingListener();
+    state.registerListener(listener);
+
+    final List<TodoItem> serverList = new ArrayList<>();
+    serverList.add(new TodoItem("a"));
+    final int refreshNumber = state.beginRefresh();
+    state.reset();
+
+    assertNull(state.onServerVersion(serverList, refreshNumber));
+    assertEquals(0, state.snapshot().size());
+
+    _drain(dispatcher);
+    assertEquals(0, listener.items.size());
+    assertNull(listener.failure);
+  }
+
+  private static void _refresh(final TodoListState state, final FakeServer server) {
+    final int refreshNumber = state.beginRefresh();
+    final TodoListState.Rebuild rebuild = state.onServerVersion(server.items(), refreshNumber);
+    if (rebuild != null) {
+      state.commit(rebuild, ListDiffer.diff(rebuild.base, rebuild.list));
+    }
+  }
+
+  private static Mutation _randomMutation(final Random random, final List<TodoItem> items) {
+    final int choice = random.nextInt(100);
+    if (items.isEmpty() || choice < 40) {
+      return new Mutation.AddItem(new TodoItem("task " + random.nextInt()));
+    }
+    final TodoItem item = items.get(random.nextInt(items.size()));
+    if (choice < 75) {
+      return new Mutation.SetChecked(item.getId(), !item.getChecked());
+    }
+    if (choice < 97) {
+      return new Mutation.SetTask(item.getId(), "edited " + random.nextInt());
+    }
+    final List<ObjectId> checkedIds = new ArrayList<>();
+    for (final TodoItem checked : items) {
+      if (checked.getChecked()) {
+        checkedIds.add(checked.getId());
+      }
+    }
+    return new Mutation.ClearChecked(checkedIds);
+  }
+
+  private static void _drain(final ExecutorService dispatcher) throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    dispatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+
+  /**
+   * The server's version of the list, which acknowledged mutations are applied to.
+   */
+  private static class FakeServer {
+    private final IndexedTodoItemList _items = new IndexedTodoItemList();
+
+    synchronized void apply(final Mutation mutation) {
+      mutation.apply(_items, null);
+    }
+
+    synchronized List<TodoItem> items() {
+      return new ArrayList<>(_items);
+    }
+  }
+
+  private abstract static class Guarded implements Runnable {
+    private final AtomicReference<Throwable> _failure;
+
+    Guarded(final AtomicReference<Throwable> failure) {
+      this._failure = failure;
+    }
+
+    abstract void runGuarded();
+
+    @Override
+    public void run() {
+      try {
+        runGuarded();
+      } catch (final Throwable t) {
+        _failure.compareAndSet(null, t);
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TodoSearchIndexTest {
+  private static final String[] WORDS =
+          {"buy", "butter", "milk", "mail", "letter", "call", "mom", "Bob", "car", "cart"};
+
+  @Test
+  public void matchesEveryWordAsAPrefixAndRanksExactWordsFirst() {
+    final TodoItem busy = new TodoItem("Busy day");
+    final TodoItem butter = new TodoItem("Buy butter");
+    final TodoItem bus = new TodoItem("Catch Bob's bus, then buy milk");
+    final TodoSearchIndex index = new TodoSearchIndex();
+    index.reset(Arrays.asList(butter, bus, busy));
+
+    assertEquals(Arrays.asList(busy, butter, bus), index.search("bu"));
+    assertEquals(Arrays.asList(bus, busy), index.search("bus"));
+    assertEquals(Arrays.asList(butter, bus), index.search("BUY"));
+    assertEquals(Collections.singletonList(bus), index.search("bu milk"));
+    assertEquals(Collections.singletonList(bus), index.search("bob's"));
+    assertEquals(Collections.singletonList(busy), index.search("  busy, d"));
+    assertTrue(index.search("buy car").isEmpty());
+    assertTrue(index.search(" ,. ").isEmpty());
+  }
+
+  @Test
+  public void scansListsTheWayItSearchesThem() {
+    final List<TodoItem> list = Arrays.asList(
+            new TodoItem("Busy day"),
+            new TodoItem("Buy butter"),
+            new TodoItem("Catch Bob's bus, then buy milk"));
+    final TodoSearchIndex index = new TodoSearchIndex();
+    index.reset(list);
+
+    for (final String query : new String[] {"bu", "bus", "BUY", "bu milk", "bob's", "car", ""}) {
+      assertEquals(query, index.search(query), TodoSearchIndex.scan(list, query));
+    }
+  }
+
+  @Test
+  public void followsTheListThroughChangeSets() {
+    final Random random = new Random(42);
+    final TodoSearchIndex index = new TodoSearchIndex();
+    List<TodoItem> list = new ArrayList<>();
+    index.reset(list);
+
+    for (int round = 0; round < 500; round++) {
+      final List<TodoItem> next = new ArrayList<>(list);
+      for (int i = random.nextInt(4); i >= 0; i--) {
+        final int operation = random.nextInt(4);
+        if (operation == 0 || next.isEmpty()) {
+          next.add(random.nextInt(next.size() + 1), new TodoItem(_task(random)));
+        } else if (operation == 1) {
+          next.remove(random.nextInt(next.size()));
+        } else if (operation == 2) {
+          final int position = random.nextInt(next.size());
+          next.set(position, next.get(position).withTask(_task(random)));
+        } else {
+          next.add(random.nextInt(next.size()), next.remove(random.nextInt(next.size())));
+        }
+      }
+      index.apply(next, ListDiffer.diff(list, next));
+      list = next;
+
+      for (final String word : WORDS) {
+        final String prefix = word.substring(0, 1 + random.nextInt(word.length()));
+        assertEquals(prefix, _bruteForce(list, prefix), new HashSet<>(index.search(prefix)));
+      }
+    }
+  }
+
+  /**
+   * Long enough that small change sets are replayed rather than reindexed from scratch, with
+   * changes in any order rather than only the order ListDiffer emits them in.
+   */
+  @Test
+  public void followsALongListThroughChangesInAnyOrder() {
+    final Random random = new Random(7);
+    final TodoSearchIndex index = new TodoSearchIndex();
+    List<TodoItem> list = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      list.add(new TodoItem(_task(random)));
+    }
+    index.reset(list);
+
+    for (int round = 0; round < 150; round++) {
+      final List<TodoItem> next = new ArrayList<>(list);
+      final ChangeSet.Builder changes = new ChangeSet.Builder();
+      for (int i = random.nextInt(6); i >= 0; i--) {
+        final int operation = random.nextInt(4);
+        final int position = random.nextInt(next.size());
+        final int count = 1 + random.nextInt(3);
+        if (operation == 0) {
+          for (int j = 0; j < count; j++) {
+            next.add(position, new TodoItem(_task(random)));
+          }
+          changes.inserted(position, count);
+        } else if (operation == 1) {
+          final int removed = Math.min(count, next.size() - position);
+          next.subList(position, position + removed).clear();
+          changes.removed(position, removed);
+        } else if (operation == 2) {
+          final int changed = Math.min(count, next.size() - position);
+          for (int j = position; j < position + changed; j++) {
+            next.set(j, next.get(j).withTask(_task(random)));
+          }
+          changes.changed(position, changed, ChangeSet.PAYLOAD_TASK);
+        } else {
+          final int to = random.nextInt(next.size());
+          next.add(to, next.remove(position));
+          changes.moved(position, to);
+        }
+      }
+      index.apply(next, changes.build());
+      list = next;
+
+      for (final String word : WORDS) {
+        final String prefix = word.substring(0, 1 + random.nextInt(word.length()));
+        assertEquals(prefix, _bruteForce(list, prefix), new HashSet<>(index.search(prefix)));
+      }
+    }
+  }
+
+  private static String _task(final Random random) {
+    return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+  }
+
+  private static HashSet<TodoItem> _bruteForce(final List<TodoItem> list, final String prefix) {
+    final HashSet<TodoItem> matches = new HashSet<>();
+    for (final TodoItem item : list) {
+      for (final String word : TodoSearchIndex.tokenize(item.getTask())) {
+        if (word.startsWith(prefix.toLowerCase())) {
+          matches.add(item);
+        }
+      }
+    }
+    return matches;
+  }
+}
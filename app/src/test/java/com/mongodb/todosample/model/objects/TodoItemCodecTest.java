@@ -0,0 +1,154 @@
+package com.mongodb.todosample.model.objects;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonType;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TodoItemCodecTest {
+  private final TodoItemCodec _codec = new TodoItemCodec();
+
+  @Test
+  public void roundTripsEveryField() {
+    final TodoItem item = new TodoItem(
+            new ObjectId(), "owner", "task", true, new Date(1000), new Date(2000), true);
+
+    final TodoItem decoded = _decodeBatch(_codec, _encodeBatch(_codec, _listOf(item))).get(0);
+
+    assertEquals(item.getId(), decoded.getId());
+    assertEquals("owner", decoded.getOwnerId());
+    assertEquals("task", decoded.getTask());
+    assertTrue(decoded.getChecked());
+    assertEquals(new Date(1000), decoded.getDoneDate());
+    assertEquals(new Date(2000), decoded.getLastModified());
+    assertTrue(decoded.getDeleted());
+  }
+
+  @Test
+  public void defaultsMissingAndNullFields() {
+    final BasicOutputBuffer buffer = new BasicOutputBuffer();
+    final BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+    final ObjectId id = new ObjectId();
+    writer.writeStartDocument();
+    writer.writeStartArray("items");
+    writer.writeStartDocument();
+    writer.writeObjectId(TodoItem.ID_KEY, id);
+    writer.writeString(TodoItem.TASK_KEY, "task");
+    writer.writeNull(TodoItem.DONE_DATE_KEY);
+    writer.writeInt32("unknown", 1);
+    writer.writeEndDocument();
+    writer.writeEndArray();
+    writer.writeEndDocument();
+    writer.close();
+
+    final TodoItem decoded = _decodeBatch(_codec, buffer.toByteArray()).get(0);
+
+    assertEquals(id, decoded.getId());
+    assertNull(decoded.getOwnerId());
+    assertEquals("task", decoded.getTask());
+    assertFalse(decoded.getChecked());
+    assertNull(decoded.getDoneDate());
+    assertNull(decoded.getLastModified());
+    assertFalse(decoded.getDeleted());
+  }
+
+  @Test
+  public void readsWhatThePojoCodecWrites() {
+    final Codec<TodoItem> pojoCodec = _pojoCodec();
+    final List<TodoItem> items = _batch(100);
+
+    final List<TodoItem> decoded = _decodeBatch(_codec, _encodeBatch(pojoCodec, items));
+
+    _assertSameItems(items, decoded);
+  }
+
+  private static Codec<TodoItem> _pojoCodec() {
+    return fromProviders(PojoCodecProvider.builder().register(TodoItem.class).build())
+            .get(TodoItem.class);
+  }
+
+  private static List<TodoItem> _batch(final int size) {
+    final List<TodoItem> items = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      items.add(new TodoItem(
+              new ObjectId(),
+              "owner",
+              "task " + i,
+              i % 3 == 0,
+              i % 3 == 0 ? new Date(1000L * i) : null,
+              new Date(2000L * i),
+              false));
+    }
+    return items;
+  }
+
+  private static List<TodoItem> _listOf(final TodoItem item) {
+    final List<TodoItem> items = new ArrayList<>();
+    items.add(item);
+    return items;
+  }
+
+  private static byte[] _encodeBatch(final Codec<TodoItem> codec, final List<TodoItem> items) {
+    final BasicOutputBuffer buffer = new BasicOutputBuffer();
+    final BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+    final EncoderContext encoderContext = EncoderContext.builder().build();
+    writer.writeStartDocument();
+    writer.writeStartArray("items");
+    for (final TodoItem item : items) {
+      codec.encode(writer, item, encoderContext);
+    }
+    writer.writeEndArray();
+    writer.writeEndDocument();
+    writer.close();
+    return buffer.toByteArray();
+  }
+
+  private static List<TodoItem> _decodeBatch(final Codec<TodoItem> codec, final byte[] bytes) {
+    final BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes));
+    final DecoderContext decoderContext = DecoderContext.builder().build();
+    final List<TodoItem> items = new ArrayList<>();
+    try {
+      reader.readStartDocument();
+      reader.readName("items");
+      reader.readStartArray();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        items.add(codec.decode(reader, decoderContext));
+      }
+      reader.readEndArray();
+      reader.readEndDocument();
+    } finally {
+      reader.close();
+    }
+    return items;
+  }
+
+  private static void _assertSameItems(final List<TodoItem> expected, final List<TodoItem> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getId(), actual.get(i).getId());
+      assertEquals(expected.get(i).getOwnerId(), actual.get(i).getOwnerId());
+      assertEquals(expected.get(i).getTask(), actual.get(i).getTask());
+      assertEquals(expected.get(i).getChecked(), actual.get(i).getChecked());
+      assertEquals(expected.get(i).getDoneDate(), actual.get(i).getDoneDate());
+      assertEquals(expected.get(i).getLastModified(), actual.get(i).getLastModified());
+      assertEquals(expected.get(i).getDeleted(), actual.get(i).getDeleted());
+    }
+  }
+}
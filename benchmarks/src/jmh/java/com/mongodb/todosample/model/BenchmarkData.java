@@ -0,0 +1,84 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the lists the benchmarks run on. Every list is derived from a fixed seed, so runs are
+ * comparable.
+ */
+final class BenchmarkData {
+  static final long SEED = 42;
+
+  private BenchmarkData() {
+  }
+
+  static List<TodoItem> items(final int size, final Random random) {
+    final List<TodoItem> items = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      items.add(item(i, random));
+    }
+    return items;
+  }
+
+  static TodoItem item(final int index, final Random random) {
+    final boolean checked = random.nextInt(3) == 0;
+    return new TodoItem(
+            new ObjectId(),
+            "owner",
+            "task " + index,
+            checked,
+            checked ? new Date(1000L * index) : null,
+            new Date(2000L * index),
+            false);
+  }
+
+  /**
+   * The documents a delta refresh of the given list would return if about 1% of it changed: some
+   * items checked or edited, some deleted (as tombstones) and some added.
+   */
+  static List<TodoItem> delta(final List<TodoItem> items, final Random random) {
+    final int count = Math.max(1, items.size() / 100);
+    final List<TodoItem> delta = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final TodoItem item = items.get(random.nextInt(items.size()));
+      switch (random.nextInt(4)) {
+        case 0:
+          delta.add(item.withChecked(!item.getChecked()));
+          break;
+        case 1:
+          delta.add(item.withTask(item.getTask() + " edited"));
+          break;
+        case 2:
+          delta.add(new TodoItem(
+                  item.getId(),
+                  item.getOwnerId(),
+                  item.getTask(),
+                  item.getChecked(),
+                  item.getDoneDate(),
+                  item.getLastModified(),
+                  true));
+          break;
+        default:
+          delta.add(item(items.size() + i, random));
+          break;
+      }
+    }
+    return delta;
+  }
+
+  /**
+   * Returns the list with the delta merged into it, the way a delta refresh merges it.
+   */
+  static List<TodoItem> merged(final List<TodoItem> items, final List<TodoItem> delta) {
+    final IndexedTodoItemList merged = new IndexedTodoItemList(items);
+    merged.merge(delta);
+    return new ArrayList<>(merged);
+  }
+}
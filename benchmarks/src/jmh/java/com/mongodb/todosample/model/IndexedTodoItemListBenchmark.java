@@ -0,0 +1,64 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the indexed list the model caches the todo list in, copying it as every rebuild does,
+ * and looking items up by _id. The gc profiler's gc.alloc.rate.norm for building approximates the
+ * memory the list keeps per item on top of the items themselves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IndexedTodoItemListBenchmark {
+  @Param({"1000", "100000"})
+  public int listSize;
+
+  private List<TodoItem> _items;
+  private IndexedTodoItemList _list;
+  private ObjectId[] _lookups;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(BenchmarkData.SEED);
+    _items = BenchmarkData.items(listSize, random);
+    _list = new IndexedTodoItemList(_items);
+    _lookups = new ObjectId[1000];
+    for (int i = 0; i < _lookups.length; i++) {
+      _lookups[i] = _items.get(random.nextInt(listSize)).getId();
+    }
+  }
+
+  @Benchmark
+  public IndexedTodoItemList build() {
+    return new IndexedTodoItemList(_items);
+  }
+
+  @Benchmark
+  public IndexedTodoItemList copy() {
+    return new IndexedTodoItemList(_list);
+  }
+
+  @Benchmark
+  public int lookUpById() {
+    int positions = 0;
+    for (final ObjectId id : _lookups) {
+      positions += _list.positionOf(id);
+    }
+    return positions;
+  }
+}
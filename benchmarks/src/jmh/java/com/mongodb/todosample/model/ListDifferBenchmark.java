@@ -0,0 +1,57 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diffing two versions of the list into the ChangeSet the adapter applies: one where about 1% of
+ * the items changed, and one where, in addition, some items moved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListDifferBenchmark {
+  @Param({"100", "1000", "10000", "100000"})
+  public int listSize;
+
+  private List<TodoItem> _oldList;
+  private List<TodoItem> _changedList;
+  private List<TodoItem> _movedList;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(BenchmarkData.SEED);
+    _oldList = BenchmarkData.items(listSize, random);
+    _changedList = BenchmarkData.merged(_oldList, BenchmarkData.delta(_oldList, random));
+
+    _movedList = new ArrayList<>(_changedList);
+    for (int i = 0; i < Math.max(1, listSize / 100); i++) {
+      Collections.swap(
+              _movedList, random.nextInt(_movedList.size()), random.nextInt(_movedList.size()));
+    }
+  }
+
+  @Benchmark
+  public ChangeSet diffChanges() {
+    return ListDiffer.diff(_oldList, _changedList);
+  }
+
+  @Benchmark
+  public ChangeSet diffChangesAndMoves() {
+    return ListDiffer.diff(_oldList, _movedList);
+  }
+}
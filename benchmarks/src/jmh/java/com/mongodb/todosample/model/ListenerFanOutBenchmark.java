@@ -0,0 +1,90 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applying a single-item change event and notifying every registered listener of it, as a
+ * subscribed list does for each change made on another device. Listeners read the changed rows,
+ * the way an adapter rebinds them. Notifications are dispatched on the calling thread, so the
+ * dispatch itself is measured rather than a thread hop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ListenerFanOutBenchmark {
+  @Param({"100", "1000", "10000", "100000"})
+  public int listSize;
+
+  @Param({"1", "4", "16"})
+  public int listenerCount;
+
+  private TodoListState _state;
+  private int _next;
+
+  @Setup
+  public void setUp(final Blackhole blackhole) {
+    _state = new TodoListState(new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        command.run();
+      }
+    });
+    _state.restore(BenchmarkData.items(listSize, new Random(BenchmarkData.SEED)));
+    for (int i = 0; i < listenerCount; i++) {
+      _state.registerListener(new ConsumingListener(blackhole));
+    }
+  }
+
+  @Benchmark
+  public void toggleChecked() {
+    _next = (_next + 7919) % listSize;
+    final TodoItem item = _state.snapshot().get(_next);
+    _state.onChangeEvents(Collections.singletonList(new ChangeEvent(
+            ChangeEvent.OperationType.UPDATE,
+            item.getId(),
+            item.withChecked(!item.getChecked()))));
+  }
+
+  private static class ConsumingListener implements TodoList.Listener {
+    private final Blackhole _blackhole;
+
+    ConsumingListener(final Blackhole blackhole) {
+      this._blackhole = blackhole;
+    }
+
+    @Override
+    public void onListModified(final List<TodoItem> items) {
+      _blackhole.consume(items.size());
+    }
+
+    @Override
+    public void onListChanged(final List<TodoItem> items, final ChangeSet changes) {
+      for (final ChangeSet.Change change : changes.getChanges()) {
+        for (int i = 0; i < change.getCount() && change.getPosition() + i < items.size(); i++) {
+          _blackhole.consume(items.get(change.getPosition() + i));
+        }
+      }
+    }
+
+    @Override
+    public void onMutationRolledBack(final Exception cause) {
+      _blackhole.consume(cause);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging the result of a delta refresh, about 1% of the list, into a copy of the server's
+ * version of the list, as a delta refresh does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MergeBenchmark {
+  @Param({"100", "1000", "10000", "100000"})
+  public int listSize;
+
+  private IndexedTodoItemList _serverList;
+  private List<TodoItem> _delta;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(BenchmarkData.SEED);
+    final List<TodoItem> items = BenchmarkData.items(listSize, random);
+    _serverList = new IndexedTodoItemList(items);
+    _delta = BenchmarkData.delta(items, random);
+  }
+
+  @Benchmark
+  public IndexedTodoItemList copyAndMerge() {
+    final IndexedTodoItemList merged = new IndexedTodoItemList(_serverList);
+    merged.merge(_delta);
+    return merged;
+  }
+}
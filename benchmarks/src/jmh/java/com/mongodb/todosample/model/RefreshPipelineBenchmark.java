@@ -0,0 +1,105 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+import com.mongodb.todosample.model.objects.TodoItemCodec;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonType;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole path of a full reload once the response has arrived: decoding the documents,
+ * rebuilding the list over them, diffing it against the shown list and publishing it. Each
+ * invocation alternates between two versions of the list about 1% apart, so every publish
+ * carries real changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RefreshPipelineBenchmark {
+  @Param({"100", "1000", "10000", "100000"})
+  public int listSize;
+
+  private final TodoItemCodec _codec = new TodoItemCodec();
+  private final byte[][] _versions = new byte[2][];
+  private TodoListState _state;
+  private int _next;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(BenchmarkData.SEED);
+    final List<TodoItem> items = BenchmarkData.items(listSize, random);
+    _versions[0] = _encode(items);
+    _versions[1] = _encode(BenchmarkData.merged(items, BenchmarkData.delta(items, random)));
+
+    _state = new TodoListState(new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        command.run();
+      }
+    });
+    _state.restore(items);
+  }
+
+  @Benchmark
+  public TodoListSnapshot fullReload() {
+    _next ^= 1;
+    final List<TodoItem> serverList = _decode(_versions[_next]);
+    final TodoListState.Rebuild rebuild =
+            _state.onServerVersion(serverList, _state.beginRefresh());
+    _state.commit(rebuild, ListDiffer.diff(rebuild.base, rebuild.list));
+    return _state.snapshot();
+  }
+
+  private byte[] _encode(final List<TodoItem> items) {
+    final BasicOutputBuffer buffer = new BasicOutputBuffer();
+    final BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+    final EncoderContext encoderContext = EncoderContext.builder().build();
+    writer.writeStartDocument();
+    writer.writeStartArray("items");
+    for (final TodoItem item : items) {
+      _codec.encode(writer, item, encoderContext);
+    }
+    writer.writeEndArray();
+    writer.writeEndDocument();
+    writer.close();
+    return buffer.toByteArray();
+  }
+
+  private List<TodoItem> _decode(final byte[] bytes) {
+    final BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes));
+    final DecoderContext decoderContext = DecoderContext.builder().build();
+    final List<TodoItem> items = new ArrayList<>();
+    try {
+      reader.readStartDocument();
+      reader.readName("items");
+      reader.readStartArray();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        items.add(_codec.decode(reader, decoderContext));
+      }
+      reader.readEndArray();
+      reader.readEndDocument();
+    } finally {
+      reader.close();
+    }
+    return items;
+  }
+}
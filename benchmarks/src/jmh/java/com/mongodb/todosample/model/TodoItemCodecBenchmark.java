@@ -0,0 +1,104 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+import com.mongodb.todosample.model.objects.TodoItemCodec;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonType;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+
+/**
+ * Encoding and decoding a whole list of TodoItems, as a refresh or a snapshot does, with the
+ * hand-written codec and, for comparison, the POJO codec it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TodoItemCodecBenchmark {
+  @Param({"100", "1000", "10000", "100000"})
+  public int listSize;
+
+  private final Codec<TodoItem> _codec = new TodoItemCodec();
+  private final Codec<TodoItem> _pojoCodec =
+          fromProviders(PojoCodecProvider.builder().register(TodoItem.class).build())
+                  .get(TodoItem.class);
+
+  private List<TodoItem> _items;
+  private byte[] _encoded;
+
+  @Setup
+  public void setUp() {
+    _items = BenchmarkData.items(listSize, new Random(BenchmarkData.SEED));
+    _encoded = _encode(_codec, _items);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return _encode(_codec, _items);
+  }
+
+  @Benchmark
+  public List<TodoItem> decode() {
+    return _decode(_codec, _encoded);
+  }
+
+  @Benchmark
+  public List<TodoItem> decodeWithPojoCodec() {
+    return _decode(_pojoCodec, _encoded);
+  }
+
+  private static byte[] _encode(final Codec<TodoItem> codec, final List<TodoItem> items) {
+    final BasicOutputBuffer buffer = new BasicOutputBuffer();
+    final BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+    final EncoderContext encoderContext = EncoderContext.builder().build();
+    writer.writeStartDocument();
+    writer.writeStartArray("items");
+    for (final TodoItem item : items) {
+      codec.encode(writer, item, encoderContext);
+    }
+    writer.writeEndArray();
+    writer.writeEndDocument();
+    writer.close();
+    return buffer.toByteArray();
+  }
+
+  private static List<TodoItem> _decode(final Codec<TodoItem> codec, final byte[] bytes) {
+    final BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes));
+    final DecoderContext decoderContext = DecoderContext.builder().build();
+    final List<TodoItem> items = new ArrayList<>();
+    try {
+      reader.readStartDocument();
+      reader.readName("items");
+      reader.readStartArray();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        items.add(codec.decode(reader, decoderContext));
+      }
+      reader.readEndArray();
+      reader.readEndDocument();
+    } finally {
+      reader.close();
+    }
+    return items;
+  }
+}
@@ -0,0 +1,20 @@
+package com.mongodb.todosample.model;
+
+import com.mongodb.todosample.model.objects.TodoItem;
+
+import java.util.List;
+
+/**
+ * Stands in for the app's TodoList, which depends on Android and Stitch, so that TodoListState
+ * can be compiled for the benchmarks. Only the Listener interface is needed, and it must be kept
+ * identical to the app's.
+ */
+public class TodoList {
+  public interface Listener {
+    void onListModified(List<TodoItem> items);
+
+    void onListChanged(List<TodoItem> items, ChangeSet changes);
+
+    void onMutationRolledBack(Exception cause);
+  }
+}